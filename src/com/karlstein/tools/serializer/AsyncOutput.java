@@ -0,0 +1,495 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.*;
+
+/**
+ * This class is an output that does not block the writing thread on the underlying writer.
+ * The characters are copied to pooled chunks that are handed through a bounded queue
+ * to a dedicated thread writing them to the target.
+ * Each write call can be committed to get a future completed once it is written,
+ * {@link #flush()} and {@link #close()} wait until everything before them is written.
+ * It must be used by one thread at a time, like a writer.
+ * The output must be closed, when it is dropped without being closed the thread flushes
+ * the target and stops but the target is not closed and the characters not committed are lost.
+ *
+ * @author Karl STEIN
+ */
+public final class AsyncOutput extends Output {
+
+    /**
+     * The behaviours when the queue is full
+     */
+    public enum Backpressure {
+        /**
+         * The writing thread waits for the target
+         */
+        BLOCK,
+        /**
+         * An {@link IOException} is thrown, the characters stay in the current chunk
+         */
+        FAIL
+    }
+
+    /**
+     * The default size of the chunks
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    /**
+     * The default number of chunks in the queue
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+    /**
+     * The seconds the thread waits for a chunk before checking if the output is still used
+     */
+    private static final long IDLE_SECONDS = 1;
+
+    /**
+     * The kinds of chunks
+     */
+    private static final int DATA = 0;
+    private static final int FLUSH = 1;
+    private static final int CLOSE = 2;
+
+    /**
+     * The behaviour when the queue is full
+     */
+    private final Backpressure backpressure;
+    /**
+     * The size of the chunks
+     */
+    private final int chunkSize;
+    /**
+     * The chunks waiting to be written
+     */
+    private final BlockingQueue<Chunk> queue;
+    /**
+     * The chunk buffers that can be reused
+     */
+    private final BlockingQueue<char[]> free;
+    /**
+     * The task of the thread writing to the target
+     */
+    private final Drain drain;
+    /**
+     * The chunk being filled
+     */
+    private char[] buffer;
+    /**
+     * The number of characters in the chunk
+     */
+    private int count = 0;
+    /**
+     * The closed flag
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates an output writing UTF-8 to the channel
+     *
+     * @param channel the channel
+     */
+    public AsyncOutput(final WritableByteChannel channel) {
+        this(new Utf8Output(channel));
+    }
+
+    /**
+     * Creates an output with the default chunks that blocks when the queue is full
+     *
+     * @param target the writer
+     */
+    public AsyncOutput(final Writer target) {
+        this(target, DEFAULT_CHUNK_SIZE, DEFAULT_CAPACITY, Backpressure.BLOCK);
+    }
+
+    /**
+     * Creates an output
+     *
+     * @param target       the writer
+     * @param chunkSize    the size of the chunks
+     * @param capacity     the number of chunks in the queue
+     * @param backpressure the behaviour when the queue is full
+     */
+    public AsyncOutput(final Writer target, final int chunkSize, final int capacity, final Backpressure backpressure) {
+        if (chunkSize < 1 || capacity < 1) {
+            throw new IllegalArgumentException("The chunk size and the capacity must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.backpressure = backpressure;
+        this.queue = new ArrayBlockingQueue<Chunk>(capacity);
+        this.free = new ArrayBlockingQueue<char[]>(capacity + 1);
+        this.buffer = new char[chunkSize];
+        this.drain = new Drain(this, target);
+
+        final Thread thread = new Thread(drain, "kserializer-async-output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits until a batch is written
+     *
+     * @param batch the batch
+     * @throws IOException
+     */
+    private static void await(final Batch batch) throws IOException {
+        try {
+            batch.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer");
+        } catch (final ExecutionException e) {
+            throw new IOException("Cannot write to the target", e.getCause());
+        }
+    }
+
+    /**
+     * Checks that the output is open and that the target did not fail
+     *
+     * @throws IOException
+     */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (drain.error != null) {
+            throw new IOException("Cannot write to the target", drain.error);
+        }
+    }
+
+    /**
+     * Writes what was written and closes the target, it waits until the target is closed
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        final Batch batch = new Batch();
+        send(batch, CLOSE);
+        closed = true;
+        await(batch);
+    }
+
+    /**
+     * Sends what was written since the last commit to the target
+     *
+     * @return Future completed when it is written
+     * @throws IOException
+     */
+    public Future<Void> commit() throws IOException {
+        checkOpen();
+        final Batch batch = new Batch();
+        send(batch, DATA);
+        return batch;
+    }
+
+    /**
+     * Writes what was written to the target and flushes it, it waits until the target is flushed
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        final Batch batch = new Batch();
+        send(batch, FLUSH);
+        await(batch);
+    }
+
+    /**
+     * Sends what was written without waiting for the target
+     *
+     * @throws IOException
+     */
+    @Override
+    public void release() throws IOException {
+        commit();
+    }
+
+    /**
+     * Hands the current chunk to the thread writing to the target
+     *
+     * @param batch the batch completed with this chunk or null
+     * @param kind  the kind of chunk
+     * @throws IOException
+     */
+    private void send(final Batch batch, final int kind) throws IOException {
+        final Chunk chunk = new Chunk(count > 0 ? buffer : null, count, batch, kind);
+
+        try {
+            // Only data can be refused, flush and close are barriers
+            if (kind == DATA && backpressure == Backpressure.FAIL) {
+                if (!queue.offer(chunk)) {
+                    throw new IOException("The output queue is full");
+                }
+            } else {
+                queue.put(chunk);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer");
+        }
+        if (count > 0) {
+            final char[] next = free.poll();
+            buffer = next != null ? next : new char[chunkSize];
+            count = 0;
+        }
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        checkOpen();
+
+        if (count == buffer.length) {
+            send(null, DATA);
+        }
+        buffer[count++] = (char) c;
+    }
+
+    @Override
+    public void write(final char[] chars, final int offset, final int length) throws IOException {
+        checkOpen();
+        int position = offset;
+        final int end = offset + length;
+
+        while (position < end) {
+            if (count == buffer.length) {
+                send(null, DATA);
+            }
+            final int size = Math.min(end - position, buffer.length - count);
+            System.arraycopy(chars, position, buffer, count, size);
+            count += size;
+            position += size;
+        }
+    }
+
+    @Override
+    public void write(final String value, final int offset, final int length) throws IOException {
+        checkOpen();
+        int position = offset;
+        final int end = offset + length;
+
+        while (position < end) {
+            if (count == buffer.length) {
+                send(null, DATA);
+            }
+            final int size = Math.min(end - position, buffer.length - count);
+            value.getChars(position, position + size, buffer, count);
+            count += size;
+            position += size;
+        }
+    }
+
+    /**
+     * The completion of the chunks written before a commit, a flush or a close
+     */
+    private static final class Batch extends FutureTask<Void> {
+
+        /**
+         * The task of the batches
+         */
+        private static final Runnable NOTHING = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        /**
+         * Creates a batch
+         */
+        Batch() {
+            super(NOTHING, null);
+        }
+
+        /**
+         * Completes the batch
+         */
+        void complete() {
+            run();
+        }
+
+        /**
+         * Completes the batch with an error
+         *
+         * @param throwable the error
+         */
+        void fail(final Throwable throwable) {
+            setException(throwable);
+        }
+    }
+
+    /**
+     * A chunk of characters
+     */
+    private static final class Chunk {
+
+        /**
+         * The batch completed with this chunk or null
+         */
+        final Batch batch;
+        /**
+         * The characters or null
+         */
+        final char[] data;
+        /**
+         * The kind of chunk
+         */
+        final int kind;
+        /**
+         * The number of characters
+         */
+        final int length;
+
+        /**
+         * Creates a chunk
+         *
+         * @param data   the characters or null
+         * @param length the number of characters
+         * @param batch  the batch completed with this chunk or null
+         * @param kind   the kind of chunk
+         */
+        Chunk(final char[] data, final int length, final Batch batch, final int kind) {
+            this.data = data;
+            this.length = length;
+            this.batch = batch;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * The task writing the chunks to the target until the output is closed or dropped,
+     * it does not reference the output so that a dropped output can be collected
+     */
+    private static final class Drain implements Runnable {
+
+        /**
+         * The chunk buffers that can be reused
+         */
+        private final BlockingQueue<char[]> free;
+        /**
+         * The output, cleared when it is dropped
+         */
+        private final WeakReference<AsyncOutput> owner;
+        /**
+         * The chunks waiting to be written
+         */
+        private final BlockingQueue<Chunk> queue;
+        /**
+         * The size of the chunks
+         */
+        private final int chunkSize;
+        /**
+         * The target
+         */
+        private final Writer target;
+        /**
+         * The first error of the target, null if none
+         */
+        volatile Throwable error;
+
+        /**
+         * Creates the task
+         *
+         * @param output the output
+         * @param target the target
+         */
+        Drain(final AsyncOutput output, final Writer target) {
+            this.free = output.free;
+            this.owner = new WeakReference<AsyncOutput>(output);
+            this.queue = output.queue;
+            this.chunkSize = output.chunkSize;
+            this.target = target;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Chunk chunk = queue.poll(IDLE_SECONDS, TimeUnit.SECONDS);
+
+                    if (chunk == null) {
+                        // Nothing can be sent anymore by a dropped output
+                        if (owner.get() == null) {
+                            if (error == null) {
+                                target.flush();
+                            }
+                            return;
+                        }
+                        continue;
+                    }
+                    write(chunk);
+
+                    if (chunk.kind == CLOSE) {
+                        return;
+                    }
+                }
+            } catch (final InterruptedException e) {
+                // Stopped
+            } catch (final IOException e) {
+                // Dropped without being closed
+            }
+        }
+
+        /**
+         * Writes a chunk to the target, reuses its buffer and completes its batch
+         *
+         * @param chunk the chunk
+         */
+        private void write(final Chunk chunk) {
+            try {
+                if (error == null) {
+                    if (chunk.length > 0) {
+                        target.write(chunk.data, 0, chunk.length);
+                    }
+                    if (chunk.kind == FLUSH) {
+                        target.flush();
+                    } else if (chunk.batch != null && target instanceof Utf8Output) {
+                        // The committed characters must not stay in the bytes buffer
+                        ((Utf8Output) target).flushBuffer();
+                    }
+                }
+                if (chunk.kind == CLOSE) {
+                    target.close();
+                }
+            } catch (final IOException e) {
+                error = error != null ? error : e;
+            } catch (final RuntimeException e) {
+                error = error != null ? error : e;
+            }
+
+            if (chunk.data != null && chunk.data.length == chunkSize) {
+                free.offer(chunk.data);
+            }
+            if (chunk.batch != null) {
+                if (error != null) {
+                    chunk.batch.fail(error);
+                } else {
+                    chunk.batch.complete();
+                }
+            }
+        }
+    }
+}
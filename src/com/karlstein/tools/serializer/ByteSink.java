@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.karlstein.tools.serializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This interface receives the bytes encoded by {@link Utf8Output}
+ *
+ * @author Karl STEIN
+ */
+public interface ByteSink extends Closeable {
+
+    /**
+     * Flushes the written bytes
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException;
+
+    /**
+     * Writes bytes
+     *
+     * @param bytes  the bytes
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @throws IOException
+     */
+    void write(byte[] bytes, int offset, int length) throws IOException;
+}
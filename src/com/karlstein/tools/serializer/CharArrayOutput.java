@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is an output keeping the characters in memory until they are copied to another output,
+ * it is not synchronized
+ *
+ * @author Karl STEIN
+ */
+final class CharArrayOutput extends Output {
+
+    /**
+     * The characters
+     */
+    private char[] buffer;
+    /**
+     * The number of characters
+     */
+    private int count = 0;
+
+    /**
+     * Creates an output
+     *
+     * @param capacity the initial capacity
+     */
+    CharArrayOutput(final int capacity) {
+        this.buffer = new char[Math.max(capacity, 16)];
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Makes room for the given number of characters
+     *
+     * @param length the number of characters
+     */
+    private void ensureCapacity(final int length) {
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Returns the number of characters
+     *
+     * @return int
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes of the characters encoded by {@link Utf8Output}
+     *
+     * @return int
+     */
+    int utf8Length() {
+        int length = 0;
+
+        for (int i = 0; i < count; i++) {
+            final char c = buffer[i];
+
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(buffer[i + 1])) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Written as '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Removes the characters, the buffer is kept
+     */
+    void reset() {
+        count = 0;
+    }
+
+    @Override
+    public void write(final int c) {
+        ensureCapacity(1);
+        buffer[count++] = (char) c;
+    }
+
+    @Override
+    public void write(final char[] chars, final int offset, final int length) {
+        ensureCapacity(length);
+        System.arraycopy(chars, offset, buffer, count, length);
+        count += length;
+    }
+
+    @Override
+    public void write(final String value, final int offset, final int length) {
+        ensureCapacity(length);
+        value.getChars(offset, offset + length, buffer, count);
+        count += length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count);
+    }
+
+    /**
+     * Copies the characters to the context
+     *
+     * @param context the write context
+     * @throws IOException
+     */
+    void writeTo(final WriteContext context) throws IOException {
+        context.write(buffer, 0, count);
+    }
+}
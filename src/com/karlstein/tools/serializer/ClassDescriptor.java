@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * This class holds the serializable fields of a class,
+ * it is computed once per class and serializer configuration
+ *
+ * @author Karl STEIN
+ */
+public final class ClassDescriptor {
+
+    /**
+     * The described class
+     */
+    private final Class<?> type;
+    /**
+     * The serializable fields
+     */
+    final FieldAccessor[] fields;
+    /**
+     * The fields written as attributes
+     */
+    final FieldAccessor[] attributes;
+    /**
+     * The fields written as children
+     */
+    final FieldAccessor[] children;
+    /**
+     * The fields as a set
+     */
+    private final Set<Field> fieldSet;
+    /**
+     * The fields by name
+     */
+    private final Map<String, FieldAccessor> fieldsByName = new HashMap<String, FieldAccessor>();
+    /**
+     * The fields by node name, for the serializers writing the fields under another name
+     */
+    private final Map<String, FieldAccessor> fieldsByNodeName = new HashMap<String, FieldAccessor>();
+    /**
+     * The default constructor (resolved on first use)
+     */
+    private volatile MethodHandle constructor;
+
+    /**
+     * Creates a descriptor
+     *
+     * @param type       the described class
+     * @param fields     the serializable fields
+     * @param attributes the fields written as attributes
+     */
+    ClassDescriptor(final Class<?> type, final List<Field> fields, final Set<Field> attributes) {
+        final List<FieldAccessor> attributeList = new ArrayList<FieldAccessor>();
+        final List<FieldAccessor> childList = new ArrayList<FieldAccessor>();
+
+        this.type = type;
+        this.fields = new FieldAccessor[fields.size()];
+
+        // Keep the declaration order in both lists
+        for (int i = 0; i < this.fields.length; i++) {
+            final Field field = fields.get(i);
+            this.fields[i] = new FieldAccessor(field);
+
+            // A field hides the fields of the same name declared by the parents
+            if (!fieldsByName.containsKey(field.getName())) {
+                fieldsByName.put(field.getName(), this.fields[i]);
+            }
+
+            if (attributes.contains(field)) {
+                attributeList.add(this.fields[i]);
+            } else {
+                childList.add(this.fields[i]);
+            }
+        }
+        this.attributes = attributeList.toArray(new FieldAccessor[attributeList.size()]);
+        this.children = childList.toArray(new FieldAccessor[childList.size()]);
+        this.fieldSet = Collections.unmodifiableSet(new LinkedHashSet<Field>(fields));
+    }
+
+    /**
+     * Returns the fields written as attributes
+     *
+     * @return List
+     */
+    public List<FieldAccessor> getAttributes() {
+        return Collections.unmodifiableList(Arrays.<FieldAccessor>asList(attributes));
+    }
+
+    /**
+     * Returns the fields written as children
+     *
+     * @return List
+     */
+    public List<FieldAccessor> getChildren() {
+        return Collections.unmodifiableList(Arrays.<FieldAccessor>asList(children));
+    }
+
+    /**
+     * Returns the serializable field of the given name
+     *
+     * @param name the field name
+     * @return FieldAccessor or null if there is no such field
+     */
+    public FieldAccessor getField(final String name) {
+        return fieldsByName.get(name);
+    }
+
+    /**
+     * Returns the serializable field written under the given node name
+     *
+     * @param nodeName the node name
+     * @return FieldAccessor or null if there is no such field
+     */
+    public FieldAccessor getNodeField(final String nodeName) {
+        return fieldsByNodeName.get(nodeName);
+    }
+
+    /**
+     * Returns the serializable fields
+     *
+     * @return List
+     */
+    public List<FieldAccessor> getFields() {
+        return Collections.unmodifiableList(Arrays.<FieldAccessor>asList(fields));
+    }
+
+    /**
+     * Returns the serializable fields as a set
+     *
+     * @return Set
+     */
+    Set<Field> getFieldSet() {
+        return fieldSet;
+    }
+
+    /**
+     * Returns the described class
+     *
+     * @return Class
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Creates an instance of the described class using its default constructor
+     *
+     * @return Object
+     * @throws IllegalArgumentException if the class has no default constructor
+     */
+    public Object newInstance() {
+        final GeneratedAccessors generated = GeneratedAccessors.forClass(type);
+
+        if (generated != null) {
+            final Object instance = generated.newInstance();
+
+            if (instance != null) {
+                return instance;
+            }
+        }
+
+        MethodHandle handle = constructor;
+
+        if (handle == null) {
+            try {
+                final Constructor<?> defaultConstructor = type.getDeclaredConstructor();
+                defaultConstructor.setAccessible(true);
+                handle = MethodHandles.lookup().unreflectConstructor(defaultConstructor)
+                        .asType(MethodType.methodType(Object.class));
+                constructor = handle;
+
+            } catch (final NoSuchMethodException e) {
+                throw new IllegalArgumentException("The class " + type.getName() + " has no default constructor", e);
+            } catch (final IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot access the default constructor of " + type.getName(), e);
+            }
+        }
+
+        try {
+            return (Object) handle.invokeExact();
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Error e) {
+            throw e;
+        } catch (final Throwable throwable) {
+            throw new IllegalStateException("Cannot create an instance of " + type.getName(), throwable);
+        }
+    }
+
+    /**
+     * Sets the node name of a field, a field hides the fields of the same node name declared by the parents.
+     * It must be called before the descriptor is shared.
+     *
+     * @param nodeName the node name
+     * @param field    the field
+     */
+    void setNodeName(final String nodeName, final FieldAccessor field) {
+        if (!fieldsByNodeName.containsKey(nodeName)) {
+            fieldsByNodeName.put(nodeName, field);
+        }
+    }
+}
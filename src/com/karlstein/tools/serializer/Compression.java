@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class creates the compressed sinks and sources used with the serializers,
+ * compression runs on a pool of threads and decompression on its own thread.
+ *
+ * @author Karl STEIN
+ */
+public final class Compression {
+
+    /**
+     * The size of the buffers of the sources
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Prevents instantiation
+     */
+    private Compression() {
+    }
+
+    /**
+     * Returns a stream decompressing gzip data ahead of the reader
+     *
+     * @param stream the compressed stream
+     * @return InputStream
+     * @throws IOException
+     */
+    public static InputStream gunzip(final InputStream stream) throws IOException {
+        return new ReadAheadInputStream(new GZIPInputStream(stream, BUFFER_SIZE));
+    }
+
+    /**
+     * Returns a stream compressing to gzip on the shared pool
+     *
+     * @param stream the output stream, it is closed with the returned stream
+     * @return OutputStream
+     * @throws IOException
+     */
+    public static OutputStream gzip(final OutputStream stream) throws IOException {
+        return new ParallelDeflaterOutputStream(stream);
+    }
+
+    /**
+     * Returns a stream decompressing zlib data ahead of the reader
+     *
+     * @param stream the compressed stream
+     * @return InputStream
+     */
+    public static InputStream inflate(final InputStream stream) {
+        return new ReadAheadInputStream(new InflaterInputStream(new BufferedInputStream(stream, BUFFER_SIZE)));
+    }
+
+    /**
+     * Returns a stream compressing to zlib on the shared pool
+     *
+     * @param stream the output stream, it is closed with the returned stream
+     * @return OutputStream
+     * @throws IOException
+     */
+    public static OutputStream zlib(final OutputStream stream) throws IOException {
+        return new ParallelDeflaterOutputStream(stream, ParallelDeflaterOutputStream.Format.ZLIB);
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class reads CSV values one at a time (RFC 4180), without creating a string per value.
+ * Values can be delimited, a doubled delimiter stands for the delimiter and line breaks are kept,
+ * the escapes \n and \r written by {@link CsvSerializer} are decoded.
+ * Blank lines are skipped. The current value stays in a reused buffer until the next value is read.
+ * The read buffer is taken from a per-thread cache and given back by {@link #close()},
+ * the underlying reader is never closed.
+ *
+ * @author Karl STEIN
+ */
+public final class CsvReader implements Closeable {
+
+    /**
+     * The size of the read buffer
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * The read buffers that can be reused, per thread
+     */
+    private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>();
+    /**
+     * The powers of ten that are exact doubles
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    /**
+     * The maximal number of digits of an exact long mantissa
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    /**
+     * The states of the reader
+     */
+    private static final int BETWEEN_ROWS = 0;
+    private static final int IN_ROW = 1;
+    private static final int END_OF_INPUT = 2;
+
+    /**
+     * The reader
+     */
+    private final Reader reader;
+    /**
+     * The value delimiter
+     */
+    private final char delimiter;
+    /**
+     * The value separator
+     */
+    private final char separator;
+    /**
+     * The read buffer (null when closed)
+     */
+    private char[] buffer;
+    /**
+     * The position in the read buffer
+     */
+    private int position = 0;
+    /**
+     * The number of characters in the read buffer
+     */
+    private int limit = 0;
+    /**
+     * The current value
+     */
+    private char[] value = new char[64];
+    /**
+     * The number of characters of the current value
+     */
+    private int valueLength = 0;
+    /**
+     * The delimited flag of the current value
+     */
+    private boolean quoted = false;
+    /**
+     * The number of rows started
+     */
+    private long rowNumber = 0;
+    /**
+     * The state
+     */
+    private int state = BETWEEN_ROWS;
+
+    /**
+     * Creates a reader of values delimited by '"' and separated by ','
+     *
+     * @param reader the reader, it is not closed by this class
+     */
+    public CsvReader(final Reader reader) {
+        this(reader, '"', ',');
+    }
+
+    /**
+     * Creates a reader
+     *
+     * @param reader    the reader, it is not closed by this class
+     * @param delimiter the value delimiter
+     * @param separator the value separator
+     */
+    public CsvReader(final Reader reader, final char delimiter, final char separator) {
+        final char[] cached = BUFFERS.get();
+
+        if (cached != null) {
+            BUFFERS.set(null);
+            this.buffer = cached;
+        } else {
+            this.buffer = new char[BUFFER_SIZE];
+        }
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.separator = separator;
+    }
+
+    /**
+     * Adds a character to the current value
+     *
+     * @param c the character
+     */
+    private void append(final char c) {
+        if (valueLength == value.length) {
+            final char[] copy = new char[value.length * 2];
+            System.arraycopy(value, 0, copy, 0, valueLength);
+            value = copy;
+        }
+        value[valueLength++] = c;
+    }
+
+    /**
+     * Gives back the read buffer, the underlying reader is not closed
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            BUFFERS.set(buffer);
+            buffer = null;
+        }
+        state = END_OF_INPUT;
+    }
+
+    /**
+     * Returns the current value as a boolean
+     *
+     * @return boolean
+     * @throws IOException if the value is not true or false
+     */
+    public boolean getBoolean() throws IOException {
+        if (valueEquals("true")) {
+            return true;
+        } else if (valueEquals("false")) {
+            return false;
+        }
+        throw syntaxError("Invalid boolean " + getString());
+    }
+
+    /**
+     * Returns the current value as a char
+     *
+     * @return char
+     * @throws IOException if the value is not a single character
+     */
+    public char getChar() throws IOException {
+        if (valueLength != 1) {
+            throw syntaxError("Invalid char " + getString());
+        }
+        return value[0];
+    }
+
+    /**
+     * Returns the current value as a double
+     *
+     * @return double
+     * @throws IOException if the value is not a number
+     */
+    public double getDouble() throws IOException {
+        // Decimals of at most 15 digits are exact after a single division
+        final boolean negative = valueLength > 0 && value[0] == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        int i = negative ? 1 : 0;
+
+        for (; i < valueLength; i++) {
+            final char c = value[i];
+
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == valueLength && digits > 0 && digits <= MAX_EXACT_DIGITS && scale != 0) {
+            final double result = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+            return negative ? -result : result;
+        }
+        try {
+            return Double.parseDouble(getString());
+        } catch (final NumberFormatException e) {
+            throw syntaxError("Invalid number " + getString());
+        }
+    }
+
+    /**
+     * Returns the current value as an int
+     *
+     * @return int
+     * @throws IOException if the value is not an int
+     */
+    public int getInt() throws IOException {
+        final long result = getLong();
+
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+            throw syntaxError("The number " + result + " is not an int");
+        }
+        return (int) result;
+    }
+
+    /**
+     * Returns the number of characters of the current value
+     *
+     * @return int
+     */
+    public int getLength() {
+        return valueLength;
+    }
+
+    /**
+     * Returns the current value as a long
+     *
+     * @return long
+     * @throws IOException if the value is not a long
+     */
+    public long getLong() throws IOException {
+        final boolean negative = valueLength > 0 && value[0] == '-';
+        int i = negative ? 1 : 0;
+        long result = 0;
+
+        if (i == valueLength) {
+            throw syntaxError("Invalid number " + getString());
+        }
+
+        // Accumulate negatively to handle Long.MIN_VALUE
+        for (; i < valueLength; i++) {
+            final char c = value[i];
+
+            if (c < '0' || c > '9' || result < Long.MIN_VALUE / 10) {
+                throw syntaxError("Invalid number " + getString());
+            }
+            final long next = result * 10 - (c - '0');
+
+            if (next > result) {
+                throw syntaxError("Invalid number " + getString());
+            }
+            result = next;
+        }
+        if (!negative && result == Long.MIN_VALUE) {
+            throw syntaxError("Invalid number " + getString());
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Returns the number of the current row, from 1
+     *
+     * @return long
+     */
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * Returns the current value as a string
+     *
+     * @return String
+     */
+    public String getString() {
+        return new String(value, 0, valueLength);
+    }
+
+    /**
+     * Checks if the current value was delimited, so an empty value can be told from a missing one
+     *
+     * @return boolean
+     */
+    public boolean isQuoted() {
+        return quoted;
+    }
+
+    /**
+     * Moves to the next row, the values left in the current row are skipped
+     *
+     * @return boolean false at the end of the input
+     * @throws IOException
+     */
+    public boolean nextRow() throws IOException {
+        while (state == IN_ROW) {
+            nextValue();
+        }
+        if (state == END_OF_INPUT) {
+            return false;
+        }
+
+        // Skip the blank lines
+        int c;
+        do {
+            c = read();
+        } while (c == '\n' || c == '\r');
+
+        if (c < 0) {
+            state = END_OF_INPUT;
+            return false;
+        }
+        position--;
+        rowNumber++;
+        state = IN_ROW;
+        return true;
+    }
+
+    /**
+     * Reads the next value of the current row
+     *
+     * @return boolean false at the end of the row
+     * @throws IOException
+     */
+    public boolean nextValue() throws IOException {
+        if (state != IN_ROW) {
+            return false;
+        }
+        valueLength = 0;
+        int c = read();
+        quoted = c == delimiter;
+
+        if (quoted) {
+            while (true) {
+                c = read();
+
+                if (c < 0) {
+                    throw syntaxError("Unterminated value");
+                } else if (c == delimiter) {
+                    c = read();
+
+                    if (c != delimiter) {
+                        break;
+                    }
+                    append(delimiter);
+                } else if (c == '\\') {
+                    readEscape();
+                } else {
+                    append((char) c);
+                }
+            }
+        } else {
+            while (c >= 0 && c != separator && c != '\n' && c != '\r') {
+                if (c == '\\') {
+                    readEscape();
+                } else {
+                    append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        // End of the value
+        if (c == '\r') {
+            if (read() >= 0 && buffer[position - 1] != '\n') {
+                position--;
+            }
+            state = BETWEEN_ROWS;
+        } else if (c == '\n' || c < 0) {
+            state = BETWEEN_ROWS;
+        } else if (c != separator) {
+            throw syntaxError("Expected a separator after a delimited value");
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next character
+     *
+     * @return int or -1 at the end of the input
+     * @throws IOException
+     */
+    private int read() throws IOException {
+        if (position == limit) {
+            if (buffer == null) {
+                throw new IOException("Reader closed");
+            }
+            final int count = reader.read(buffer, 0, buffer.length);
+
+            if (count <= 0) {
+                return -1;
+            }
+            position = 0;
+            limit = count;
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Adds the character of an escape sequence after a backslash, other sequences are kept as is
+     *
+     * @throws IOException
+     */
+    private void readEscape() throws IOException {
+        final int c = read();
+
+        if (c == 'n') {
+            append('\n');
+        } else if (c == 'r') {
+            append('\r');
+        } else if (c == '\\') {
+            append('\\');
+        } else {
+            append('\\');
+
+            // Give back the character
+            if (c >= 0) {
+                position--;
+            }
+        }
+    }
+
+    /**
+     * Returns a syntax error at the current row
+     *
+     * @param message the error message
+     * @return IOException
+     */
+    private IOException syntaxError(final String message) {
+        return new IOException(message + " at row " + rowNumber);
+    }
+
+    /**
+     * Checks if the current value is the given text
+     *
+     * @param text the text
+     * @return boolean
+     */
+    private boolean valueEquals(final String text) {
+        if (valueLength != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < valueLength; i++) {
+            if (value[i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class reads the rows of a CSV document one at a time,
+ * only the current row is held in memory.
+ * The read buffer is given back when the end of the document is reached or when the iterator is closed,
+ * the underlying reader is never closed.
+ *
+ * @param <T> the row type
+ * @author Karl STEIN
+ */
+public final class CsvRowIterator<T> implements Iterator<T>, Closeable {
+
+    /**
+     * The serializer binding the rows
+     */
+    private final CsvSerializer serializer;
+    /**
+     * The row type
+     */
+    private final Class<T> type;
+    /**
+     * The descriptor of the row type
+     */
+    private final ClassDescriptor descriptor;
+    /**
+     * The fields of the columns, null for the columns that are not read
+     */
+    private final FieldAccessor[] columns;
+    /**
+     * The CSV reader (null when closed)
+     */
+    private CsvReader csv;
+    /**
+     * The flag telling that the reader is on a row that was not returned yet
+     */
+    private boolean ready = false;
+
+    /**
+     * Creates an iterator over the rows following the headers
+     *
+     * @param serializer the serializer binding the rows
+     * @param type       the row type
+     * @param columns    the fields of the columns
+     * @param csv        the CSV reader, positioned after the headers
+     */
+    CsvRowIterator(final CsvSerializer serializer, final Class<T> type, final FieldAccessor[] columns, final CsvReader csv) {
+        this.serializer = serializer;
+        this.type = type;
+        this.descriptor = serializer.getDescriptor(type);
+        this.columns = columns;
+        this.csv = csv;
+    }
+
+    /**
+     * Stops the iteration and gives back the read buffer
+     */
+    @Override
+    public void close() {
+        if (csv != null) {
+            csv.close();
+            csv = null;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (csv == null) {
+            return false;
+        }
+        try {
+            if (!ready) {
+                ready = csv.nextRow();
+
+                if (!ready) {
+                    close();
+                }
+            }
+            return ready;
+
+        } catch (final IOException e) {
+            close();
+            throw new IllegalArgumentException("Cannot read the rows of " + type.getName(), e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ready = false;
+
+        try {
+            return (T) serializer.readRow(descriptor, columns, csv);
+        } catch (final IOException e) {
+            close();
+            throw new IllegalArgumentException("Cannot read the rows of " + type.getName(), e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
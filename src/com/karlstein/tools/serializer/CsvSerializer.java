@@ -17,14 +17,17 @@
 package com.karlstein.tools.serializer;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
 
 /**
  * This class is used to read/write CSV data
@@ -35,11 +38,15 @@ public class CsvSerializer extends KSerializer {
     /**
      * The value delimiter
      */
-    private char valueDelimiter = '"';
+    private volatile char valueDelimiter = '"';
+    /**
+     * The escaper of values, it depends on the value delimiter
+     */
+    private volatile Escaper escaper = Escaper.csv(valueDelimiter);
     /**
      * The value separator
      */
-    private char valueSeparator = ',';
+    private volatile char valueSeparator = ',';
 
     /**
      * Creates a CSV converter
@@ -56,6 +63,7 @@ public class CsvSerializer extends KSerializer {
     public CsvSerializer(final char delimiter, final char separator) {
         valueDelimiter = delimiter;
         valueSeparator = separator;
+        escaper = Escaper.csv(delimiter);
     }
 
     @Override
@@ -73,19 +81,19 @@ public class CsvSerializer extends KSerializer {
         );
     }
 
+    @Override
+    protected WriteConfig createConfig() {
+        return new Config(this);
+    }
+
     /**
      * Escapes all delimiters in the value
      *
      * @param value the value to escape
      * @return CharSequence
      */
-    protected CharSequence escapeValue(String value) {
-        if (value != null) {
-            value = value.replace("\r", "\\r");
-            value = value.replace("\n", "\\n");
-            value = value.replace(String.valueOf(valueDelimiter), String.valueOf(new char[]{valueDelimiter, valueDelimiter}));
-        }
-        return value;
+    protected CharSequence escapeValue(final String value) {
+        return value != null ? escaper.escape(value) : null;
     }
 
     /**
@@ -106,9 +114,186 @@ public class CsvSerializer extends KSerializer {
         return valueSeparator;
     }
 
+    /**
+     * Reads the rows following the headers, an array type reads all the rows
+     * and another type reads the first row (null if there is none)
+     *
+     * @param cls    the row type or an array of the row type
+     * @param reader the reader
+     * @param <T>    the type
+     * @return T
+     */
     @Override
-    public <T> T read(Class<T> cls, Reader reader) {
-        return null;
+    @SuppressWarnings("unchecked")
+    public <T> T read(final Class<T> cls, final Reader reader) {
+        final Class<?> rowType = cls.isArray() ? cls.getComponentType() : cls;
+        final CsvRowIterator<?> rows = readRows(rowType, reader);
+
+        try {
+            if (!cls.isArray()) {
+                return rows.hasNext() ? (T) rows.next() : null;
+            }
+            final List<Object> elements = new ArrayList<Object>();
+
+            while (rows.hasNext()) {
+                elements.add(rows.next());
+            }
+            final Object array = Array.newInstance(rowType, elements.size());
+
+            for (int i = 0; i < elements.size(); i++) {
+                Array.set(array, i, elements.get(i));
+            }
+            return (T) array;
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Reads the headers and returns the field of each column
+     *
+     * @param descriptor the descriptor of the row type
+     * @param csv        the CSV reader
+     * @return FieldAccessor[] the fields, null for the columns that are not read
+     * @throws IOException
+     */
+    protected FieldAccessor[] readHeaders(final ClassDescriptor descriptor, final CsvReader csv) throws IOException {
+        final List<FieldAccessor> columns = new ArrayList<FieldAccessor>();
+
+        if (csv.nextRow()) {
+            while (csv.nextValue()) {
+                final FieldAccessor field = descriptor.getField(csv.getString());
+                columns.add(field != null && field.isWritable() ? field : null);
+            }
+        }
+        return columns.toArray(new FieldAccessor[columns.size()]);
+    }
+
+    /**
+     * Reads the current row
+     *
+     * @param descriptor the descriptor of the row type
+     * @param columns    the fields of the columns
+     * @param csv        the CSV reader, positioned on the row
+     * @return Object
+     * @throws IOException
+     */
+    protected Object readRow(final ClassDescriptor descriptor, final FieldAccessor[] columns, final CsvReader csv) throws IOException {
+        final Object object = descriptor.newInstance();
+
+        for (int i = 0; csv.nextValue(); i++) {
+            final FieldAccessor field = i < columns.length ? columns[i] : null;
+
+            // Empty values are null, unless they are delimited strings
+            if (field != null && (csv.getLength() > 0
+                    || (csv.isQuoted() && field.getKind() == FieldAccessor.Kind.STRING))) {
+                readValue(field, object, csv);
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Reads the rows following the headers one at a time, the columns are bound to the fields by name
+     *
+     * @param cls    the row type
+     * @param reader the reader
+     * @param <T>    the row type
+     * @return CsvRowIterator
+     */
+    public <T> CsvRowIterator<T> readRows(final Class<T> cls, final Reader reader) {
+        final CsvReader csv = new CsvReader(reader, valueDelimiter, valueSeparator);
+
+        try {
+            return new CsvRowIterator<T>(this, cls, readHeaders(getDescriptor(cls), csv), csv);
+        } catch (final IOException e) {
+            csv.close();
+            throw new IllegalArgumentException("Cannot read the rows of " + cls.getName(), e);
+        }
+    }
+
+    /**
+     * Reads the current value into the field, primitives are not boxed
+     *
+     * @param field  the field
+     * @param object the object containing the field
+     * @param csv    the CSV reader
+     * @throws IOException
+     */
+    protected void readValue(final FieldAccessor field, final Object object, final CsvReader csv) throws IOException {
+        final boolean primitive = field.isPrimitive();
+
+        switch (field.getKind()) {
+            case BOOLEAN:
+                if (primitive) {
+                    field.setBoolean(object, csv.getBoolean());
+                } else {
+                    field.set(object, csv.getBoolean());
+                }
+                break;
+            case BYTE:
+                if (primitive) {
+                    field.setByte(object, toByte(csv.getInt()));
+                } else {
+                    field.set(object, toByte(csv.getInt()));
+                }
+                break;
+            case CHAR:
+                if (primitive) {
+                    field.setChar(object, csv.getChar());
+                } else {
+                    field.set(object, csv.getChar());
+                }
+                break;
+            case SHORT:
+                if (primitive) {
+                    field.setShort(object, toShort(csv.getInt()));
+                } else {
+                    field.set(object, toShort(csv.getInt()));
+                }
+                break;
+            case INT:
+                if (primitive) {
+                    field.setInt(object, csv.getInt());
+                } else {
+                    field.set(object, csv.getInt());
+                }
+                break;
+            case LONG:
+                if (primitive) {
+                    field.setLong(object, csv.getLong());
+                } else {
+                    field.set(object, csv.getLong());
+                }
+                break;
+            case FLOAT:
+                if (primitive) {
+                    field.setFloat(object, (float) csv.getDouble());
+                } else {
+                    field.set(object, (float) csv.getDouble());
+                }
+                break;
+            case DOUBLE:
+                if (primitive) {
+                    field.setDouble(object, csv.getDouble());
+                } else {
+                    field.set(object, csv.getDouble());
+                }
+                break;
+            case STRING:
+                field.set(object, csv.getString());
+                break;
+            case OBJECT:
+                // Other numbers like BigDecimal
+                try {
+                    field.set(object, field.getType().getConstructor(String.class).newInstance(csv.getString()));
+                } catch (final ReflectiveOperationException e) {
+                    throw new IOException("Cannot read " + csv.getString() + " as " + field.getType().getName(), e);
+                }
+                break;
+            default:
+                field.set(object, parseValue(csv.getString(), field.getType()));
+        }
     }
 
     /**
@@ -116,8 +301,10 @@ public class CsvSerializer extends KSerializer {
      *
      * @param valueDelimiter the value delimiter
      */
-    public void setValueDelimiter(final char valueDelimiter) {
+    public synchronized void setValueDelimiter(final char valueDelimiter) {
         this.valueDelimiter = valueDelimiter;
+        this.escaper = Escaper.csv(valueDelimiter);
+        invalidateConfig();
     }
 
     /**
@@ -125,8 +312,9 @@ public class CsvSerializer extends KSerializer {
      *
      * @param valueSeparator the value separator
      */
-    public void setValueSeparator(final char valueSeparator) {
+    public synchronized void setValueSeparator(final char valueSeparator) {
         this.valueSeparator = valueSeparator;
+        invalidateConfig();
     }
 
     /**
@@ -140,53 +328,205 @@ public class CsvSerializer extends KSerializer {
      * @throws IllegalAccessException
      */
     public Writer write(final Collection<?> objects, final Writer writer) throws IOException, IllegalArgumentException, IllegalAccessException {
+        write(objects, createContext(writer));
+        return writer;
+    }
+
+    /**
+     * Writes the collection to the stream, encoded in UTF-8
+     *
+     * @param objects the objects to write
+     * @param stream  the output stream, it is not closed
+     * @return OutputStream
+     * @throws IOException
+     */
+    public OutputStream write(final Collection<?> objects, final OutputStream stream) throws IOException {
+        final Output output = createOutput(stream);
+
+        try {
+            write(objects, createContext(output));
+        } finally {
+            output.release();
+        }
+        return stream;
+    }
+
+    /**
+     * Writes the collection
+     *
+     * @param objects the objects to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final Collection<?> objects, final WriteContext context) throws IOException {
         if (objects != null) {
-            for (final Object object : objects) {
-                write(object, writer);
-            }
+            writeElements(objects, context);
         }
+        return context;
+    }
+
+    /**
+     * Writes the rows of an iterator, each row is written as it is produced
+     *
+     * @param objects the objects to write
+     * @param writer  the writer
+     * @return Writer
+     * @throws IOException
+     */
+    public Writer write(final Iterator<?> objects, final Writer writer) throws IOException {
+        write(objects, createContext(writer));
+        return writer;
+    }
+
+    /**
+     * Writes the rows of an iterable, each row is written as it is produced
+     *
+     * @param objects the objects to write
+     * @param writer  the writer
+     * @return Writer
+     * @throws IOException
+     */
+    public Writer write(final Iterable<?> objects, final Writer writer) throws IOException {
+        write(objects.iterator(), createContext(writer));
         return writer;
     }
 
+    /**
+     * Writes the rows of an iterator to the stream, encoded in UTF-8
+     *
+     * @param objects the objects to write
+     * @param stream  the output stream, it is not closed
+     * @return OutputStream
+     * @throws IOException
+     */
+    public OutputStream write(final Iterator<?> objects, final OutputStream stream) throws IOException {
+        final Output output = createOutput(stream);
+
+        try {
+            write(objects, createContext(output));
+        } finally {
+            output.release();
+        }
+        return stream;
+    }
+
+    /**
+     * Writes the rows of an iterator
+     *
+     * @param objects the objects to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final Iterator<?> objects, final WriteContext context) throws IOException {
+        if (objects != null) {
+            writeElements(objects, context);
+        }
+        return context;
+    }
+
     @Override
-    public Writer write(final Object object, final Writer writer) throws IOException, IllegalArgumentException, IllegalAccessException {
-        if (object != null && !ignoredObjects.contains(object)) {
+    protected WriteContext write(final Object object, final WriteContext context) throws IOException {
+        if (object != null && !context.isIgnored(object)) {
             final Class<?> type = object.getClass();
 
             // Ignore this class next time
-            ignoredObjects.add(object);
+            context.enter(object);
+
+            if (type.isArray() && !type.getComponentType().isPrimitive()) {
+                write(Arrays.asList((Object[]) object), context);
 
-            if (type.isArray()) {
-                write(getCollectionFromObject(object), writer);
+            } else if (type.isArray()) {
+                // Write one element per line
+                writePrimitiveArray(object, context);
 
             } else {
-                final Set<Field> fields = getFields(type);
-                final Iterator<Field> iterator = fields.iterator();
+                final FieldAccessor[] fields = context.getConfig().getDescriptor(type).fields;
+                final char separator = ((Config) context.getConfig()).valueSeparator;
 
-                while (iterator.hasNext()) {
-                    final Field field = iterator.next();
-                    final Object value = field.get(object);
+                for (int i = 0; i < fields.length; i++) {
+                    final FieldAccessor field = fields[i];
 
-                    // Check if the value should be ignored
-                    if (value != null && ignoredObjects.contains(value)) {
-                        continue;
-                    }
+                    if (field.isPrimitive()) {
+                        // Add the primitive value
+                        writePrimitive(field, object, context);
+
+                    } else {
+                        final Object value = field.get(object);
 
-                    // Add the field value
-                    writeValue(value, writer);
+                        if (value != null && field.isTyped()) {
+                            // Add the value of known type
+                            writeTypedValue(field.getKind(), value, context);
 
-                    if (iterator.hasNext()) {
-                        writer.append(valueSeparator);
+                        } else if (value == null || !context.isIgnored(value)) {
+                            // Add the field value unless it should be ignored
+                            writeValue(value, context);
+                        }
+                    }
+
+                    if (i < fields.length - 1) {
+                        context.write(separator);
                     }
                 }
             }
 
-            ignoredObjects.remove(object);
+            context.exit(object);
 
             // Add the line separator
-            writeLineFeed(writer);
+            writeLineFeed(context);
         }
-        return writer;
+        return context;
+    }
+
+    @Override
+    protected void closeArrayElement(final int index, final Class<?> type, final WriteContext context) throws IOException {
+        writeLineFeed(context);
+    }
+
+    @Override
+    protected WriteContext writeChar(final char value, final WriteContext context) throws IOException {
+        final Config config = (Config) context.getConfig();
+
+        // Delimit the char like a string, a bare delimiter or separator would not read back
+        context.write(config.valueDelimiter);
+        config.escaper.escape(value, context);
+        context.write(config.valueDelimiter);
+        return context;
+    }
+
+    @Override
+    protected WriteContext writeDate(final char[] chars, final int length, final WriteContext context) throws IOException {
+        final char delimiter = ((Config) context.getConfig()).valueDelimiter;
+
+        context.write(delimiter);
+        context.write(chars, 0, length);
+        context.write(delimiter);
+        return context;
+    }
+
+    @Override
+    protected WriteContext writeEnum(final Enum<?> value, final WriteContext context) throws IOException {
+        return writeString(value.name(), context);
+    }
+
+    /**
+     * Writes the column headers to the stream, encoded in UTF-8
+     *
+     * @param cls    the class to use to get headers
+     * @param stream the output stream, it is not closed
+     * @return OutputStream
+     * @throws IOException
+     */
+    public OutputStream writeHeaders(final Class<?> cls, final OutputStream stream) throws IOException {
+        final Output output = createOutput(stream);
+
+        try {
+            writeHeaders(cls, createContext(output));
+        } finally {
+            output.release();
+        }
+        return stream;
     }
 
     /**
@@ -198,55 +538,100 @@ public class CsvSerializer extends KSerializer {
      * @throws IOException
      */
     public Writer writeHeaders(final Class<?> cls, final Writer writer) throws IOException {
-        final Set<Field> fields = getFields(cls);
-        final Iterator<Field> iterator = fields.iterator();
+        writeHeaders(cls, createContext(writer));
+        return writer;
+    }
 
-        while (iterator.hasNext()) {
-            Field field = iterator.next();
+    /**
+     * Writes the column headers
+     *
+     * @param cls     the class to use to get headers
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeHeaders(final Class<?> cls, final WriteContext context) throws IOException {
+        final Config config = (Config) context.getConfig();
+        final FieldAccessor[] fields = config.getDescriptor(cls).fields;
 
+        for (int i = 0; i < fields.length; i++) {
             // Add the field name
-            writer.append(valueDelimiter);
-            writer.append(escapeValue(field.getName()));
-            writer.append(valueDelimiter);
+            context.write(config.valueDelimiter);
+            config.escaper.escape(fields[i].getName(), context);
+            context.write(config.valueDelimiter);
 
-            if (iterator.hasNext()) {
-                writer.append(valueSeparator);
+            if (i < fields.length - 1) {
+                context.write(config.valueSeparator);
             }
         }
 
         // Add the line separator
-        writeLineFeed(writer);
+        writeLineFeed(context);
 
-        return writer;
+        return context;
+    }
+
+    @Override
+    protected WriteContext writeString(final String value, final WriteContext context) throws IOException {
+        final Config config = (Config) context.getConfig();
+
+        context.write(config.valueDelimiter);
+        config.escaper.escape(value, context);
+        context.write(config.valueDelimiter);
+        return context;
     }
 
     /**
      * Writes a value
      *
-     * @param value  the value to write
-     * @param writer the writer
-     * @return writer
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
      * @throws IOException
      */
-    protected Writer writeValue(final Object value, final Writer writer) throws IOException {
+    protected WriteContext writeValue(final Object value, final WriteContext context) throws IOException {
         if (value != null) {
-            final Class<?> cls = value.getClass();
+            final FieldAccessor.Kind kind = FieldAccessor.getKind(value.getClass());
 
-            if (Date.class.isAssignableFrom(cls)) {
-                SimpleDateFormat df = new SimpleDateFormat("YYYY-MM-dd'T'HH:mm:ss.SXXX");
-                writer.append(valueDelimiter);
-                writer.append(escapeValue(df.format(value)));
-                writer.append(valueDelimiter);
-
-            } else if (cls.equals(String.class)) {
-                writer.append(valueDelimiter);
-                writer.append(escapeValue(String.valueOf(value)));
-                writer.append(valueDelimiter);
+            if (kind != FieldAccessor.Kind.OBJECT) {
+                // Write the known types like the typed fields, boxed primitives without creating a string
+                writeTypedValue(kind, value, context);
 
             } else {
-                writer.append(escapeValue(String.valueOf(value)));
+                writeString(String.valueOf(value), context);
             }
         }
-        return writer;
+        return context;
+    }
+
+    /**
+     * This class holds the configuration of a CSV write call
+     */
+    protected static class Config extends WriteConfig {
+
+        /**
+         * The value delimiter
+         */
+        private final char valueDelimiter;
+        /**
+         * The escaper of values
+         */
+        private final Escaper escaper;
+        /**
+         * The value separator
+         */
+        private final char valueSeparator;
+
+        /**
+         * Creates the configuration from the current options of the serializer
+         *
+         * @param serializer the serializer
+         */
+        protected Config(final CsvSerializer serializer) {
+            super(serializer);
+            this.valueDelimiter = serializer.valueDelimiter;
+            this.escaper = serializer.escaper;
+            this.valueSeparator = serializer.valueSeparator;
+        }
     }
 }
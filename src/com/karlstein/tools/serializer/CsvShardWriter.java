@@ -0,0 +1,431 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class writes a dataset to several CSV files, each one starting with the column headers.
+ * The rows go to the shard of their key, and a shard continues in a new file
+ * when the next row would exceed its maximal number of rows or bytes.
+ * Each file is written by an {@link AsyncOutput}, so the files are written concurrently
+ * while the rows are converted on the calling thread. It must be used by one thread at a time.
+ * The number of files open at the same time is limited, when it is reached the file of the shard
+ * written the least recently is closed and the shard continues in a new file.
+ *
+ * @param <T> the type of the rows
+ * @author Karl STEIN
+ */
+public final class CsvShardWriter<T> implements Closeable {
+
+    /**
+     * The extractor of the shard keys
+     *
+     * @param <T> the type of the rows
+     */
+    public interface KeyExtractor<T> {
+
+        /**
+         * Returns the shard key of a row
+         *
+         * @param object the row
+         * @return Object the key, rows with equal keys go to the same shard
+         */
+        Object getKey(T object);
+    }
+
+    /**
+     * The factory of the shard files
+     */
+    public interface FileFactory {
+
+        /**
+         * Opens a file of a shard
+         *
+         * @param key   the shard key or null without key extractor
+         * @param index the index of the file in the shard, from 0
+         * @return WritableByteChannel the channel, it is closed with the file
+         * @throws IOException
+         */
+        WritableByteChannel open(Object key, int index) throws IOException;
+    }
+
+    /**
+     * The limit meaning no rollover
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    /**
+     * The default maximal number of files open at the same time
+     */
+    public static final int DEFAULT_MAX_OPEN_SHARDS = 64;
+
+    /**
+     * The serializer
+     */
+    private final CsvSerializer serializer;
+    /**
+     * The factory of the files
+     */
+    private final FileFactory fileFactory;
+    /**
+     * The extractor of the shard keys or null
+     */
+    private final KeyExtractor<? super T> keyExtractor;
+    /**
+     * The maximal number of rows of a file
+     */
+    private final long maxRows;
+    /**
+     * The maximal number of bytes of a file
+     */
+    private final long maxBytes;
+    /**
+     * The maximal number of files open at the same time
+     */
+    private final int maxOpenShards;
+    /**
+     * The column headers
+     */
+    private final CharArrayOutput headers = new CharArrayOutput(256);
+    /**
+     * The current row
+     */
+    private final CharArrayOutput row = new CharArrayOutput(256);
+    /**
+     * The context writing the rows
+     */
+    private final WriteContext rowContext;
+    /**
+     * The shards by key
+     */
+    private final Map<Object, Shard> shards = new LinkedHashMap<Object, Shard>();
+    /**
+     * The shards having an open file, from the least recently written
+     */
+    private final Map<Object, Shard> openShards = new LinkedHashMap<Object, Shard>(16, 0.75f, true);
+    /**
+     * The number of files opened
+     */
+    private int fileCount = 0;
+    /**
+     * The closed flag
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a writer rolling over to a new file when a limit is reached
+     *
+     * @param serializer  the serializer
+     * @param type        the type of the rows, used for the headers
+     * @param fileFactory the factory of the files
+     * @param maxRows     the maximal number of rows of a file or {@link #UNLIMITED}
+     * @param maxBytes    the maximal number of bytes of a file or {@link #UNLIMITED}
+     * @throws IOException
+     */
+    public CsvShardWriter(final CsvSerializer serializer, final Class<T> type, final FileFactory fileFactory,
+                          final long maxRows, final long maxBytes) throws IOException {
+        this(serializer, type, fileFactory, null, maxRows, maxBytes);
+    }
+
+    /**
+     * Creates a writer keeping at most {@link #DEFAULT_MAX_OPEN_SHARDS} files open
+     *
+     * @param serializer   the serializer
+     * @param type         the type of the rows, used for the headers
+     * @param fileFactory  the factory of the files
+     * @param keyExtractor the extractor of the shard keys or null to write a single shard
+     * @param maxRows      the maximal number of rows of a file or {@link #UNLIMITED}
+     * @param maxBytes     the maximal number of bytes of a file or {@link #UNLIMITED}
+     * @throws IOException
+     */
+    public CsvShardWriter(final CsvSerializer serializer, final Class<T> type, final FileFactory fileFactory,
+                          final KeyExtractor<? super T> keyExtractor, final long maxRows, final long maxBytes) throws IOException {
+        this(serializer, type, fileFactory, keyExtractor, maxRows, maxBytes, DEFAULT_MAX_OPEN_SHARDS);
+    }
+
+    /**
+     * Creates a writer
+     *
+     * @param serializer    the serializer
+     * @param type          the type of the rows, used for the headers
+     * @param fileFactory   the factory of the files
+     * @param keyExtractor  the extractor of the shard keys or null to write a single shard
+     * @param maxRows       the maximal number of rows of a file or {@link #UNLIMITED}
+     * @param maxBytes      the maximal number of bytes of a file or {@link #UNLIMITED}
+     * @param maxOpenShards the maximal number of files open at the same time, each one has a thread
+     * @throws IOException
+     */
+    public CsvShardWriter(final CsvSerializer serializer, final Class<T> type, final FileFactory fileFactory,
+                          final KeyExtractor<? super T> keyExtractor, final long maxRows, final long maxBytes,
+                          final int maxOpenShards) throws IOException {
+        if (maxRows < 1 || maxBytes < 1 || maxOpenShards < 1) {
+            throw new IllegalArgumentException("The maximal number of rows, bytes and open shards must be positive");
+        }
+        this.serializer = serializer;
+        this.fileFactory = fileFactory;
+        this.keyExtractor = keyExtractor;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.maxOpenShards = maxOpenShards;
+        this.rowContext = serializer.createContext(row);
+
+        serializer.writeHeaders(type, serializer.createContext(headers));
+    }
+
+    /**
+     * Returns the key as a part of a file name, the letters, digits, dots and hyphens are kept
+     * and the other characters are replaced by an underscore followed by their hexadecimal code,
+     * so different keys give different names that cannot leave the directory
+     *
+     * @param key the shard key
+     * @return String
+     */
+    static String encodeKey(final String key) {
+        final StringBuilder sb = new StringBuilder(key.length());
+
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-') {
+                sb.append(c);
+            } else {
+                sb.append('_').append(Integer.toHexString(c | 0x10000).substring(1));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a factory creating the files in a directory,
+     * named like name-0.csv or name-key-0.csv with a key extractor, the key being encoded by {@link #encodeKey(String)}
+     *
+     * @param directory the directory
+     * @param name      the start of the file names
+     * @return FileFactory
+     */
+    public static FileFactory files(final File directory, final String name) {
+        return new FileFactory() {
+            @Override
+            public WritableByteChannel open(final Object key, final int index) throws IOException {
+                final String prefix = key != null ? name + "-" + encodeKey(key.toString()) : name;
+                return new FileOutputStream(new File(directory, prefix + "-" + index + ".csv")).getChannel();
+            }
+        };
+    }
+
+    /**
+     * Checks that the writer is open
+     *
+     * @throws IOException
+     */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+
+    /**
+     * Writes the pending rows and closes all the files, it waits until they are closed
+     *
+     * @throws IOException the first error of the files
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException error = null;
+
+        for (final Shard shard : openShards.values()) {
+            try {
+                shard.output.close();
+            } catch (final IOException e) {
+                error = error != null ? error : e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Writes the pending rows to the files and flushes them, it waits until they are flushed
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        checkOpen();
+
+        for (final Shard shard : openShards.values()) {
+            shard.output.flush();
+        }
+    }
+
+    /**
+     * Returns the number of files opened
+     *
+     * @return int
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Returns the number of shards
+     *
+     * @return int
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Closes the current file of a shard, the next file of the shard gets the next index
+     *
+     * @param shard the shard
+     * @throws IOException
+     */
+    private void closeFile(final Shard shard) throws IOException {
+        openShards.remove(shard.key);
+        final AsyncOutput output = shard.output;
+        shard.output = null;
+        shard.context = null;
+        shard.index++;
+        output.close();
+    }
+
+    /**
+     * Opens the next file of a shard and writes the headers,
+     * the file of the shard written the least recently is closed if too many files are open
+     *
+     * @param shard the shard
+     * @throws IOException
+     */
+    private void open(final Shard shard) throws IOException {
+        if (openShards.size() >= maxOpenShards) {
+            closeFile(openShards.values().iterator().next());
+        }
+        shard.output = new AsyncOutput(fileFactory.open(shard.key, shard.index));
+        openShards.put(shard.key, shard);
+        shard.context = serializer.createContext(shard.output);
+        shard.rows = 0;
+        shard.bytes = headers.utf8Length();
+        headers.writeTo(shard.context);
+        fileCount++;
+    }
+
+    /**
+     * Writes a row to its shard, null rows are ignored
+     *
+     * @param object the row
+     * @throws IOException
+     */
+    public void write(final T object) throws IOException {
+        checkOpen();
+
+        if (object == null) {
+            return;
+        }
+        final Object key = keyExtractor != null ? keyExtractor.getKey(object) : null;
+
+        // Convert the row first to know its size
+        row.reset();
+        serializer.write(object, rowContext);
+        final int length = row.utf8Length();
+
+        Shard shard = shards.get(key);
+
+        if (shard == null) {
+            shard = new Shard(key);
+            shards.put(key, shard);
+        }
+        if (shard.output == null) {
+            open(shard);
+
+        } else if (shard.rows > 0 && (shard.rows >= maxRows || shard.bytes + length > maxBytes)) {
+            // Roll over to the next file
+            closeFile(shard);
+            open(shard);
+
+        } else {
+            // Mark the shard as the most recently written
+            openShards.get(key);
+        }
+        row.writeTo(shard.context);
+        shard.rows++;
+        shard.bytes += length;
+    }
+
+    /**
+     * Writes rows to their shards, null rows are ignored
+     *
+     * @param objects the rows
+     * @throws IOException
+     */
+    public void writeAll(final Iterable<? extends T> objects) throws IOException {
+        for (final T object : objects) {
+            write(object);
+        }
+    }
+
+    /**
+     * A shard and its current file
+     */
+    private static final class Shard {
+
+        /**
+         * The shard key
+         */
+        final Object key;
+        /**
+         * The index of the current file
+         */
+        int index = 0;
+        /**
+         * The output of the current file or null if it is closed
+         */
+        AsyncOutput output;
+        /**
+         * The context writing to the current file
+         */
+        WriteContext context;
+        /**
+         * The number of rows in the current file
+         */
+        long rows;
+        /**
+         * The number of bytes in the current file
+         */
+        long bytes;
+
+        /**
+         * Creates a shard
+         *
+         * @param key the shard key
+         */
+        Shard(final Object key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * This class tracks the objects on the current write path to detect cycles.
+ * Objects are compared by identity, so their hashCode() and equals() methods are never called
+ * and distinct objects that are equal are all written.
+ * The path is scanned while it is short, an identity set is used past the depth threshold.
+ *
+ * @author Karl STEIN
+ */
+public final class CycleTracker {
+
+    /**
+     * The depth from which an identity set is used
+     */
+    public static final int DEFAULT_THRESHOLD = 16;
+
+    /**
+     * The depth from which an identity set is used
+     */
+    private final int threshold;
+    /**
+     * The objects on the path, from the root
+     */
+    private Object[] path = new Object[8];
+    /**
+     * The number of objects on the path
+     */
+    private int depth = 0;
+    /**
+     * The objects on the path (only used past the threshold)
+     */
+    private Set<Object> index;
+
+    /**
+     * Creates a tracker with the default threshold
+     */
+    public CycleTracker() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Creates a tracker
+     *
+     * @param threshold the depth from which an identity set is used
+     */
+    public CycleTracker(final int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Checks if the object is on the path
+     *
+     * @param object the object
+     * @return boolean
+     */
+    public boolean contains(final Object object) {
+        if (index != null) {
+            return index.contains(object);
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            if (path[i] == object) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a tracker with the same path
+     *
+     * @return CycleTracker
+     */
+    public CycleTracker copy() {
+        final CycleTracker copy = new CycleTracker(threshold);
+
+        for (int i = 0; i < depth; i++) {
+            copy.push(path[i]);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the number of objects on the path
+     *
+     * @return int
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Removes the last object of the path
+     *
+     * @param object the object, it must be the last object added
+     */
+    public void pop(final Object object) {
+        if (depth == 0 || path[depth - 1] != object) {
+            throw new IllegalStateException("The object is not the last one on the path");
+        }
+        path[--depth] = null;
+
+        if (index != null) {
+            if (depth < threshold) {
+                index = null;
+            } else {
+                index.remove(object);
+            }
+        }
+    }
+
+    /**
+     * Adds an object at the end of the path
+     *
+     * @param object the object
+     */
+    public void push(final Object object) {
+        if (depth == path.length) {
+            final Object[] copy = new Object[depth * 2];
+            System.arraycopy(path, 0, copy, 0, depth);
+            path = copy;
+        }
+        path[depth++] = object;
+
+        if (index != null) {
+            index.add(object);
+
+        } else if (depth > threshold) {
+            index = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+            for (int i = 0; i < depth; i++) {
+                index.add(path[i]);
+            }
+        }
+    }
+}
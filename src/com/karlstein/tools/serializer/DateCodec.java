@@ -0,0 +1,499 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * This class formats and parses dates in ISO-8601 or as epoch milliseconds.
+ * Its configuration is immutable so it can be shared between threads,
+ * the digits are written directly into a buffer and the text of the last seconds formatted
+ * is cached, so dates written close to each other only copy it and add their milliseconds.
+ *
+ * @author Karl STEIN
+ */
+public final class DateCodec {
+
+    /**
+     * The ways of writing dates
+     */
+    public enum Mode {
+        /**
+         * The UTC date and time followed by Z, like an Instant (2014-05-01T10:15:30.000Z)
+         */
+        INSTANT,
+        /**
+         * The date and time of the time zone without offset, like a LocalDateTime (2014-05-01T12:15:30.000)
+         */
+        LOCAL_DATE_TIME,
+        /**
+         * The date and time of the time zone with its offset, like an OffsetDateTime (2014-05-01T12:15:30.000+02:00),
+         * this is the format of {@link KSerializer#DATE_FORMAT}
+         */
+        OFFSET_DATE_TIME,
+        /**
+         * The milliseconds since 1970-01-01T00:00:00Z, written as a number
+         */
+        EPOCH_MILLIS
+    }
+
+    /**
+     * The maximal length of a formatted date
+     */
+    public static final int MAX_LENGTH = 40;
+    /**
+     * The number of seconds cached (a power of two)
+     */
+    private static final int CACHE_SIZE = 16;
+    /**
+     * The UTC time zone
+     */
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * The text of the seconds formatted recently, indexed by second
+     */
+    private final Second[] cache = new Second[CACHE_SIZE];
+    /**
+     * The mode
+     */
+    private final Mode mode;
+    /**
+     * The time zone (a private copy)
+     */
+    private final TimeZone timeZone;
+
+    /**
+     * Creates a codec using the default time zone
+     *
+     * @param mode the mode
+     */
+    public DateCodec(final Mode mode) {
+        this(mode, TimeZone.getDefault());
+    }
+
+    /**
+     * Creates a codec
+     *
+     * @param mode     the mode
+     * @param timeZone the time zone of local dates, ignored by {@link Mode#INSTANT} and {@link Mode#EPOCH_MILLIS}
+     */
+    public DateCodec(final Mode mode, final TimeZone timeZone) {
+        if (mode == null) {
+            throw new IllegalArgumentException("The mode is null");
+        }
+        if (timeZone == null) {
+            throw new IllegalArgumentException("The time zone is null");
+        }
+        this.mode = mode;
+        this.timeZone = (TimeZone) (mode == Mode.INSTANT || mode == Mode.EPOCH_MILLIS ? UTC : timeZone).clone();
+    }
+
+    /**
+     * Returns the days since the epoch of a date of the proleptic Gregorian calendar
+     *
+     * @param year  the year
+     * @param month the month (1 to 12)
+     * @param day   the day of the month
+     * @return long
+     */
+    private static long daysFromCivil(final long year, final int month, final int day) {
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = floorDiv(y, 400);
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the largest value lower than or equal to the quotient
+     *
+     * @param value   the dividend
+     * @param divisor the divisor (positive)
+     * @return long
+     */
+    private static long floorDiv(final long value, final long divisor) {
+        final long quotient = value / divisor;
+        return value % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    /**
+     * Throws an exception for a date that cannot be parsed
+     *
+     * @param text the date
+     * @return IllegalArgumentException
+     */
+    private static IllegalArgumentException invalid(final CharSequence text) {
+        return new IllegalArgumentException("Invalid date " + text);
+    }
+
+    /**
+     * Reads a number of digits
+     *
+     * @param text     the text
+     * @param position the position of the first digit
+     * @param count    the number of digits
+     * @return int
+     */
+    private static int readDigits(final CharSequence text, final int position, final int count) {
+        if (position + count > text.length()) {
+            throw invalid(text);
+        }
+        int value = 0;
+
+        for (int i = position; i < position + count; i++) {
+            final char c = text.charAt(i);
+
+            if (c < '0' || c > '9') {
+                throw invalid(text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Writes a value on two digits
+     *
+     * @param value  the value (0 to 99)
+     * @param buffer the buffer
+     * @param offset the position in the buffer
+     * @return int the position after the digits
+     */
+    private static int writeTwoDigits(final int value, final char[] buffer, final int offset) {
+        buffer[offset] = (char) ('0' + value / 10);
+        buffer[offset + 1] = (char) ('0' + value % 10);
+        return offset + 2;
+    }
+
+    /**
+     * Writes a positive value with at least the given number of digits
+     *
+     * @param value  the value
+     * @param digits the minimal number of digits
+     * @param buffer the buffer
+     * @param offset the position in the buffer
+     * @return int the position after the digits
+     */
+    private static int writeDigits(final long value, final int digits, final char[] buffer, final int offset) {
+        int length = 1;
+
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            length++;
+        }
+        length = Math.max(length, digits);
+        long remaining = value;
+
+        for (int i = offset + length - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        return offset + length;
+    }
+
+    /**
+     * Creates the text of a second
+     *
+     * @param second the seconds since the epoch
+     * @return Second
+     */
+    private Second createSecond(final long second) {
+        final int offset = timeZone.getOffset(second * 1000);
+        final long local = second + offset / 1000;
+        final long days = floorDiv(local, 86400);
+        final int secondOfDay = (int) (local - days * 86400);
+
+        // Convert the days to a date of the proleptic Gregorian calendar
+        final long shifted = days + 719468;
+        final long era = floorDiv(shifted, 146097);
+        final long dayOfEra = shifted - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int shiftedMonth = (int) ((5 * dayOfYear + 2) / 153);
+        final int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        final int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        final char[] chars = new char[MAX_LENGTH];
+        int position = 0;
+
+        if (year < 0) {
+            chars[position++] = '-';
+        }
+        position = writeDigits(Math.abs(year), 4, chars, position);
+        chars[position++] = '-';
+        position = writeTwoDigits(month, chars, position);
+        chars[position++] = '-';
+        position = writeTwoDigits(day, chars, position);
+        chars[position++] = 'T';
+        position = writeTwoDigits(secondOfDay / 3600, chars, position);
+        chars[position++] = ':';
+        position = writeTwoDigits(secondOfDay / 60 % 60, chars, position);
+        chars[position++] = ':';
+        position = writeTwoDigits(secondOfDay % 60, chars, position);
+        final int fractionPosition = position;
+
+        // Add the offset
+        if (mode == Mode.INSTANT || (mode == Mode.OFFSET_DATE_TIME && offset == 0)) {
+            chars[position++] = 'Z';
+
+        } else if (mode == Mode.OFFSET_DATE_TIME) {
+            final int minutes = Math.abs(offset) / 60000;
+            chars[position++] = offset < 0 ? '-' : '+';
+            position = writeTwoDigits(minutes / 60, chars, position);
+            chars[position++] = ':';
+            position = writeTwoDigits(minutes % 60, chars, position);
+        }
+        return new Second(second, Arrays.copyOf(chars, position), fractionPosition);
+    }
+
+    /**
+     * Writes a date to the buffer
+     *
+     * @param millis the milliseconds since the epoch
+     * @param buffer the buffer, with at least {@link #MAX_LENGTH} characters after the offset
+     * @param offset the position in the buffer
+     * @return int the position after the date
+     */
+    public int format(final long millis, final char[] buffer, final int offset) {
+        if (mode == Mode.EPOCH_MILLIS) {
+            if (millis < 0) {
+                buffer[offset] = '-';
+                // The minimal value has no positive counterpart
+                return millis == Long.MIN_VALUE
+                        ? offset + 1 + copy("9223372036854775808", buffer, offset + 1)
+                        : writeDigits(-millis, 1, buffer, offset + 1);
+            }
+            return writeDigits(millis, 1, buffer, offset);
+        }
+        final long second = floorDiv(millis, 1000);
+        final int index = (int) second & (CACHE_SIZE - 1);
+        Second cached = cache[index];
+
+        if (cached == null || cached.second != second) {
+            cached = createSecond(second);
+            cache[index] = cached;
+        }
+        final char[] chars = cached.chars;
+        final int fractionPosition = cached.fractionPosition;
+        final int fraction = (int) (millis - second * 1000);
+        int position = offset + fractionPosition;
+
+        // Copy the date and time, then insert the milliseconds before the offset
+        System.arraycopy(chars, 0, buffer, offset, fractionPosition);
+        buffer[position++] = '.';
+        buffer[position++] = (char) ('0' + fraction / 100);
+        position = writeTwoDigits(fraction % 100, buffer, position);
+        System.arraycopy(chars, fractionPosition, buffer, position, chars.length - fractionPosition);
+
+        return position + chars.length - fractionPosition;
+    }
+
+    /**
+     * Returns a date as a string
+     *
+     * @param millis the milliseconds since the epoch
+     * @return String
+     */
+    public String format(final long millis) {
+        final char[] buffer = new char[MAX_LENGTH];
+        return new String(buffer, 0, format(millis, buffer, 0));
+    }
+
+    /**
+     * Copies a string to the buffer
+     *
+     * @param value  the string
+     * @param buffer the buffer
+     * @param offset the position in the buffer
+     * @return int the number of characters copied
+     */
+    private static int copy(final String value, final char[] buffer, final int offset) {
+        value.getChars(0, value.length(), buffer, offset);
+        return value.length();
+    }
+
+    /**
+     * Returns the mode
+     *
+     * @return Mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the time zone
+     *
+     * @return TimeZone
+     */
+    public TimeZone getTimeZone() {
+        return (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * Parses a date written in any mode, dates without offset are read in the time zone of the codec
+     *
+     * @param text the date
+     * @return long the milliseconds since the epoch
+     * @throws IllegalArgumentException if the date is not valid
+     */
+    public long parse(final CharSequence text) {
+        final int length = text.length();
+        final int start = length > 0 && text.charAt(0) == '-' ? 1 : 0;
+        int position = start;
+
+        while (position < length && text.charAt(position) >= '0' && text.charAt(position) <= '9') {
+            position++;
+        }
+        if (position == start || (position < length && text.charAt(position) != '-')) {
+            throw invalid(text);
+        }
+        if (position == length) {
+            // Epoch milliseconds
+            try {
+                return Long.parseLong(text.toString());
+            } catch (final NumberFormatException e) {
+                throw invalid(text);
+            }
+        }
+        if (position - start < 4 || position - start > 9) {
+            throw invalid(text);
+        }
+        final long year = start == 1 ? -readDigits(text, 1, position - 1) : readDigits(text, 0, position);
+        final int month = readDigits(text, position + 1, 2);
+        expect(text, position + 3, '-');
+        final int day = readDigits(text, position + 4, 2);
+        position += 6;
+
+        if (position >= length || (text.charAt(position) != 'T' && text.charAt(position) != ' ')) {
+            throw invalid(text);
+        }
+        final int hour = readDigits(text, position + 1, 2);
+        expect(text, position + 3, ':');
+        final int minute = readDigits(text, position + 4, 2);
+        expect(text, position + 6, ':');
+        final int second = readDigits(text, position + 7, 2);
+        position += 9;
+
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            throw invalid(text);
+        }
+        int millis = 0;
+
+        // Read the fraction, only the milliseconds are kept
+        if (position < length && text.charAt(position) == '.') {
+            final int fractionStart = ++position;
+
+            while (position < length && text.charAt(position) >= '0' && text.charAt(position) <= '9') {
+                if (position - fractionStart < 3) {
+                    millis = millis * 10 + (text.charAt(position) - '0');
+                }
+                position++;
+            }
+            if (position == fractionStart || position - fractionStart > 9) {
+                throw invalid(text);
+            }
+            for (int i = position - fractionStart; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+        final long local = (daysFromCivil(year, month, day) * 86400 + hour * 3600 + minute * 60 + second) * 1000 + millis;
+
+        if (position == length) {
+            // Resolve the offset of the local date in the time zone
+            final int offset = timeZone.getOffset(local - timeZone.getRawOffset());
+            return local - timeZone.getOffset(local - offset);
+        }
+        final char sign = text.charAt(position);
+
+        if (sign == 'Z' && position + 1 == length) {
+            return local;
+        }
+        if (sign != '+' && sign != '-') {
+            throw invalid(text);
+        }
+        final int offsetHours = readDigits(text, position + 1, 2);
+        int offsetMinutes = 0;
+        position += 3;
+
+        if (position < length) {
+            if (text.charAt(position) == ':') {
+                position++;
+            }
+            offsetMinutes = readDigits(text, position, 2);
+            position += 2;
+        }
+        if (position != length || offsetHours > 18 || offsetMinutes > 59) {
+            throw invalid(text);
+        }
+        final long offset = (offsetHours * 60 + offsetMinutes) * 60000L;
+        return sign == '+' ? local - offset : local + offset;
+    }
+
+    /**
+     * Checks the character at the position
+     *
+     * @param text     the text
+     * @param position the position
+     * @param expected the expected character
+     */
+    private static void expect(final CharSequence text, final int position, final char expected) {
+        if (position >= text.length() || text.charAt(position) != expected) {
+            throw invalid(text);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mode + " " + timeZone.getID();
+    }
+
+    /**
+     * The text of a second, without its milliseconds
+     */
+    private static final class Second {
+
+        /**
+         * The seconds since the epoch
+         */
+        final long second;
+        /**
+         * The date, time and offset
+         */
+        final char[] chars;
+        /**
+         * The position of the milliseconds
+         */
+        final int fractionPosition;
+
+        /**
+         * Creates the text of a second
+         *
+         * @param second           the seconds since the epoch
+         * @param chars            the date, time and offset
+         * @param fractionPosition the position of the milliseconds
+         */
+        Second(final long second, final char[] chars, final int fractionPosition) {
+            this.second = second;
+            this.chars = chars;
+            this.fractionPosition = fractionPosition;
+        }
+    }
+}
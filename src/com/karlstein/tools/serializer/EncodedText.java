@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.karlstein.tools.serializer;
+
+import java.nio.charset.Charset;
+
+/**
+ * This class holds a text and its UTF-8 bytes, encoded once.
+ * It is used for field names and structural tokens so byte outputs copy them without encoding.
+ *
+ * @author Karl STEIN
+ */
+public final class EncodedText {
+
+    /**
+     * The UTF-8 charset
+     */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The text
+     */
+    private final String text;
+    /**
+     * The UTF-8 bytes of the text
+     */
+    final byte[] bytes;
+
+    /**
+     * Encodes the text
+     *
+     * @param text the text
+     */
+    public EncodedText(final String text) {
+        this.text = text;
+        this.bytes = text.getBytes(UTF_8);
+    }
+
+    /**
+     * Returns the number of bytes of the text
+     *
+     * @return int
+     */
+    public int getByteLength() {
+        return bytes.length;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
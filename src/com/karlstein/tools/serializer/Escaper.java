@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+
+/**
+ * This class escapes the reserved characters of a text format using a lookup table.
+ * Strings are scanned up to the first character to escape, clean strings are written as is
+ * and clean runs between escaped characters are copied without intermediate strings.
+ * Escapers are immutable and can be shared between threads.
+ *
+ * @author Karl STEIN
+ */
+public final class Escaper {
+
+    /**
+     * The escaper of JSON strings
+     */
+    private static final Escaper JSON;
+    /**
+     * The escaper of XML attribute values
+     */
+    private static final Escaper XML_ATTRIBUTE;
+    /**
+     * The escaper of XML text
+     */
+    private static final Escaper XML_TEXT;
+
+    static {
+        final String[] json = new String[128];
+
+        for (int c = 0; c < 0x20; c++) {
+            json[c] = String.format("\\u%04x", c);
+        }
+        json['"'] = "\\\"";
+        json['\\'] = "\\\\";
+        json['\b'] = "\\b";
+        json['\f'] = "\\f";
+        json['\n'] = "\\n";
+        json['\r'] = "\\r";
+        json['\t'] = "\\t";
+        // The line separators of JavaScript are escaped so the output can be embedded in a script
+        JSON = new Escaper(json)
+                .with('\u2028', "\\u2028")
+                .with('\u2029', "\\u2029");
+
+        // Carriage returns are kept as references, parsers normalize them to line feeds
+        XML_TEXT = new Escaper(new String[128])
+                .with('&', "&amp;")
+                .with('<', "&lt;")
+                .with('>', "&gt;")
+                .with('\r', "&#13;");
+
+        // Line separators are removed from attributes
+        XML_ATTRIBUTE = XML_TEXT
+                .with('"', "&quot;")
+                .with('\r', "")
+                .with('\n', "");
+    }
+
+    /**
+     * The replacements by character, null if the character is not escaped
+     */
+    private final String[] replacements;
+
+    /**
+     * Creates an escaper
+     *
+     * @param replacements the replacements by character
+     */
+    private Escaper(final String[] replacements) {
+        this.replacements = replacements;
+    }
+
+    /**
+     * Returns the escaper of CSV values, line separators are written as \r and \n,
+     * backslashes and the delimiter are doubled
+     *
+     * @param delimiter the value delimiter
+     * @return Escaper
+     */
+    public static Escaper csv(final char delimiter) {
+        return new Escaper(new String[128])
+                .with('\\', "\\\\")
+                .with('\r', "\\r")
+                .with('\n', "\\n")
+                .with(delimiter, new String(new char[]{delimiter, delimiter}));
+    }
+
+    /**
+     * Returns the escaper of JSON strings
+     *
+     * @return Escaper
+     */
+    public static Escaper json() {
+        return JSON;
+    }
+
+    /**
+     * Returns the escaper of XML attribute values
+     *
+     * @return Escaper
+     */
+    public static Escaper xmlAttribute() {
+        return XML_ATTRIBUTE;
+    }
+
+    /**
+     * Returns the escaper of XML text
+     *
+     * @return Escaper
+     */
+    public static Escaper xmlText() {
+        return XML_TEXT;
+    }
+
+    /**
+     * Writes a character, escaped if needed
+     *
+     * @param c       the character
+     * @param context the write context
+     * @throws IOException
+     */
+    public void escape(final char c, final WriteContext context) throws IOException {
+        final String replacement = c < replacements.length ? replacements[c] : null;
+
+        if (replacement != null) {
+            context.write(replacement);
+        } else {
+            context.write(c);
+        }
+    }
+
+    /**
+     * Returns the escaped string
+     *
+     * @param value the string
+     * @return String the same instance if there is nothing to escape
+     */
+    public String escape(final String value) {
+        final int length = value.length();
+        int start = indexOfEscaped(value, 0);
+
+        if (start == length) {
+            return value;
+        }
+        final StringBuilder builder = new StringBuilder(length + 16);
+        builder.append(value, 0, start);
+
+        while (start < length) {
+            builder.append(replacements[value.charAt(start)]);
+
+            final int end = indexOfEscaped(value, start + 1);
+            builder.append(value, start + 1, end);
+            start = end;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes a string, escaped if needed
+     *
+     * @param value   the string
+     * @param context the write context
+     * @throws IOException
+     */
+    public void escape(final String value, final WriteContext context) throws IOException {
+        final int length = value.length();
+        int start = indexOfEscaped(value, 0);
+
+        if (start == length) {
+            context.write(value);
+            return;
+        }
+        context.write(value, 0, start);
+
+        while (start < length) {
+            context.write(replacements[value.charAt(start)]);
+
+            final int end = indexOfEscaped(value, start + 1);
+            context.write(value, start + 1, end - start - 1);
+            start = end;
+        }
+    }
+
+    /**
+     * Returns the index of the first character to escape
+     *
+     * @param value the string
+     * @param from  the index to start from
+     * @return int or the length of the string if there is nothing to escape
+     */
+    private int indexOfEscaped(final String value, final int from) {
+        final String[] table = replacements;
+        final int limit = table.length;
+        final int length = value.length();
+
+        for (int i = from; i < length; i++) {
+            final char c = value.charAt(i);
+
+            if (c < limit && table[c] != null) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Checks if the character is escaped
+     *
+     * @param c the character
+     * @return boolean
+     */
+    public boolean isEscaped(final char c) {
+        return c < replacements.length && replacements[c] != null;
+    }
+
+    /**
+     * Returns an escaper replacing the character too
+     *
+     * @param c           the character
+     * @param replacement the replacement
+     * @return Escaper
+     */
+    public Escaper with(final char c, final String replacement) {
+        final String[] table = new String[Math.max(replacements.length, c + 1)];
+        System.arraycopy(replacements, 0, table, 0, replacements.length);
+        table[c] = replacement;
+        return new Escaper(table);
+    }
+}
@@ -0,0 +1,679 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.Date;
+
+/**
+ * This class reads and writes a field value through method handles bound once
+ * or through the accessors generated for classes annotated with {@link KSerializable},
+ * primitive values are read and written without boxing.
+ * The kind of a field is resolved once from its declared type,
+ * boxed types share the kind of their primitive type.
+ *
+ * @author Karl STEIN
+ */
+public final class FieldAccessor {
+
+    /**
+     * The kinds of field
+     */
+    public enum Kind {
+        BOOLEAN,
+        BYTE,
+        CHAR,
+        SHORT,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE,
+        STRING,
+        ENUM,
+        DATE,
+        OBJECT
+    }
+
+    /**
+     * The field
+     */
+    private final Field field;
+    /**
+     * The generated accessors
+     */
+    private final GeneratedAccessors generated;
+    /**
+     * The field index in the generated accessors
+     */
+    private final int index;
+    /**
+     * The field getter, typed (Object)T for primitives and (Object)Object otherwise,
+     * null if the field is read by the generated accessors
+     */
+    private final MethodHandle getter;
+    /**
+     * The field setter, typed (Object,T)void for primitives and (Object,Object)void otherwise,
+     * null if the field is final or written by the generated accessors
+     */
+    private final MethodHandle setter;
+    /**
+     * The generic type of the field
+     */
+    private final Type genericType;
+    /**
+     * The kind of field
+     */
+    private final Kind kind;
+    /**
+     * The field name
+     */
+    private final String name;
+    /**
+     * The field name encoded once
+     */
+    private final EncodedText encodedName;
+    /**
+     * The primitive type flag
+     */
+    private final boolean primitive;
+    /**
+     * The tokens of the field, set once by the serializer while the descriptor is built
+     */
+    private EncodedText[] tokens;
+    /**
+     * The writable flag
+     */
+    private final boolean writable;
+
+    /**
+     * Creates an accessor for an accessible field
+     *
+     * @param field the field
+     */
+    public FieldAccessor(final Field field) {
+        final Class<?> type = field.getType();
+
+        this.field = field;
+        this.name = field.getName();
+        this.encodedName = new EncodedText(name);
+        this.genericType = field.getGenericType();
+        this.kind = getKind(type);
+        this.primitive = type.isPrimitive();
+        this.writable = !Modifier.isFinal(field.getModifiers());
+
+        final GeneratedAccessors accessors = GeneratedAccessors.forClass(field.getDeclaringClass());
+        this.index = accessors != null ? accessors.indexOf(name) : -1;
+        this.generated = index >= 0 ? accessors : null;
+
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final Class<?> valueType = primitive ? type : Object.class;
+
+            // The setter is kept with generated accessors for the fields they do not write
+            this.getter = generated == null ? lookup.unreflectGetter(field)
+                    .asType(MethodType.methodType(valueType, Object.class)) : null;
+            this.setter = writable && (generated == null || !generated.canSet(index)) ? lookup.unreflectSetter(field)
+                    .asType(MethodType.methodType(Void.TYPE, Object.class, valueType)) : null;
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access field " + field, e);
+        }
+    }
+
+    /**
+     * Returns the kind of the type
+     *
+     * @param type the field type
+     * @return Kind
+     */
+    static Kind getKind(final Class<?> type) {
+        if (type == Boolean.TYPE || type == Boolean.class) {
+            return Kind.BOOLEAN;
+        } else if (type == Byte.TYPE || type == Byte.class) {
+            return Kind.BYTE;
+        } else if (type == Character.TYPE || type == Character.class) {
+            return Kind.CHAR;
+        } else if (type == Short.TYPE || type == Short.class) {
+            return Kind.SHORT;
+        } else if (type == Integer.TYPE || type == Integer.class) {
+            return Kind.INT;
+        } else if (type == Long.TYPE || type == Long.class) {
+            return Kind.LONG;
+        } else if (type == Float.TYPE || type == Float.class) {
+            return Kind.FLOAT;
+        } else if (type == Double.TYPE || type == Double.class) {
+            return Kind.DOUBLE;
+        } else if (type == String.class) {
+            return Kind.STRING;
+        } else if (Enum.class.isAssignableFrom(type)) {
+            return Kind.ENUM;
+        } else if (Date.class.isAssignableFrom(type)) {
+            return Kind.DATE;
+        }
+        return Kind.OBJECT;
+    }
+
+    /**
+     * Checks that the field can be written
+     */
+    private void checkWritable() {
+        if (!writable) {
+            throw new IllegalStateException("Cannot write final field " + field);
+        }
+    }
+
+    /**
+     * Converts an error thrown by a method handle
+     *
+     * @param throwable the error
+     * @return RuntimeException
+     */
+    private static RuntimeException propagate(final Throwable throwable) {
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        } else if (throwable instanceof RuntimeException) {
+            return (RuntimeException) throwable;
+        }
+        return new IllegalStateException(throwable);
+    }
+
+    /**
+     * Returns the field value, primitives are boxed
+     *
+     * @param object the object
+     * @return Object
+     */
+    public Object get(final Object object) {
+        if (generated != null) {
+            return generated.get(object, index);
+        }
+        if (!primitive) {
+            try {
+                return (Object) getter.invokeExact(object);
+            } catch (final Throwable throwable) {
+                throw propagate(throwable);
+            }
+        }
+        switch (kind) {
+            case BOOLEAN:
+                return getBoolean(object);
+            case BYTE:
+                return getByte(object);
+            case CHAR:
+                return getChar(object);
+            case SHORT:
+                return getShort(object);
+            case INT:
+                return getInt(object);
+            case LONG:
+                return getLong(object);
+            case FLOAT:
+                return getFloat(object);
+            default:
+                return getDouble(object);
+        }
+    }
+
+    /**
+     * Returns the value of a boolean field
+     *
+     * @param object the object
+     * @return boolean
+     */
+    public boolean getBoolean(final Object object) {
+        if (generated != null) {
+            return generated.getBoolean(object, index);
+        }
+        try {
+            return (boolean) getter.invokeExact(object);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Returns the value of a byte field
+     *
+     * @param object the object
+     * @return byte
+     */
+    public byte getByte(final Object object) {
+        if (generated != null) {
+            return generated.getByte(object, index);
+        }
+        try {
+            return (byte) getter.invokeExact(object);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Returns the value of a char field
+     *
+     * @param object the object
+     * @return char
+     */
+    public char getChar(final Object object) {
+        if (generated != null) {
+            return generated.getChar(object, index);
+        }
+        try {
+            return (char) getter.invokeExact(object);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Returns the value of a double field
+     *
+     * @param object the object
+     * @return double
+     */
+    public double getDouble(final Object object) {
+        if (generated != null) {
+            return generated.getDouble(object, index);
+        }
+        try {
+            return (double) getter.invokeExact(object);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Returns the field name encoded once
+     *
+     * @return EncodedText
+     */
+    public EncodedText getEncodedName() {
+        return encodedName;
+    }
+
+    /**
+     * Returns the field
+     *
+     * @return Field
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * Returns the value of a float field
+     *
+     * @param object the object
+     * @return float
+     */
+    public float getFloat(final Object object) {
+        if (generated != null) {
+            return generated.getFloat(object, index);
+        }
+        try {
+            return (float) getter.invokeExact(object);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Returns the value of an int field
+     *
+     * @param object the object
+     * @return int
+     */
+    public int getInt(final Object object) {
+        if (generated != null) {
+            return generated.getInt(object, index);
+        }
+        try {
+            return (int) getter.invokeExact(object);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Returns the generic type of the field
+     *
+     * @return Type
+     */
+    public Type getGenericType() {
+        return genericType;
+    }
+
+    /**
+     * Returns the kind of field
+     *
+     * @return Kind
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the value of a long field
+     *
+     * @param object the object
+     * @return long
+     */
+    public long getLong(final Object object) {
+        if (generated != null) {
+            return generated.getLong(object, index);
+        }
+        try {
+            return (long) getter.invokeExact(object);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Returns the field name
+     *
+     * @return String
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the value of a short field
+     *
+     * @param object the object
+     * @return short
+     */
+    public short getShort(final Object object) {
+        if (generated != null) {
+            return generated.getShort(object, index);
+        }
+        try {
+            return (short) getter.invokeExact(object);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Returns the tokens of the field, built by the serializer when the descriptor is created.
+     * The array is shared, it must not be modified.
+     *
+     * @return EncodedText[] or null if the serializer has no tokens
+     */
+    EncodedText[] getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Returns the field type
+     *
+     * @return Class
+     */
+    public Class<?> getType() {
+        return field.getType();
+    }
+
+    /**
+     * Checks if the field is a primitive
+     *
+     * @return boolean
+     */
+    public boolean isPrimitive() {
+        return primitive;
+    }
+
+    /**
+     * Checks if the values of the field are written from its declared type without being inspected,
+     * that is primitives, boxed types, strings, enums and dates
+     *
+     * @return boolean
+     */
+    public boolean isTyped() {
+        return kind != Kind.OBJECT;
+    }
+
+    /**
+     * Checks if the field can be written, final fields are not written
+     *
+     * @return boolean
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Sets the field value, primitives are unboxed
+     *
+     * @param object the object
+     * @param value  the value
+     */
+    public void set(final Object object, final Object value) {
+        checkWritable();
+
+        if (generated != null && generated.set(object, index, value)) {
+            return;
+        }
+        if (!primitive) {
+            try {
+                setter.invokeExact(object, value);
+            } catch (final Throwable throwable) {
+                throw propagate(throwable);
+            }
+            return;
+        }
+        switch (kind) {
+            case BOOLEAN:
+                setBoolean(object, (Boolean) value);
+                break;
+            case BYTE:
+                setByte(object, (Byte) value);
+                break;
+            case CHAR:
+                setChar(object, (Character) value);
+                break;
+            case SHORT:
+                setShort(object, (Short) value);
+                break;
+            case INT:
+                setInt(object, (Integer) value);
+                break;
+            case LONG:
+                setLong(object, (Long) value);
+                break;
+            case FLOAT:
+                setFloat(object, (Float) value);
+                break;
+            default:
+                setDouble(object, (Double) value);
+        }
+    }
+
+    /**
+     * Sets the value of a boolean field
+     *
+     * @param object the object
+     * @param value  the value
+     */
+    public void setBoolean(final Object object, final boolean value) {
+        checkWritable();
+
+        if (generated != null && generated.setBoolean(object, index, value)) {
+            return;
+        }
+        try {
+            setter.invokeExact(object, value);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Sets the value of a byte field
+     *
+     * @param object the object
+     * @param value  the value
+     */
+    public void setByte(final Object object, final byte value) {
+        checkWritable();
+
+        if (generated != null && generated.setByte(object, index, value)) {
+            return;
+        }
+        try {
+            setter.invokeExact(object, value);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Sets the value of a char field
+     *
+     * @param object the object
+     * @param value  the value
+     */
+    public void setChar(final Object object, final char value) {
+        checkWritable();
+
+        if (generated != null && generated.setChar(object, index, value)) {
+            return;
+        }
+        try {
+            setter.invokeExact(object, value);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Sets the value of a double field
+     *
+     * @param object the object
+     * @param value  the value
+     */
+    public void setDouble(final Object object, final double value) {
+        checkWritable();
+
+        if (generated != null && generated.setDouble(object, index, value)) {
+            return;
+        }
+        try {
+            setter.invokeExact(object, value);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Sets the value of a float field
+     *
+     * @param object the object
+     * @param value  the value
+     */
+    public void setFloat(final Object object, final float value) {
+        checkWritable();
+
+        if (generated != null && generated.setFloat(object, index, value)) {
+            return;
+        }
+        try {
+            setter.invokeExact(object, value);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Sets the value of an int field
+     *
+     * @param object the object
+     * @param value  the value
+     */
+    public void setInt(final Object object, final int value) {
+        checkWritable();
+
+        if (generated != null && generated.setInt(object, index, value)) {
+            return;
+        }
+        try {
+            setter.invokeExact(object, value);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Sets the value of a long field
+     *
+     * @param object the object
+     * @param value  the value
+     */
+    public void setLong(final Object object, final long value) {
+        checkWritable();
+
+        if (generated != null && generated.setLong(object, index, value)) {
+            return;
+        }
+        try {
+            setter.invokeExact(object, value);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Sets the value of a short field
+     *
+     * @param object the object
+     * @param value  the value
+     */
+    public void setShort(final Object object, final short value) {
+        checkWritable();
+
+        if (generated != null && generated.setShort(object, index, value)) {
+            return;
+        }
+        try {
+            setter.invokeExact(object, value);
+        } catch (final Throwable throwable) {
+            throw propagate(throwable);
+        }
+    }
+
+    /**
+     * Sets the tokens of the field, it is called once by the serializer while the descriptor is built
+     *
+     * @param tokens the tokens
+     * @throws IllegalStateException if the tokens are already set
+     */
+    void setTokens(final EncodedText[] tokens) {
+        if (this.tokens != null) {
+            throw new IllegalStateException("The tokens of " + field + " are already set");
+        }
+        this.tokens = tokens;
+    }
+
+    @Override
+    public String toString() {
+        return field.toString();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.util.*;
+
+/**
+ * This class holds the rules used to select the fields to convert.
+ * It is immutable, every change returns a new instance
+ * so it can be read by several threads without locking.
+ *
+ * @author Karl STEIN
+ */
+public final class FieldRules {
+
+    /**
+     * The excluded fields
+     */
+    private final Map<Class<?>, Set<String>> excludedFields;
+    /**
+     * The excluded types
+     */
+    private final Map<Class<?>, Set<Class<?>>> excludedTypes;
+    /**
+     * The ignored classes
+     */
+    private final Set<Class<?>> ignoredClasses;
+    /**
+     * The included fields
+     */
+    private final Map<Class<?>, Set<String>> includedFields;
+    /**
+     * The included types
+     */
+    private final Map<Class<?>, Set<Class<?>>> includedTypes;
+
+    /**
+     * Creates empty rules
+     */
+    public FieldRules() {
+        this(Collections.<Class<?>, Set<String>>emptyMap(),
+                Collections.<Class<?>, Set<Class<?>>>emptyMap(),
+                Collections.<Class<?>>emptySet(),
+                Collections.<Class<?>, Set<String>>emptyMap(),
+                Collections.<Class<?>, Set<Class<?>>>emptyMap());
+    }
+
+    /**
+     * Creates rules
+     *
+     * @param excludedFields the excluded fields
+     * @param excludedTypes  the excluded types
+     * @param ignoredClasses the ignored classes
+     * @param includedFields the included fields
+     * @param includedTypes  the included types
+     */
+    private FieldRules(final Map<Class<?>, Set<String>> excludedFields,
+                       final Map<Class<?>, Set<Class<?>>> excludedTypes,
+                       final Set<Class<?>> ignoredClasses,
+                       final Map<Class<?>, Set<String>> includedFields,
+                       final Map<Class<?>, Set<Class<?>>> includedTypes) {
+        this.excludedFields = excludedFields;
+        this.excludedTypes = excludedTypes;
+        this.ignoredClasses = ignoredClasses;
+        this.includedFields = includedFields;
+        this.includedTypes = includedTypes;
+    }
+
+    /**
+     * Returns a copy of the map with the value added to the set of the class
+     *
+     * @param map   the map to copy
+     * @param cls   the class
+     * @param value the value to add
+     * @param <T>   the value type
+     * @return Map
+     */
+    static <T> Map<Class<?>, Set<T>> with(final Map<Class<?>, Set<T>> map, final Class<?> cls, final T value) {
+        final Map<Class<?>, Set<T>> copy = new HashMap<Class<?>, Set<T>>(map);
+        final Set<T> values = new HashSet<T>();
+
+        if (map.containsKey(cls)) {
+            values.addAll(map.get(cls));
+        }
+        values.add(value);
+        copy.put(cls, Collections.unmodifiableSet(values));
+
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Returns the excluded fields
+     *
+     * @return Map
+     */
+    public Map<Class<?>, Set<String>> getExcludedFields() {
+        return excludedFields;
+    }
+
+    /**
+     * Returns the excluded types
+     *
+     * @return Map
+     */
+    public Map<Class<?>, Set<Class<?>>> getExcludedTypes() {
+        return excludedTypes;
+    }
+
+    /**
+     * Returns the ignored classes
+     *
+     * @return Set
+     */
+    public Set<Class<?>> getIgnoredClasses() {
+        return ignoredClasses;
+    }
+
+    /**
+     * Returns the included fields
+     *
+     * @return Map
+     */
+    public Map<Class<?>, Set<String>> getIncludedFields() {
+        return includedFields;
+    }
+
+    /**
+     * Returns the included types
+     *
+     * @return Map
+     */
+    public Map<Class<?>, Set<Class<?>>> getIncludedTypes() {
+        return includedTypes;
+    }
+
+    /**
+     * Returns the rules with the field excluded
+     *
+     * @param field the field name
+     * @param cls   the class declaring the field
+     * @return FieldRules
+     */
+    public FieldRules withExcludedField(final String field, final Class<?> cls) {
+        return new FieldRules(with(excludedFields, cls, field), excludedTypes, ignoredClasses, includedFields, includedTypes);
+    }
+
+    /**
+     * Returns the rules with the type excluded
+     *
+     * @param type the field type
+     * @param cls  the class declaring the field
+     * @return FieldRules
+     */
+    public FieldRules withExcludedType(final Class<?> type, final Class<?> cls) {
+        return new FieldRules(excludedFields, with(excludedTypes, cls, type), ignoredClasses, includedFields, includedTypes);
+    }
+
+    /**
+     * Returns the rules with the class ignored
+     *
+     * @param cls the class
+     * @return FieldRules
+     */
+    public FieldRules withIgnoredClass(final Class<?> cls) {
+        final Set<Class<?>> classes = new HashSet<Class<?>>(ignoredClasses);
+        classes.add(cls);
+        return new FieldRules(excludedFields, excludedTypes, Collections.unmodifiableSet(classes), includedFields, includedTypes);
+    }
+
+    /**
+     * Returns the rules with the field included
+     *
+     * @param field the field name
+     * @param cls   the class declaring the field
+     * @return FieldRules
+     */
+    public FieldRules withIncludedField(final String field, final Class<?> cls) {
+        return new FieldRules(excludedFields, excludedTypes, ignoredClasses, with(includedFields, cls, field), includedTypes);
+    }
+
+    /**
+     * Returns the rules with the type included
+     *
+     * @param type the field type
+     * @param cls  the class declaring the field
+     * @return FieldRules
+     */
+    public FieldRules withIncludedType(final Class<?> type, final Class<?> cls) {
+        return new FieldRules(excludedFields, excludedTypes, ignoredClasses, includedFields, with(includedTypes, cls, type));
+    }
+}
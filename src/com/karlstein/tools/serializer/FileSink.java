@@ -0,0 +1,276 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class writes bytes to a file channel in large chunks or through a sliding memory-mapped window,
+ * it is used with {@link Utf8Output} for bulk exports.
+ * In chunked mode the bytes are collected in a direct buffer written at aligned file positions,
+ * in mapped mode they are copied to a mapped region of the file and the next region is mapped when it is full.
+ * The file is truncated to the written size when the sink is closed, the mapped mode needs a channel
+ * opened for reading and writing.
+ * The mapped windows are released by the garbage collector and not when the sink is closed,
+ * on Windows the file cannot be deleted or resized by another process until then.
+ *
+ * @author Karl STEIN
+ */
+public final class FileSink implements ByteSink {
+
+    /**
+     * The ways of writing to the file
+     */
+    public enum Mode {
+        /**
+         * Bytes are written in chunks from a direct buffer
+         */
+        CHUNKED,
+        /**
+         * Bytes are copied to a memory-mapped window
+         */
+        MAPPED
+    }
+
+    /**
+     * The moments when the written bytes are forced to the storage device,
+     * in mapped mode each window is also forced before the next one is mapped unless the policy is NEVER
+     */
+    public enum ForcePolicy {
+        /**
+         * The operating system decides
+         */
+        NEVER,
+        /**
+         * On each flush and when the sink is closed
+         */
+        ON_FLUSH,
+        /**
+         * When the sink is closed
+         */
+        ON_CLOSE
+    }
+
+    /**
+     * The file block alignment
+     */
+    private static final int ALIGNMENT = 4096;
+    /**
+     * The default size of the chunks
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    /**
+     * The default size of the mapped windows
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    /**
+     * The file channel
+     */
+    private final FileChannel channel;
+    /**
+     * The force policy
+     */
+    private final ForcePolicy forcePolicy;
+    /**
+     * The writing mode
+     */
+    private final Mode mode;
+    /**
+     * The size of the chunks or of the mapped windows
+     */
+    private final int size;
+    /**
+     * The chunk or the mapped window
+     */
+    private ByteBuffer buffer;
+    /**
+     * The file position of the buffer
+     */
+    private long position;
+
+    /**
+     * Creates a sink writing from the current position of the channel
+     *
+     * @param channel     the file channel
+     * @param mode        the writing mode
+     * @param size        the size of the chunks or of the mapped windows, rounded to the file block alignment
+     * @param forcePolicy the force policy
+     * @throws IOException
+     */
+    public FileSink(final FileChannel channel, final Mode mode, final int size, final ForcePolicy forcePolicy) throws IOException {
+        this.channel = channel;
+        this.mode = mode;
+        this.size = Math.max(ALIGNMENT, size - size % ALIGNMENT);
+        this.forcePolicy = forcePolicy;
+        this.position = channel.position();
+
+        if (mode == Mode.CHUNKED) {
+            buffer = ByteBuffer.allocateDirect(this.size);
+
+            // Align the next chunks on the file blocks
+            buffer.limit(this.size - (int) (position % ALIGNMENT));
+        }
+    }
+
+    /**
+     * Creates a sink writing chunks of the default size
+     *
+     * @param channel the file channel
+     * @return FileSink
+     * @throws IOException
+     */
+    public static FileSink chunked(final FileChannel channel) throws IOException {
+        return new FileSink(channel, Mode.CHUNKED, DEFAULT_CHUNK_SIZE, ForcePolicy.NEVER);
+    }
+
+    /**
+     * Creates a sink writing through mapped windows of the default size
+     *
+     * @param channel the file channel, opened for reading and writing
+     * @return FileSink
+     * @throws IOException
+     */
+    public static FileSink mapped(final FileChannel channel) throws IOException {
+        return new FileSink(channel, Mode.MAPPED, DEFAULT_WINDOW_SIZE, ForcePolicy.NEVER);
+    }
+
+    /**
+     * Writes the remaining bytes, truncates the file to the written size and closes the channel
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (mode == Mode.CHUNKED) {
+                writeChunk();
+            } else if (buffer != null) {
+                if (forcePolicy != ForcePolicy.NEVER) {
+                    ((MappedByteBuffer) buffer).force();
+                }
+                position += buffer.position();
+                buffer = null;
+            }
+            // The tail of a larger file or of a preallocation is removed
+            if (channel.size() > position) {
+                channel.truncate(position);
+            }
+            if (forcePolicy != ForcePolicy.NEVER) {
+                channel.force(true);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the chunk and forces the written bytes if the policy requires it
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        if (mode == Mode.CHUNKED) {
+            writeChunk();
+
+            if (forcePolicy == ForcePolicy.ON_FLUSH) {
+                channel.force(false);
+            }
+        } else if (buffer != null && forcePolicy == ForcePolicy.ON_FLUSH) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    /**
+     * Returns the file position of the next byte
+     *
+     * @return long
+     */
+    public long getPosition() {
+        return buffer != null ? position + buffer.position() : position;
+    }
+
+    /**
+     * Maps the next window of the file, the previous one is forced unless the policy is {@link ForcePolicy#NEVER}
+     * since forcing the channel does not cover the bytes written through a mapped buffer
+     *
+     * @throws IOException
+     */
+    private void mapWindow() throws IOException {
+        if (buffer != null) {
+            if (forcePolicy != ForcePolicy.NEVER) {
+                ((MappedByteBuffer) buffer).force();
+            }
+            position += buffer.position();
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+    }
+
+    /**
+     * Reserves the file size before writing, the file is truncated to the written size when the sink is closed
+     *
+     * @param expectedSize the expected number of bytes
+     * @throws IOException
+     */
+    public void preallocate(final long expectedSize) throws IOException {
+        final long end = getPosition() + expectedSize;
+
+        if (expectedSize > 0 && end > channel.size()) {
+            channel.write(ByteBuffer.wrap(new byte[1]), end - 1);
+        }
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        int start = offset;
+        int remaining = length;
+
+        while (remaining > 0) {
+            if (buffer == null || !buffer.hasRemaining()) {
+                if (mode == Mode.CHUNKED) {
+                    writeChunk();
+                } else {
+                    mapWindow();
+                }
+            }
+            final int count = Math.min(remaining, buffer.remaining());
+            buffer.put(bytes, start, count);
+            start += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Writes the bytes of the chunk to the file
+     *
+     * @throws IOException
+     */
+    private void writeChunk() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+
+        // Keep the next chunks aligned after a partial write
+        buffer.limit(size - (int) (position % ALIGNMENT));
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * This class is the parent of the field accessors generated by the {@link KSerializableProcessor},
+ * fields are identified by their index and read or written without reflection.
+ * Only the value access is generated, the fields are still found by reflection when the descriptors are built.
+ *
+ * @author Karl STEIN
+ */
+public abstract class GeneratedAccessors {
+
+    /**
+     * The suffix of the generated class names
+     */
+    public static final String SUFFIX = "_KAccessors";
+
+    /**
+     * The accessors of classes without generated code
+     */
+    private static final GeneratedAccessors NONE = new GeneratedAccessors() {
+        @Override
+        public int indexOf(final String name) {
+            return -1;
+        }
+    };
+
+    /**
+     * The generated accessors by class
+     */
+    private static final ClassValue<GeneratedAccessors> INSTANCES = new ClassValue<GeneratedAccessors>() {
+        @Override
+        protected GeneratedAccessors computeValue(final Class<?> type) {
+            return load(type);
+        }
+    };
+
+    /**
+     * Returns the generated accessors of the class
+     *
+     * @param cls the class declaring the fields
+     * @return GeneratedAccessors or null if the class has no generated accessors
+     */
+    static GeneratedAccessors forClass(final Class<?> cls) {
+        final GeneratedAccessors accessors = INSTANCES.get(cls);
+        return accessors != NONE ? accessors : null;
+    }
+
+    /**
+     * Returns the name of the generated class (without package)
+     *
+     * @param binaryName the binary name of the class (without package)
+     * @return String
+     */
+    public static String getGeneratedName(final String binaryName) {
+        return binaryName.replace('$', '_') + SUFFIX;
+    }
+
+    /**
+     * Loads the generated accessors of the class
+     *
+     * @param cls the class
+     * @return GeneratedAccessors
+     */
+    private static GeneratedAccessors load(final Class<?> cls) {
+        if (!cls.isAnnotationPresent(KSerializable.class)) {
+            return NONE;
+        }
+        final String name = cls.getName();
+        final int index = name.lastIndexOf('.');
+        final String generatedName = name.substring(0, index + 1) + getGeneratedName(name.substring(index + 1));
+
+        try {
+            final Class<?> generatedClass = Class.forName(generatedName, true, cls.getClassLoader());
+            return (GeneratedAccessors) generatedClass.getDeclaredConstructor().newInstance();
+
+        } catch (final ClassNotFoundException e) {
+            // The processor did not run, use reflection
+            return NONE;
+        } catch (final InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create the accessors of " + name, e.getCause());
+        } catch (final ReflectiveOperationException e) {
+            return NONE;
+        }
+    }
+
+    /**
+     * Returns the error of a getter called for a field it does not return,
+     * the same error as the generated getters
+     *
+     * @param index the field index
+     * @return IllegalArgumentException
+     */
+    private static IllegalArgumentException noField(final int index) {
+        return new IllegalArgumentException("No field at index " + index);
+    }
+
+    /**
+     * Checks if the generated code writes the field with all the setters of its type
+     *
+     * @param index the field index
+     * @return boolean false if the field is final or was generated by a previous version
+     */
+    public boolean canSet(final int index) {
+        return false;
+    }
+
+    /**
+     * Returns the value of a field, primitives are boxed
+     *
+     * @param object the object
+     * @param index  the field index
+     * @return Object
+     */
+    public Object get(final Object object, final int index) {
+        throw noField(index);
+    }
+
+    /**
+     * Returns the value of a boolean field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @return boolean
+     */
+    public boolean getBoolean(final Object object, final int index) {
+        throw noField(index);
+    }
+
+    /**
+     * Returns the value of a byte field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @return byte
+     */
+    public byte getByte(final Object object, final int index) {
+        throw noField(index);
+    }
+
+    /**
+     * Returns the value of a char field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @return char
+     */
+    public char getChar(final Object object, final int index) {
+        throw noField(index);
+    }
+
+    /**
+     * Returns the value of a double field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @return double
+     */
+    public double getDouble(final Object object, final int index) {
+        throw noField(index);
+    }
+
+    /**
+     * Returns the value of a float field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @return float
+     */
+    public float getFloat(final Object object, final int index) {
+        throw noField(index);
+    }
+
+    /**
+     * Returns the value of an int field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @return int
+     */
+    public int getInt(final Object object, final int index) {
+        throw noField(index);
+    }
+
+    /**
+     * Returns the value of a long field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @return long
+     */
+    public long getLong(final Object object, final int index) {
+        throw noField(index);
+    }
+
+    /**
+     * Returns the value of a short field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @return short
+     */
+    public short getShort(final Object object, final int index) {
+        throw noField(index);
+    }
+
+    /**
+     * Returns the index of the field
+     *
+     * @param name the field name
+     * @return int or -1 if the field has no generated accessor
+     */
+    public abstract int indexOf(String name);
+
+    /**
+     * Creates an instance of the class
+     *
+     * @return Object or null if the class cannot be instantiated by the generated code
+     */
+    public Object newInstance() {
+        return null;
+    }
+
+    /**
+     * Sets the value of a field, primitives are unboxed
+     *
+     * @param object the object
+     * @param index  the field index
+     * @param value  the value
+     * @return boolean false if the field cannot be written by the generated code
+     */
+    public boolean set(final Object object, final int index, final Object value) {
+        return false;
+    }
+
+    /**
+     * Sets the value of a boolean field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @param value  the value
+     * @return boolean false if the field cannot be written by the generated code
+     */
+    public boolean setBoolean(final Object object, final int index, final boolean value) {
+        return false;
+    }
+
+    /**
+     * Sets the value of a byte field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @param value  the value
+     * @return boolean false if the field cannot be written by the generated code
+     */
+    public boolean setByte(final Object object, final int index, final byte value) {
+        return false;
+    }
+
+    /**
+     * Sets the value of a char field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @param value  the value
+     * @return boolean false if the field cannot be written by the generated code
+     */
+    public boolean setChar(final Object object, final int index, final char value) {
+        return false;
+    }
+
+    /**
+     * Sets the value of a double field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @param value  the value
+     * @return boolean false if the field cannot be written by the generated code
+     */
+    public boolean setDouble(final Object object, final int index, final double value) {
+        return false;
+    }
+
+    /**
+     * Sets the value of a float field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @param value  the value
+     * @return boolean false if the field cannot be written by the generated code
+     */
+    public boolean setFloat(final Object object, final int index, final float value) {
+        return false;
+    }
+
+    /**
+     * Sets the value of an int field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @param value  the value
+     * @return boolean false if the field cannot be written by the generated code
+     */
+    public boolean setInt(final Object object, final int index, final int value) {
+        return false;
+    }
+
+    /**
+     * Sets the value of a long field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @param value  the value
+     * @return boolean false if the field cannot be written by the generated code
+     */
+    public boolean setLong(final Object object, final int index, final long value) {
+        return false;
+    }
+
+    /**
+     * Sets the value of a short field
+     *
+     * @param object the object
+     * @param index  the field index
+     * @param value  the value
+     * @return boolean false if the field cannot be written by the generated code
+     */
+    public boolean setShort(final Object object, final int index, final short value) {
+        return false;
+    }
+}
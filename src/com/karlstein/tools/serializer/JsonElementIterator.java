@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class reads the elements of a top-level JSON array one at a time,
+ * only the current element is held in memory.
+ * The read buffer is given back when the end of the array is reached or when the iterator is closed,
+ * the underlying reader is never closed.
+ *
+ * @param <T> the element type
+ * @author Karl STEIN
+ */
+public final class JsonElementIterator<T> implements Iterator<T>, Closeable {
+
+    /**
+     * The serializer binding the elements
+     */
+    private final JsonSerializer serializer;
+    /**
+     * The element type
+     */
+    private final Class<T> type;
+    /**
+     * The fields to read or null
+     */
+    private final JsonProjection projection;
+    /**
+     * The JSON reader (null when closed)
+     */
+    private JsonReader json;
+
+    /**
+     * Creates an iterator over the array the reader is positioned on
+     *
+     * @param serializer the serializer binding the elements
+     * @param type       the element type
+     * @param projection the fields to read or null to read all the fields
+     * @param json       the JSON reader, positioned inside the array
+     */
+    JsonElementIterator(final JsonSerializer serializer, final Class<T> type, final JsonProjection projection, final JsonReader json) {
+        this.serializer = serializer;
+        this.type = type;
+        this.projection = projection;
+        this.json = json;
+    }
+
+    /**
+     * Stops the iteration and gives back the read buffer
+     */
+    @Override
+    public void close() {
+        if (json != null) {
+            json.close();
+            json = null;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (json == null) {
+            return false;
+        }
+        try {
+            if (json.hasNext()) {
+                return true;
+            }
+            json.endArray();
+            json.endDocument();
+            close();
+            return false;
+
+        } catch (final IOException e) {
+            close();
+            throw new IllegalArgumentException("Cannot read the elements of " + type.getName(), e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return (T) serializer.readValue(type, json, projection);
+        } catch (final IOException e) {
+            close();
+            throw new IllegalArgumentException("Cannot read the elements of " + type.getName(), e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
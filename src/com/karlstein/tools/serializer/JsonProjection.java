@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.karlstein.tools.serializer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class defines the fields to read from a JSON document as dotted paths like "id" or "address.city".
+ * A path goes through the elements of arrays and collections and through the values of maps.
+ * The other fields are skipped by the reader without creating any string, number or object,
+ * a field given without sub-path is read whole. It is immutable and can be shared between threads.
+ *
+ * @author Karl STEIN
+ */
+public final class JsonProjection {
+
+    /**
+     * The names of the projected fields
+     */
+    private final JsonReader.Names names;
+    /**
+     * The projections of the fields by index, null for the fields read whole
+     */
+    private final JsonProjection[] children;
+    /**
+     * The projected field accessors by class
+     */
+    private final ConcurrentMap<Class<?>, Binding> bindings = new ConcurrentHashMap<Class<?>, Binding>();
+
+    /**
+     * Creates a projection
+     *
+     * @param paths the dotted paths of the fields to read
+     * @throws IllegalArgumentException if a path is empty or has an empty name
+     */
+    public JsonProjection(final Collection<String> paths) {
+        final Map<String, List<String>> subPaths = new LinkedHashMap<String, List<String>>();
+        final Set<String> whole = new HashSet<String>();
+
+        for (final String path : paths) {
+            if (path.isEmpty() || path.startsWith(".") || path.endsWith(".") || path.contains("..")) {
+                throw new IllegalArgumentException("Invalid path \"" + path + "\"");
+            }
+            final int dot = path.indexOf('.');
+            final String name = dot < 0 ? path : path.substring(0, dot);
+            List<String> list = subPaths.get(name);
+
+            if (list == null) {
+                list = new ArrayList<String>();
+                subPaths.put(name, list);
+            }
+            if (dot < 0) {
+                whole.add(name);
+            } else {
+                list.add(path.substring(dot + 1));
+            }
+        }
+
+        final String[] fieldNames = subPaths.keySet().toArray(new String[subPaths.size()]);
+        this.names = new JsonReader.Names(fieldNames);
+        this.children = new JsonProjection[fieldNames.length];
+
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (!whole.contains(fieldNames[i])) {
+                children[i] = new JsonProjection(subPaths.get(fieldNames[i]));
+            }
+        }
+    }
+
+    /**
+     * Creates a projection
+     *
+     * @param paths the dotted paths of the fields to read
+     * @return JsonProjection
+     * @throws IllegalArgumentException if a path is empty or has an empty name
+     */
+    public static JsonProjection of(final String... paths) {
+        return new JsonProjection(Arrays.asList(paths));
+    }
+
+    /**
+     * Returns the projection of a field
+     *
+     * @param index the index of the field name
+     * @return JsonProjection or null if the field is read whole
+     */
+    JsonProjection getChild(final int index) {
+        return children[index];
+    }
+
+    /**
+     * Returns the projected fields of a class, indexed like the names
+     *
+     * @param descriptor the class descriptor
+     * @return FieldAccessor[] with null for the names that are not serializable fields of the class
+     */
+    FieldAccessor[] getFields(final ClassDescriptor descriptor) {
+        Binding binding = bindings.get(descriptor.getType());
+
+        // Descriptors are replaced when the configuration of the serializer changes
+        if (binding == null || binding.descriptor != descriptor) {
+            binding = new Binding(descriptor);
+            bindings.put(descriptor.getType(), binding);
+        }
+        return binding.fields;
+    }
+
+    /**
+     * Returns the names of the projected fields
+     *
+     * @return JsonReader.Names
+     */
+    JsonReader.Names getNames() {
+        return names;
+    }
+
+    /**
+     * The projected fields of a class
+     */
+    private final class Binding {
+
+        /**
+         * The class descriptor
+         */
+        final ClassDescriptor descriptor;
+        /**
+         * The fields indexed like the names
+         */
+        final FieldAccessor[] fields;
+
+        /**
+         * Binds the names to the fields of a class
+         *
+         * @param descriptor the class descriptor
+         */
+        Binding(final ClassDescriptor descriptor) {
+            this.descriptor = descriptor;
+            this.fields = new FieldAccessor[names.size()];
+
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = descriptor.getField(names.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,965 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class reads JSON tokens one by one from a reader, without building a tree.
+ * The read buffer is taken from a per-thread cache and given back when the reader is closed,
+ * so creating a reader for each message costs almost nothing.
+ * Syntax errors are reported as IOException.
+ *
+ * @author Karl STEIN
+ */
+public final class JsonReader implements Closeable {
+
+    /**
+     * The JSON tokens
+     */
+    public enum Token {
+        BEGIN_ARRAY,
+        END_ARRAY,
+        BEGIN_OBJECT,
+        END_OBJECT,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    /**
+     * The size of the read buffer
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * The read buffers that are not in use, by thread
+     */
+    private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>();
+    /**
+     * The scope of a document before its value
+     */
+    private static final int EMPTY_DOCUMENT = 0;
+    /**
+     * The scope of a document after its value
+     */
+    private static final int NONEMPTY_DOCUMENT = 1;
+    /**
+     * The scope of an array before its first element
+     */
+    private static final int EMPTY_ARRAY = 2;
+    /**
+     * The scope of an array after an element
+     */
+    private static final int NONEMPTY_ARRAY = 3;
+    /**
+     * The scope of an object before its first field
+     */
+    private static final int EMPTY_OBJECT = 4;
+    /**
+     * The scope of an object after a field name
+     */
+    private static final int DANGLING_NAME = 5;
+    /**
+     * The scope of an object after a field value
+     */
+    private static final int NONEMPTY_OBJECT = 6;
+
+    /**
+     * The reader
+     */
+    private final Reader reader;
+    /**
+     * The builder of strings containing escaped characters
+     */
+    private final StringBuilder builder = new StringBuilder();
+    /**
+     * The read buffer
+     */
+    private char[] buffer;
+    /**
+     * The position of the next character in the buffer
+     */
+    private int position = 0;
+    /**
+     * The number of characters in the buffer
+     */
+    private int limit = 0;
+    /**
+     * The number of characters read before the buffer
+     */
+    private long offset = 0;
+    /**
+     * The characters of the last number
+     */
+    private char[] number = new char[32];
+    /**
+     * The length of the last number
+     */
+    private int numberLength = 0;
+    /**
+     * The value of the last boolean
+     */
+    private boolean booleanValue;
+    /**
+     * The next token or null if it has not been read
+     */
+    private Token peeked;
+    /**
+     * The scopes of the arrays and objects being read
+     */
+    private int[] stack = new int[32];
+    /**
+     * The number of scopes
+     */
+    private int stackSize = 0;
+
+    /**
+     * Creates a reader of a single JSON value
+     *
+     * @param reader the reader, it is not closed by this class
+     */
+    public JsonReader(final Reader reader) {
+        final char[] cached = BUFFERS.get();
+
+        if (cached != null) {
+            BUFFERS.set(null);
+            this.buffer = cached;
+        } else {
+            this.buffer = new char[BUFFER_SIZE];
+        }
+        this.reader = reader;
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Consumes the beginning of an array
+     *
+     * @throws IOException
+     */
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the beginning of an object
+     *
+     * @throws IOException
+     */
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Gives back the read buffer, the underlying reader is not closed
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            BUFFERS.set(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Consumes the end of an array
+     *
+     * @throws IOException
+     */
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the end of the document, only whitespace can follow the top-level value
+     *
+     * @throws IOException
+     */
+    public void endDocument() throws IOException {
+        expect(Token.END_DOCUMENT);
+    }
+
+    /**
+     * Consumes the end of an object
+     *
+     * @throws IOException
+     */
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the next token if it is the expected one
+     *
+     * @param token the expected token
+     * @throws IOException
+     */
+    private void expect(final Token token) throws IOException {
+        if (peek() != token) {
+            throw syntaxError("Expected " + token + " but was " + peeked);
+        }
+        peeked = null;
+    }
+
+    /**
+     * Reads characters until the buffer contains at least the given number of characters
+     *
+     * @param minimum the number of characters
+     * @return boolean false if the end of the input is reached before
+     * @throws IOException
+     */
+    private boolean fill(final int minimum) throws IOException {
+        offset += position;
+
+        if (limit != position) {
+            limit -= position;
+            System.arraycopy(buffer, position, buffer, 0, limit);
+        } else {
+            limit = 0;
+        }
+        position = 0;
+
+        int count;
+        while ((count = reader.read(buffer, limit, buffer.length - limit)) != -1) {
+            limit += count;
+
+            if (limit >= minimum) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the current array or object has more elements
+     *
+     * @return boolean
+     * @throws IOException
+     */
+    public boolean hasNext() throws IOException {
+        final Token token = peek();
+        return token != Token.END_ARRAY && token != Token.END_OBJECT && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Checks if the character can be part of a number
+     *
+     * @param c the character
+     * @return boolean
+     */
+    private static boolean isNumberChar(final char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    /**
+     * Consumes a boolean value
+     *
+     * @return boolean
+     * @throws IOException
+     */
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return booleanValue;
+    }
+
+    /**
+     * Consumes a number or a string and returns it as a double
+     *
+     * @return double
+     * @throws IOException
+     */
+    public double nextDouble() throws IOException {
+        final Token token = peek();
+
+        try {
+            if (token == Token.STRING) {
+                return Double.parseDouble(nextString());
+            }
+            expect(Token.NUMBER);
+            return Double.parseDouble(new String(number, 0, numberLength));
+
+        } catch (final NumberFormatException e) {
+            throw syntaxError("Invalid number");
+        }
+    }
+
+    /**
+     * Consumes a number or a string and returns it as an int
+     *
+     * @return int
+     * @throws IOException
+     */
+    public int nextInt() throws IOException {
+        final long value = nextLong();
+
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw syntaxError("The number " + value + " is not an int");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Consumes a number or a string and returns it as a long
+     *
+     * @return long
+     * @throws IOException
+     */
+    public long nextLong() throws IOException {
+        if (peek() == Token.STRING) {
+            try {
+                return Long.parseLong(nextString());
+            } catch (final NumberFormatException e) {
+                throw syntaxError("Invalid number");
+            }
+        }
+        expect(Token.NUMBER);
+
+        // Accumulate negatively to handle Long.MIN_VALUE
+        final boolean negative = number[0] == '-';
+        long value = 0;
+        int i = negative ? 1 : 0;
+
+        if (i < numberLength) {
+            for (; i < numberLength; i++) {
+                final char c = number[i];
+
+                if (c < '0' || c > '9' || value < Long.MIN_VALUE / 10) {
+                    break;
+                }
+                final long next = value * 10 - (c - '0');
+
+                if (next > value) {
+                    break;
+                }
+                value = next;
+            }
+            if (i == numberLength && (negative || value != Long.MIN_VALUE)) {
+                return negative ? value : -value;
+            }
+            // The digits overflowed, the double parsed below could round back into the range
+            if (i == numberLength || (number[i] >= '0' && number[i] <= '9')) {
+                throw syntaxError("The number " + new String(number, 0, numberLength) + " is not a long");
+            }
+        }
+
+        // The number has a fraction or an exponent
+        try {
+            final double decimal = Double.parseDouble(new String(number, 0, numberLength));
+            final long integer = (long) decimal;
+
+            // The cast clamps the numbers out of range, 2^63 itself compares equal to Long.MAX_VALUE
+            if (decimal >= 0x1p63 || decimal < -0x1p63 || integer != decimal) {
+                throw syntaxError("The number " + new String(number, 0, numberLength) + " is not a long");
+            }
+            return integer;
+
+        } catch (final NumberFormatException e) {
+            throw syntaxError("Invalid number");
+        }
+    }
+
+    /**
+     * Consumes the name of the next field
+     *
+     * @return String
+     * @throws IOException
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * Consumes the name of the next field and looks it up in a set of names,
+     * no string is created unless the name is escaped or crosses the end of the read buffer
+     *
+     * @param names the expected names
+     * @return int the index of the name or -1 if it is not one of the names
+     * @throws IOException
+     */
+    public int nextName(final Names names) throws IOException {
+        expect(Token.NAME);
+        int hash = 0;
+
+        for (int p = position; p < limit; p++) {
+            final char c = buffer[p];
+
+            if (c == '"') {
+                final int index = names.indexOf(buffer, position, p - position, hash);
+                position = p + 1;
+                return index;
+            } else if (c == '\\' || c < 0x20) {
+                break;
+            }
+            hash = 31 * hash + c;
+        }
+        return names.indexOf(readString());
+    }
+
+    /**
+     * Returns the next non-whitespace character
+     *
+     * @return int or -1 at the end of the input
+     * @throws IOException
+     */
+    private int nextNonWhitespace() throws IOException {
+        while (position < limit || fill(1)) {
+            final char c = buffer[position++];
+
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Consumes a null value
+     *
+     * @throws IOException
+     */
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Consumes a string, numbers and booleans are returned as written
+     *
+     * @return String
+     * @throws IOException
+     */
+    public String nextString() throws IOException {
+        final Token token = peek();
+        peeked = null;
+
+        switch (token) {
+            case STRING:
+                return readString();
+            case NUMBER:
+                return new String(number, 0, numberLength);
+            case BOOLEAN:
+                return String.valueOf(booleanValue);
+            default:
+                peeked = token;
+                throw syntaxError("Expected " + Token.STRING + " but was " + token);
+        }
+    }
+
+    /**
+     * Returns the next token without consuming it
+     *
+     * @return Token
+     * @throws IOException
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        final int scope = stack[stackSize - 1];
+        int c;
+
+        switch (scope) {
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or ']'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                return peeked = readValue(c);
+
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a field name");
+                }
+                stack[stackSize - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                return peeked = readValue(nextNonWhitespace());
+
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return peeked = readValue(nextNonWhitespace());
+
+            default:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Expected the end of the document");
+                }
+                return peeked = Token.END_DOCUMENT;
+        }
+    }
+
+    /**
+     * Adds a scope
+     *
+     * @param scope the scope
+     */
+    private void push(final int scope) {
+        if (stackSize == stack.length) {
+            final int[] copy = new int[stackSize * 2];
+            System.arraycopy(stack, 0, copy, 0, stackSize);
+            stack = copy;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    /**
+     * Reads an escaped character, the backslash is already consumed
+     *
+     * @return char
+     * @throws IOException
+     */
+    private char readEscape() throws IOException {
+        if (position == limit && !fill(1)) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        final char c = buffer[position++];
+
+        switch (c) {
+            case 'u':
+                if (limit - position < 4 && !fill(4)) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                int value = 0;
+
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(buffer[position++], 16);
+
+                    if (digit < 0) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    /**
+     * Reads a literal, its first character is already consumed
+     *
+     * @param literal the expected literal
+     * @throws IOException
+     */
+    private void readLiteral(final String literal) throws IOException {
+        final int length = literal.length() - 1;
+
+        if (limit - position < length && !fill(length)) {
+            throw syntaxError("Unexpected end of input");
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[position + i] != literal.charAt(i + 1)) {
+                throw syntaxError("Unexpected value");
+            }
+        }
+        position += length;
+    }
+
+    /**
+     * Reads a number, its first character is already consumed
+     *
+     * @param first the first character
+     * @throws IOException
+     */
+    private void readNumber(final char first) throws IOException {
+        number[0] = first;
+        numberLength = 1;
+
+        while (position < limit || fill(1)) {
+            final char c = buffer[position];
+
+            if (!isNumberChar(c)) {
+                break;
+            }
+            if (numberLength == number.length) {
+                final char[] copy = new char[numberLength * 2];
+                System.arraycopy(number, 0, copy, 0, numberLength);
+                number = copy;
+            }
+            number[numberLength++] = c;
+            position++;
+        }
+
+        // Check the grammar of RFC 8259: -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+        int i = first == '-' ? 1 : 0;
+        final int integerStart = i;
+        i = skipDigits(i);
+
+        if (i == integerStart || (number[integerStart] == '0' && i - integerStart > 1)) {
+            throw syntaxError("Invalid number " + new String(number, 0, numberLength));
+        }
+        if (i < numberLength && number[i] == '.') {
+            final int fractionStart = ++i;
+            i = skipDigits(i);
+
+            if (i == fractionStart) {
+                throw syntaxError("Invalid number " + new String(number, 0, numberLength));
+            }
+        }
+        if (i < numberLength && (number[i] == 'e' || number[i] == 'E')) {
+            if (++i < numberLength && (number[i] == '+' || number[i] == '-')) {
+                i++;
+            }
+            final int exponentStart = i;
+            i = skipDigits(i);
+
+            if (i == exponentStart) {
+                throw syntaxError("Invalid number " + new String(number, 0, numberLength));
+            }
+        }
+        if (i != numberLength) {
+            throw syntaxError("Invalid number " + new String(number, 0, numberLength));
+        }
+    }
+
+    /**
+     * Reads a string, the opening quote is already consumed
+     *
+     * @return String
+     * @throws IOException
+     */
+    private String readString() throws IOException {
+        boolean building = false;
+
+        while (true) {
+            int p = position;
+
+            while (p < limit) {
+                final char c = buffer[p++];
+
+                if (c == '"') {
+                    // Avoid the builder when the string has no escaped character
+                    if (!building) {
+                        final String value = new String(buffer, position, p - position - 1);
+                        position = p;
+                        return value;
+                    }
+                    builder.append(buffer, position, p - position - 1);
+                    position = p;
+                    return builder.toString();
+
+                } else if (c == '\\') {
+                    if (!building) {
+                        builder.setLength(0);
+                        building = true;
+                    }
+                    builder.append(buffer, position, p - position - 1);
+                    position = p;
+                    builder.append(readEscape());
+                    p = position;
+
+                } else if (c < 0x20) {
+                    throw syntaxError("Unescaped control character");
+                }
+            }
+
+            // Keep the characters read so far and refill the buffer
+            if (!building) {
+                builder.setLength(0);
+                building = true;
+            }
+            builder.append(buffer, position, p - position);
+            position = p;
+
+            if (!fill(1)) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Reads the token of a value starting with the character
+     *
+     * @param c the first character
+     * @return Token
+     * @throws IOException
+     */
+    private Token readValue(final int c) throws IOException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+                readLiteral("true");
+                booleanValue = true;
+                return Token.BOOLEAN;
+            case 'f':
+                readLiteral("false");
+                booleanValue = false;
+                return Token.BOOLEAN;
+            case 'n':
+                readLiteral("null");
+                return Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Skips the digits of the number being read
+     *
+     * @param start the position of the first digit
+     * @return int the position after the digits
+     */
+    private int skipDigits(final int start) {
+        int i = start;
+
+        while (i < numberLength && number[i] >= '0' && number[i] <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips a string, the opening quote is already consumed
+     *
+     * @throws IOException
+     */
+    private void skipString() throws IOException {
+        while (position < limit || fill(1)) {
+            final char c = buffer[position++];
+
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            } else if (c < 0x20) {
+                throw syntaxError("Unescaped control character");
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Skips the next value, arrays and objects are skipped without creating any object
+     *
+     * @throws IOException
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+
+        do {
+            final Token token = peek();
+            peeked = null;
+
+            switch (token) {
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case END_ARRAY:
+                case END_OBJECT:
+                    if (depth == 0) {
+                        peeked = token;
+                        throw syntaxError("Expected a value but was " + token);
+                    }
+                    stackSize--;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    peeked = token;
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Returns a syntax error at the current position
+     *
+     * @param message the error message
+     * @return IOException
+     */
+    private IOException syntaxError(final String message) {
+        return new IOException(message + " at character " + (offset + position));
+    }
+
+    /**
+     * A set of field names looked up without creating strings, the names are indexed in their given order
+     */
+    public static final class Names {
+
+        /**
+         * The names by index
+         */
+        private final String[] names;
+        /**
+         * The hash table of the indexes plus one, 0 for an empty slot
+         */
+        private final int[] slots;
+
+        /**
+         * Creates a set of names, a repeated name keeps its first index
+         *
+         * @param names the names
+         */
+        public Names(final String... names) {
+            this.names = names.clone();
+            this.slots = new int[Integer.highestOneBit(Math.max(1, names.length)) * 4];
+
+            for (int i = 0; i < names.length; i++) {
+                if (indexOf(names[i]) < 0) {
+                    int slot = names[i].hashCode() & (slots.length - 1);
+
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & (slots.length - 1);
+                    }
+                    slots[slot] = i + 1;
+                }
+            }
+        }
+
+        /**
+         * Returns the name at the given index
+         *
+         * @param index the index
+         * @return String
+         */
+        public String get(final int index) {
+            return names[index];
+        }
+
+        /**
+         * Returns the index of a name
+         *
+         * @param name the name
+         * @return int or -1 if it is not one of the names
+         */
+        public int indexOf(final String name) {
+            for (int slot = name.hashCode() & (slots.length - 1); slots[slot] != 0; slot = (slot + 1) & (slots.length - 1)) {
+                final int index = slots[slot] - 1;
+
+                if (names[index].equals(name)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the index of a name given as characters
+         *
+         * @param chars  the characters
+         * @param start  the index of the first character
+         * @param length the number of characters
+         * @param hash   the hash of the characters, computed like {@link String#hashCode()}
+         * @return int or -1 if it is not one of the names
+         */
+        int indexOf(final char[] chars, final int start, final int length, final int hash) {
+            for (int slot = hash & (slots.length - 1); slots[slot] != 0; slot = (slot + 1) & (slots.length - 1)) {
+                final int index = slots[slot] - 1;
+                final String name = names[index];
+
+                if (name.length() == length && matches(name, chars, start)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Checks if the characters are the name
+         *
+         * @param name  the name
+         * @param chars the characters, at least as many as the name
+         * @param start the index of the first character
+         * @return boolean
+         */
+        private static boolean matches(final String name, final char[] chars, final int start) {
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) != chars[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the number of names
+         *
+         * @return int
+         */
+        public int size() {
+            return names.length;
+        }
+    }
+}
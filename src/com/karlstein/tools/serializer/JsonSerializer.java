@@ -16,14 +16,13 @@
 
 package com.karlstein.tools.serializer;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.text.SimpleDateFormat;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Type;
 import java.util.*;
 
 /**
@@ -33,6 +32,15 @@ import java.util.*;
  */
 public class JsonSerializer extends KSerializer {
 
+    /**
+     * The index of the quoted key and colon in the field tokens
+     */
+    protected static final int KEY_TOKEN = 0;
+    /**
+     * The null token
+     */
+    protected static final EncodedText NULL = new EncodedText("null");
+
     /**
      * Creates a JSON converter
      */
@@ -57,27 +65,379 @@ public class JsonSerializer extends KSerializer {
         );
     }
 
+    @Override
+    protected ClassDescriptor createDescriptor(final Class<?> cls, final WriteConfig config) throws SecurityException {
+        final ClassDescriptor descriptor = super.createDescriptor(cls, config);
+        final String separator = config.isCompressOutput() ? ":" : " : ";
+
+        // Build the quoted key and the colon of each field once
+        for (final FieldAccessor field : descriptor.fields) {
+            field.setTokens(new EncodedText[]{
+                    new EncodedText('"' + Escaper.json().escape(field.getName()) + '"' + separator)
+            });
+        }
+        return descriptor;
+    }
+
     /**
-     * Escapes all quotes in the value
+     * Escapes the quotes, backslashes and control characters in the value
      *
      * @param value the value to escape
      * @return CharSequence
      */
-    protected CharSequence escapeValue(String value) {
-        if (value != null && value.indexOf('"') > 0) {
-            value = value.replace("\"", "\\\"");
-            value = value.replace("\r", "\\r");
-            value = value.replace("\n", "\\n");
-        }
-        return value;
+    protected CharSequence escapeValue(final String value) {
+        return value != null ? Escaper.json().escape(value) : null;
     }
 
     @Override
-    public <T> T read(Class<T> cls, Reader reader) {
-        Gson gson = new Gson();
-        GsonBuilder builder = new GsonBuilder();
-        builder.setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-        return builder.create().fromJson(reader, cls);
+    public <T> T read(final Class<T> cls, final Reader reader) {
+        return read(cls, reader, null);
+    }
+
+    /**
+     * Reads only the fields of a projection, the other fields are skipped without being converted
+     *
+     * @param cls        the object type
+     * @param reader     the reader
+     * @param projection the fields to read or null to read all the fields
+     * @param <T>        the object type
+     * @return T
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T read(final Class<T> cls, final Reader reader, final JsonProjection projection) {
+        final JsonReader json = new JsonReader(reader);
+
+        try {
+            final Object value = readValue(cls, json, projection);
+            json.endDocument();
+            return (T) value;
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Cannot read " + cls.getName(), e);
+        } finally {
+            json.close();
+        }
+    }
+
+    /**
+     * Reads the elements of a top-level array one at a time,
+     * the whole array is never held in memory
+     *
+     * @param cls    the element type
+     * @param reader the reader positioned on the array
+     * @param <T>    the element type
+     * @return JsonElementIterator
+     */
+    public <T> JsonElementIterator<T> readElements(final Class<T> cls, final Reader reader) {
+        return readElements(cls, reader, null);
+    }
+
+    /**
+     * Reads the elements of a top-level array one at a time, only the fields of a projection are read
+     *
+     * @param cls        the element type
+     * @param reader     the reader positioned on the array
+     * @param projection the fields to read or null to read all the fields
+     * @param <T>        the element type
+     * @return JsonElementIterator
+     */
+    public <T> JsonElementIterator<T> readElements(final Class<T> cls, final Reader reader, final JsonProjection projection) {
+        final JsonReader json = new JsonReader(reader);
+
+        try {
+            json.beginArray();
+        } catch (final IOException e) {
+            json.close();
+            throw new IllegalArgumentException("Cannot read the elements of " + cls.getName(), e);
+        }
+        return new JsonElementIterator<T>(this, cls, projection, json);
+    }
+
+    /**
+     * Reads an array
+     *
+     * @param cls        the array type
+     * @param type       the generic array type
+     * @param json       the JSON reader
+     * @param projection the fields to read in the elements or null
+     * @return Object
+     * @throws IOException
+     */
+    protected Object readArray(final Class<?> cls, final Type type, final JsonReader json, final JsonProjection projection) throws IOException {
+        final Type componentType = type instanceof GenericArrayType
+                ? ((GenericArrayType) type).getGenericComponentType() : cls.getComponentType();
+        final List<Object> elements = new ArrayList<Object>();
+
+        json.beginArray();
+        while (json.hasNext()) {
+            elements.add(readValue(componentType, json, projection));
+        }
+        json.endArray();
+
+        final Object array = Array.newInstance(cls.getComponentType(), elements.size());
+
+        for (int i = 0; i < elements.size(); i++) {
+            Array.set(array, i, elements.get(i));
+        }
+        return array;
+    }
+
+    /**
+     * Reads a collection
+     *
+     * @param cls        the collection type
+     * @param type       the generic collection type
+     * @param json       the JSON reader
+     * @param projection the fields to read in the elements or null
+     * @return Collection
+     * @throws IOException
+     */
+    protected Collection<?> readCollection(final Class<?> cls, final Type type, final JsonReader json, final JsonProjection projection) throws IOException {
+        final Collection<Object> collection = createCollection(cls);
+        final Type elementType = getTypeArgument(type, 0);
+
+        json.beginArray();
+        while (json.hasNext()) {
+            collection.add(readValue(elementType, json, projection));
+        }
+        json.endArray();
+
+        return collection;
+    }
+
+    /**
+     * Reads a map, keys are converted to the key type.
+     * With a projection only the keys of the projection are read.
+     *
+     * @param cls        the map type
+     * @param type       the generic map type
+     * @param json       the JSON reader
+     * @param projection the keys to read or null
+     * @return Map
+     * @throws IOException
+     */
+    protected Map<?, ?> readMap(final Class<?> cls, final Type type, final JsonReader json, final JsonProjection projection) throws IOException {
+        final Map<Object, Object> map = createMap(cls);
+        final Class<?> keyType = getRawType(getTypeArgument(type, 0));
+        final Type valueType = getTypeArgument(type, 1);
+
+        json.beginObject();
+        while (json.hasNext()) {
+            if (projection == null) {
+                final Object key = parseValue(json.nextName(), keyType);
+                map.put(key, readValue(valueType, json, null));
+            } else {
+                final int index = json.nextName(projection.getNames());
+
+                if (index < 0) {
+                    json.skipValue();
+                } else {
+                    final Object key = parseValue(projection.getNames().get(index), keyType);
+                    map.put(key, readValue(valueType, json, projection.getChild(index)));
+                }
+            }
+        }
+        json.endObject();
+
+        return map;
+    }
+
+    /**
+     * Reads a value without target type, objects are read as maps,
+     * arrays as lists and numbers as doubles
+     *
+     * @param json       the JSON reader
+     * @param projection the keys to read in the objects or null
+     * @return Object
+     * @throws IOException
+     */
+    protected Object readNatural(final JsonReader json, final JsonProjection projection) throws IOException {
+        switch (json.peek()) {
+            case BEGIN_ARRAY:
+                final List<Object> list = new ArrayList<Object>();
+
+                json.beginArray();
+                while (json.hasNext()) {
+                    list.add(readNatural(json, projection));
+                }
+                json.endArray();
+                return list;
+
+            case BEGIN_OBJECT:
+                final Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+                json.beginObject();
+                while (json.hasNext()) {
+                    if (projection == null) {
+                        final String name = json.nextName();
+                        map.put(name, readNatural(json, null));
+                    } else {
+                        final int index = json.nextName(projection.getNames());
+
+                        if (index < 0) {
+                            json.skipValue();
+                        } else {
+                            map.put(projection.getNames().get(index), readNatural(json, projection.getChild(index)));
+                        }
+                    }
+                }
+                json.endObject();
+                return map;
+
+            case BOOLEAN:
+                return json.nextBoolean();
+            case NUMBER:
+                return json.nextDouble();
+            case NULL:
+                json.nextNull();
+                return null;
+            default:
+                return json.nextString();
+        }
+    }
+
+    /**
+     * Reads an object, the fields are bound through the class descriptor
+     * so only the fields that would be written are read, the others are skipped.
+     * With a projection the names are matched without creating strings.
+     *
+     * @param cls        the object type
+     * @param json       the JSON reader
+     * @param projection the fields to read or null to read all the fields
+     * @return Object
+     * @throws IOException
+     */
+    protected Object readObject(final Class<?> cls, final JsonReader json, final JsonProjection projection) throws IOException {
+        final ClassDescriptor descriptor = getDescriptor(cls);
+        final FieldAccessor[] projectedFields = projection != null ? projection.getFields(descriptor) : null;
+        final Object object = descriptor.newInstance();
+
+        json.beginObject();
+        while (json.hasNext()) {
+            final FieldAccessor field;
+            JsonProjection fieldProjection = null;
+
+            if (projectedFields == null) {
+                field = descriptor.getField(json.nextName());
+            } else {
+                final int index = json.nextName(projection.getNames());
+                field = index >= 0 ? projectedFields[index] : null;
+                fieldProjection = index >= 0 ? projection.getChild(index) : null;
+            }
+
+            if (field == null || !field.isWritable()
+                    || (field.isPrimitive() && json.peek() == JsonReader.Token.NULL)) {
+                json.skipValue();
+
+            } else if (field.isPrimitive()) {
+                readPrimitive(field, object, json);
+
+            } else {
+                field.set(object, readValue(field.getGenericType(), json, fieldProjection));
+            }
+        }
+        json.endObject();
+
+        return object;
+    }
+
+    /**
+     * Reads the value of a primitive field without boxing it
+     *
+     * @param field  the primitive field
+     * @param object the object containing the field
+     * @param json   the JSON reader
+     * @throws IOException
+     */
+    protected void readPrimitive(final FieldAccessor field, final Object object, final JsonReader json) throws IOException {
+        switch (field.getKind()) {
+            case BOOLEAN:
+                field.setBoolean(object, json.nextBoolean());
+                break;
+            case BYTE:
+                field.setByte(object, toByte(json.nextInt()));
+                break;
+            case CHAR:
+                field.setChar(object, (Character) parseValue(json.nextString(), Character.TYPE));
+                break;
+            case SHORT:
+                field.setShort(object, toShort(json.nextInt()));
+                break;
+            case INT:
+                field.setInt(object, json.nextInt());
+                break;
+            case LONG:
+                field.setLong(object, json.nextLong());
+                break;
+            case FLOAT:
+                field.setFloat(object, (float) json.nextDouble());
+                break;
+            default:
+                field.setDouble(object, json.nextDouble());
+        }
+    }
+
+    /**
+     * Reads a value of the given type
+     *
+     * @param type the value type
+     * @param json the JSON reader
+     * @return Object
+     * @throws IOException
+     */
+    protected Object readValue(final Type type, final JsonReader json) throws IOException {
+        return readValue(type, json, null);
+    }
+
+    /**
+     * Reads a value of the given type, only the fields of the projection are read in the objects
+     *
+     * @param type       the value type
+     * @param json       the JSON reader
+     * @param projection the fields to read or null to read all the fields
+     * @return Object
+     * @throws IOException
+     */
+    protected Object readValue(final Type type, final JsonReader json, final JsonProjection projection) throws IOException {
+        if (json.peek() == JsonReader.Token.NULL) {
+            json.nextNull();
+            return null;
+        }
+        final Class<?> cls = getRawType(type);
+
+        switch (FieldAccessor.getKind(cls)) {
+            case BOOLEAN:
+                return json.nextBoolean();
+            case BYTE:
+                return toByte(json.nextInt());
+            case SHORT:
+                return toShort(json.nextInt());
+            case INT:
+                return json.nextInt();
+            case LONG:
+                return json.nextLong();
+            case FLOAT:
+                return (float) json.nextDouble();
+            case DOUBLE:
+                return json.nextDouble();
+            case CHAR:
+            case STRING:
+            case ENUM:
+            case DATE:
+                return parseValue(json.nextString(), cls);
+            default:
+                break;
+        }
+
+        if (cls.equals(Object.class)) {
+            return readNatural(json, projection);
+        } else if (cls.isArray()) {
+            return readArray(cls, type, json, projection);
+        } else if (Collection.class.isAssignableFrom(cls)) {
+            return readCollection(cls, type, json, projection);
+        } else if (Map.class.isAssignableFrom(cls)) {
+            return readMap(cls, type, json, projection);
+        }
+        return readObject(cls, json, projection);
     }
 
     /**
@@ -91,37 +451,101 @@ public class JsonSerializer extends KSerializer {
      * @throws IOException
      */
     public Writer write(final Collection<?> collection, final Writer writer) throws IllegalArgumentException, IllegalAccessException, IOException {
-        // Open the collection
-        writer.append('[');
-        writeLineFeed(writer);
-        increaseIndentation();
+        write(collection, createContext(writer));
+        return writer;
+    }
+
+    /**
+     * Writes the elements of an iterator as an array, each element is written as it is produced
+     *
+     * @param elements the elements to write
+     * @param writer   the writer
+     * @return Writer
+     * @throws IOException
+     */
+    public Writer write(final Iterator<?> elements, final Writer writer) throws IOException {
+        write(elements, createContext(writer));
+        return writer;
+    }
 
-        final Iterator<?> iterator = collection.iterator();
+    /**
+     * Writes the elements of an iterable as an array, each element is written as it is produced
+     *
+     * @param elements the elements to write
+     * @param writer   the writer
+     * @return Writer
+     * @throws IOException
+     */
+    public Writer write(final Iterable<?> elements, final Writer writer) throws IOException {
+        write(elements.iterator(), createContext(writer));
+        return writer;
+    }
 
-        while (iterator.hasNext()) {
-            final Object element = iterator.next();
+    @Override
+    protected void writeElement(final Object element, final int index, final WriteContext context) throws IOException {
+        // The separator is written before the element, the skipped elements do not leave a dangling comma
+        if (index > 0) {
+            context.write(',');
+            writeLineFeed(context);
+        }
 
-            // Check if the element should be ignored
-            if (element != null && ignoredObjects.contains(element)) {
-                continue;
-            }
+        // Add the element
+        writeIndentation(context);
+        write(element, context);
+    }
 
-            // Add the element
-            writeIndentation(writer);
-            write(element, writer);
+    /**
+     * Writes a collection
+     *
+     * @param collection the collection to write
+     * @param context    the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final Collection<?> collection, final WriteContext context) throws IOException {
+        // Open the collection
+        context.write('[');
+        writeLineFeed(context);
+        context.increaseIndentation();
 
-            if (iterator.hasNext()) {
-                writer.append(",");
-            }
-            writeLineFeed(writer);
+        // Add the elements
+        if (writeElements(collection, context) > 0) {
+            writeLineFeed(context);
         }
 
         // Close the collection
-        decreaseIndentation();
-        writeIndentation(writer);
-        writer.append(']');
+        context.decreaseIndentation();
+        writeIndentation(context);
+        context.write(']');
 
-        return writer;
+        return context;
+    }
+
+    /**
+     * Writes the elements of an iterator as an array
+     *
+     * @param elements the elements to write
+     * @param context  the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final Iterator<?> elements, final WriteContext context) throws IOException {
+        // Open the array
+        context.write('[');
+        writeLineFeed(context);
+        context.increaseIndentation();
+
+        // Add the elements
+        if (writeElements(elements, context) > 0) {
+            writeLineFeed(context);
+        }
+
+        // Close the array
+        context.decreaseIndentation();
+        writeIndentation(context);
+        context.write(']');
+
+        return context;
     }
 
     /**
@@ -135,131 +559,223 @@ public class JsonSerializer extends KSerializer {
      * @throws IOException
      */
     public Writer write(final Map<?, ?> map, final Writer writer) throws IllegalArgumentException, IllegalAccessException, IOException {
+        write(map, createContext(writer));
+        return writer;
+    }
+
+    /**
+     * Writes a map
+     *
+     * @param map     the map to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final Map<?, ?> map, final WriteContext context) throws IOException {
         // Open the object
-        writer.append('{');
-        writeLineFeed(writer);
-        increaseIndentation();
+        context.write('{');
+        writeLineFeed(context);
+        context.increaseIndentation();
 
-        final Iterator<?> iterator = map.keySet().iterator();
+        boolean first = true;
 
-        while (iterator.hasNext()) {
-            final Object key = iterator.next();
-            final Object value = map.get(key);
+        for (final Map.Entry<?, ?> entry : map.entrySet()) {
+            final Object key = entry.getKey();
+            final Object value = entry.getValue();
 
             // Check if the value should be ignored
-            if (value != null && ignoredObjects.contains(value)) {
+            if (value != null && context.isIgnored(value)) {
                 continue;
             }
 
+            if (!first) {
+                context.write(',');
+                writeLineFeed(context);
+            }
+            first = false;
+
             // Add the field name
-            writeIndentation(writer);
-            writer.write("\"" + key + "\"");
-            writeSpace(writer);
-            writer.write(':');
-            writeSpace(writer);
+            writeIndentation(context);
+            context.write('"');
+            Escaper.json().escape(String.valueOf(key), context);
+            context.write('"');
+            writeSpace(context);
+            context.write(':');
+            writeSpace(context);
 
             // Add the field value
-            write(value, writer);
+            write(value, context);
+        }
 
-            if (iterator.hasNext()) {
-                writer.append(',');
-            }
-            writeLineFeed(writer);
+        if (!first) {
+            writeLineFeed(context);
         }
 
         // Close the object
-        decreaseIndentation();
-        writeIndentation(writer);
-        writer.append('}');
+        context.decreaseIndentation();
+        writeIndentation(context);
+        context.write('}');
 
-        return writer;
+        return context;
+    }
+
+    @Override
+    protected void openArrayElement(final int index, final Class<?> type, final WriteContext context) throws IOException {
+        if (index > 0) {
+            context.write(',');
+            writeLineFeed(context);
+        }
+        writeIndentation(context);
+    }
+
+    @Override
+    protected WriteContext writeChar(final char value, final WriteContext context) throws IOException {
+        context.write('"');
+        Escaper.json().escape(value, context);
+        context.write('"');
+        return context;
     }
 
     @Override
-    protected Writer writeLineFeed(Writer writer) throws IOException {
-        return compressOutput ? writer : super.writeLineFeed(writer);
+    protected WriteContext writeDate(final char[] chars, final int length, final WriteContext context) throws IOException {
+        context.write('"');
+        context.write(chars, 0, length);
+        context.write('"');
+        return context;
     }
 
     @Override
-    public Writer write(final Object object, final Writer writer) throws IOException, IllegalArgumentException, IllegalAccessException {
+    protected WriteContext writeLineFeed(final WriteContext context) throws IOException {
+        return context.getConfig().isCompressOutput() ? context : super.writeLineFeed(context);
+    }
+
+    @Override
+    protected WriteContext write(final Object object, final WriteContext context) throws IOException {
         if (object == null) {
-            writer.append("null");
+            context.write(NULL);
 
         } else {
             final Class<?> cls = object.getClass();
 
             if (Date.class.isAssignableFrom(cls)) {
-                SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-                writer.append('"');
-                writer.append(escapeValue(df.format(object)));
-                writer.append('"');
+                writeDate((Date) object, context);
 
-            } else if (cls.equals(String.class) || cls.isEnum() || cls.equals(Character.class) || cls.equals(Character.TYPE)) {
+            } else if (cls.isEnum()) {
+                writeEnum((Enum<?>) object, context);
+
+            } else if (cls.equals(String.class) || cls.equals(Character.class) || cls.equals(Character.TYPE)) {
                 // Escape quotes when the object is a string
-                writer.write("\"" + escapeValue(String.valueOf(object)) + "\"");
+                writeString(String.valueOf(object), context);
+
+            } else if (cls.equals(Boolean.class) || Number.class.isInstance(object)) {
+                final FieldAccessor.Kind kind = FieldAccessor.getKind(cls);
 
-            } else if (cls.isPrimitive() || cls.equals(Boolean.class) || Number.class.isInstance(object)) {
-                writer.append(String.valueOf(object));
+                // Write the boxed primitives without creating a string
+                if (kind != FieldAccessor.Kind.OBJECT) {
+                    writeTypedValue(kind, object, context);
+                } else {
+                    context.append(String.valueOf(object));
+                }
 
             } else if (List.class.isInstance(object) || Set.class.isInstance(object)) {
-                write((Collection<?>) object, writer);
+                write((Collection<?>) object, context);
 
             } else if (Map.class.isInstance(object)) {
-                write((Map<?, ?>) object, writer);
+                write((Map<?, ?>) object, context);
+
+            } else if (cls.isArray() && !cls.getComponentType().isPrimitive()) {
+                write(Arrays.asList((Object[]) object), context);
 
             } else if (cls.isArray()) {
-                write(getCollectionFromObject(object), writer);
+                // Open the array
+                context.write('[');
+                writeLineFeed(context);
+                context.increaseIndentation();
+
+                // Add the elements
+                writePrimitiveArray(object, context);
+
+                if (Array.getLength(object) > 0) {
+                    writeLineFeed(context);
+                }
+
+                // Close the array
+                context.decreaseIndentation();
+                writeIndentation(context);
+                context.write(']');
 
             } else {
                 // Ignore this class next time
-                ignoredObjects.add(object);
+                context.enter(object);
 
                 // Open the object
-                writer.append('{');
-                writeLineFeed(writer);
-                increaseIndentation();
+                context.write('{');
+                writeLineFeed(context);
+                context.increaseIndentation();
 
                 // Get the object fields
-                final Set<Field> fields = getFields(object.getClass());
-                final Iterator<Field> iterator = fields.iterator();
+                final FieldAccessor[] fields = context.getConfig().getDescriptor(cls).fields;
+                boolean first = true;
 
-                while (iterator.hasNext()) {
-                    final Field field = iterator.next();
-                    final Object value = field.get(object);
+                for (final FieldAccessor field : fields) {
+                    final Object value = field.isPrimitive() ? null : field.get(object);
+                    final boolean typed = field.isTyped();
 
                     // Check if the value should be ignored
-                    if (value != null && ignoredObjects.contains(value)) {
+                    if (value != null && !typed && context.isIgnored(value)) {
                         continue;
                     }
 
+                    if (!first) {
+                        context.write(',');
+                        writeLineFeed(context);
+                    }
+                    first = false;
+
                     // Add the field name
-                    writeIndentation(writer);
-                    writer.write("\"" + field.getName() + "\"");
-                    writeSpace(writer);
-                    writer.write(':');
-                    writeSpace(writer);
+                    writeIndentation(context);
+                    context.write(field.getTokens()[KEY_TOKEN]);
 
                     // Add the field value
-                    write(value, writer);
-
-                    if (iterator.hasNext()) {
-                        writer.append(',');
+                    if (field.isPrimitive()) {
+                        writePrimitive(field, object, context);
+                    } else if (typed && value != null) {
+                        writeTypedValue(field.getKind(), value, context);
+                    } else {
+                        write(value, context);
                     }
-                    writeLineFeed(writer);
                 }
-                ignoredObjects.remove(object);
+
+                if (!first) {
+                    writeLineFeed(context);
+                }
+                context.exit(object);
 
                 // Close the object
-                decreaseIndentation();
-                writeIndentation(writer);
-                writer.append('}');
+                context.decreaseIndentation();
+                writeIndentation(context);
+                context.write('}');
             }
         }
-        return writer;
+        return context;
+    }
+
+    @Override
+    protected WriteContext writeString(final String value, final WriteContext context) throws IOException {
+        context.write('"');
+        Escaper.json().escape(value, context);
+        context.write('"');
+        return context;
+    }
+
+    @Override
+    protected WriteContext writeNull(final WriteContext context) throws IOException {
+        context.write(NULL);
+        return context;
     }
 
     @Override
-    protected Writer writeSpace(Writer writer) throws IOException {
-        return compressOutput ? writer : super.writeSpace(writer);
+    protected WriteContext writeSpace(final WriteContext context) throws IOException {
+        return context.getConfig().isCompressOutput() ? context : super.writeSpace(context);
     }
 }
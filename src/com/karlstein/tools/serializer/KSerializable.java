@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.lang.annotation.*;
+
+/**
+ * This annotation marks a class whose field accessors are generated at compile time
+ * by the {@link KSerializableProcessor}, the serializers use them to read and write the non-private field values.
+ * The fields are still found by reflection when the class descriptor is built.
+ * The include, exclude and attributes rules are applied like the ones
+ * defined with {@link KSerializer#includeField}, {@link KSerializer#excludeField}
+ * and {@link XmlSerializer#asAttribute}.
+ *
+ * @author Karl STEIN
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface KSerializable {
+
+    /**
+     * Returns the fields written as XML attributes
+     *
+     * @return String[]
+     */
+    String[] attributes() default {};
+
+    /**
+     * Returns the excluded fields
+     *
+     * @return String[]
+     */
+    String[] exclude() default {};
+
+    /**
+     * Returns the included fields, all fields are included if empty
+     *
+     * @return String[]
+     */
+    String[] include() default {};
+}
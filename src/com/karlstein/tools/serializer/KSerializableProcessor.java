@@ -0,0 +1,315 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class generates the field accessors of the classes annotated with {@link KSerializable}.
+ * Private fields are skipped, the serializers read them by reflection.
+ *
+ * @author Karl STEIN
+ */
+@SupportedAnnotationTypes("com.karlstein.tools.serializer.KSerializable")
+public class KSerializableProcessor extends AbstractProcessor {
+
+    /**
+     * The primitive kinds and the name of their accessor
+     */
+    private static final TypeKind[] PRIMITIVE_KINDS = {
+            TypeKind.BOOLEAN, TypeKind.BYTE, TypeKind.CHAR, TypeKind.DOUBLE,
+            TypeKind.FLOAT, TypeKind.INT, TypeKind.LONG, TypeKind.SHORT
+    };
+
+    /**
+     * Returns the accessor suffix of the primitive kind
+     *
+     * @param kind the primitive kind
+     * @return String
+     */
+    private static String getAccessorName(final TypeKind kind) {
+        final String name = kind.name().toLowerCase();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Returns the boxed type of the primitive kind
+     *
+     * @param kind the primitive kind
+     * @return String
+     */
+    private static String getBoxedName(final TypeKind kind) {
+        switch (kind) {
+            case CHAR:
+                return "Character";
+            case INT:
+                return "Integer";
+            default:
+                return getAccessorName(kind);
+        }
+    }
+
+    /**
+     * Returns the fields that can be accessed by the generated code
+     *
+     * @param type the annotated class
+     * @return List
+     */
+    private List<VariableElement> getFields(final TypeElement type) {
+        final KSerializable annotation = type.getAnnotation(KSerializable.class);
+        final List<VariableElement> fields = new ArrayList<VariableElement>();
+
+        for (final VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            final Set<Modifier> modifiers = field.getModifiers();
+
+            if (!modifiers.contains(Modifier.STATIC)
+                    && !modifiers.contains(Modifier.PRIVATE)
+                    && KSerializer.isAnnotatedField(annotation, field.getSimpleName().toString())) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * Checks if the generated code can create instances of the class
+     *
+     * @param type the annotated class
+     * @return boolean
+     */
+    private boolean isInstantiable(final TypeElement type) {
+        final Set<Modifier> modifiers = type.getModifiers();
+
+        if (modifiers.contains(Modifier.ABSTRACT)
+                || (type.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC))) {
+            return false;
+        }
+        for (final ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty()) {
+                return !constructor.getModifiers().contains(Modifier.PRIVATE);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the class can be referenced from its package
+     *
+     * @param element the class
+     * @return boolean
+     */
+    private boolean isVisible(final Element element) {
+        Element current = element;
+
+        while (current != null && (current.getKind().isClass() || current.getKind().isInterface())) {
+            if (current.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            current = current.getEnclosingElement();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        for (final Element element : roundEnv.getElementsAnnotatedWith(KSerializable.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "@KSerializable can only be used on classes", element);
+
+            } else if (!isVisible(element)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "@KSerializable is ignored on private classes", element);
+
+            } else {
+                try {
+                    writeAccessors((TypeElement) element);
+                } catch (final IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Cannot generate accessors: " + e.getMessage(), element);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the accessors class of the annotated class
+     *
+     * @param type the annotated class
+     * @throws IOException
+     */
+    private void writeAccessors(final TypeElement type) throws IOException {
+        final String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        final String generatedName = GeneratedAccessors.getGeneratedName(packageName.isEmpty()
+                ? binaryName : binaryName.substring(packageName.length() + 1));
+        final String className = type.getQualifiedName().toString();
+        final List<VariableElement> fields = getFields(type);
+
+        final Writer writer = processingEnv.getFiler().createSourceFile(packageName.isEmpty()
+                ? generatedName : packageName + "." + generatedName, type).openWriter();
+
+        try {
+            if (!packageName.isEmpty()) {
+                writer.write("package " + packageName + ";\n\n");
+            }
+            writer.write("/**\n * Field accessors of {@link " + className + "}, generated by "
+                    + KSerializableProcessor.class.getSimpleName() + "\n */\n");
+            writer.write("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+            writer.write("public final class " + generatedName + " extends " + GeneratedAccessors.class.getName() + " {\n");
+
+            // Write the field indexes
+            writer.write("\n    @Override\n    public int indexOf(final String name) {\n        switch (name) {\n");
+            for (int i = 0; i < fields.size(); i++) {
+                writer.write("            case \"" + fields.get(i).getSimpleName() + "\":\n                return " + i + ";\n");
+            }
+            writer.write("            default:\n                return -1;\n        }\n    }\n");
+
+            // Write the boxed getter
+            writeGetter(writer, className, fields, "Object", "get", null);
+
+            // Write the primitive getters
+            for (final TypeKind kind : PRIMITIVE_KINDS) {
+                writeGetter(writer, className, fields, kind.name().toLowerCase(), "get" + getAccessorName(kind), kind);
+            }
+
+            // Write the writable fields
+            final StringBuilder writable = new StringBuilder();
+
+            for (int i = 0; i < fields.size(); i++) {
+                if (!fields.get(i).getModifiers().contains(Modifier.FINAL)) {
+                    writable.append("            case ").append(i).append(":\n");
+                }
+            }
+            if (writable.length() > 0) {
+                writer.write("\n    @Override\n    public boolean canSet(final int index) {\n        switch (index) {\n");
+                writer.write(writable.toString());
+                writer.write("                return true;\n            default:\n                return false;\n        }\n    }\n");
+            }
+
+            // Write the boxed setter
+            writeSetter(writer, className, fields, "Object", "set", null);
+
+            // Write the primitive setters
+            for (final TypeKind kind : PRIMITIVE_KINDS) {
+                writeSetter(writer, className, fields, kind.name().toLowerCase(), "set" + getAccessorName(kind), kind);
+            }
+
+            // Write the factory
+            if (isInstantiable(type)) {
+                writer.write("\n    @Override\n    public Object newInstance() {\n        return new " + className + "();\n    }\n");
+            }
+            writer.write("}\n");
+
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes a getter returning the fields of the given kind
+     *
+     * @param writer     the writer
+     * @param className  the annotated class name
+     * @param fields     the fields
+     * @param returnType the getter return type
+     * @param methodName the getter name
+     * @param kind       the primitive kind or null for all fields
+     * @throws IOException
+     */
+    private void writeGetter(final Writer writer, final String className, final List<VariableElement> fields,
+                             final String returnType, final String methodName, final TypeKind kind) throws IOException {
+        final StringBuilder cases = new StringBuilder();
+
+        for (int i = 0; i < fields.size(); i++) {
+            final VariableElement field = fields.get(i);
+
+            if (kind == null || field.asType().getKind() == kind) {
+                cases.append("            case ").append(i).append(":\n                return ((")
+                        .append(className).append(") object).").append(field.getSimpleName()).append(";\n");
+            }
+        }
+
+        // Keep the default implementation if there is no such field
+        if (cases.length() > 0) {
+            writer.write("\n    @Override\n    public " + returnType + " " + methodName + "(final Object object, final int index) {\n");
+            writer.write("        switch (index) {\n");
+            writer.write(cases.toString());
+            writer.write("            default:\n                throw new IllegalArgumentException(\"No field at index \" + index);\n");
+            writer.write("        }\n    }\n");
+        }
+    }
+
+    /**
+     * Writes a setter of the writable fields of the given kind, final fields are skipped
+     *
+     * @param writer     the writer
+     * @param className  the annotated class name
+     * @param fields     the fields
+     * @param valueType  the setter value type
+     * @param methodName the setter name
+     * @param kind       the primitive kind or null for all fields, primitives being unboxed
+     * @throws IOException
+     */
+    private void writeSetter(final Writer writer, final String className, final List<VariableElement> fields,
+                             final String valueType, final String methodName, final TypeKind kind) throws IOException {
+        final StringBuilder cases = new StringBuilder();
+
+        for (int i = 0; i < fields.size(); i++) {
+            final VariableElement field = fields.get(i);
+            final TypeKind fieldKind = field.asType().getKind();
+
+            if (!field.getModifiers().contains(Modifier.FINAL) && (kind == null || fieldKind == kind)) {
+                cases.append("            case ").append(i).append(":\n                ((")
+                        .append(className).append(") object).").append(field.getSimpleName()).append(" = ");
+
+                if (kind == null) {
+                    cases.append('(').append(fieldKind.isPrimitive() ? getBoxedName(fieldKind)
+                            : processingEnv.getTypeUtils().erasure(field.asType()).toString()).append(") ");
+                }
+                cases.append("value;\n                return true;\n");
+            }
+        }
+
+        // Keep the default implementation if there is no such field
+        if (cases.length() > 0) {
+            writer.write("\n    @Override\n    public boolean " + methodName + "(final Object object, final int index, final "
+                    + valueType + " value) {\n");
+            writer.write("        switch (index) {\n");
+            writer.write(cases.toString());
+            writer.write("            default:\n                return false;\n        }\n    }\n");
+        }
+    }
+}
@@ -16,13 +16,21 @@
 
 package com.karlstein.tools.serializer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.lang.reflect.*;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * This class is used to read and write objects to text format
@@ -31,41 +39,67 @@ import java.util.*;
  */
 public abstract class KSerializer {
 
-    protected Set<Class<?>> ignoredClasses = new HashSet<Class<?>>();
-    protected Set<Object> ignoredObjects = new HashSet<Object>();
+    /**
+     * The format of dates written by the default {@link DateCodec}
+     */
+    public static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+    /**
+     * The default number of elements from which a collection is written in parallel
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+    /**
+     * The minimal number of elements written by a parallel task
+     */
+    private static final int MIN_CHUNK_SIZE = 256;
+    /**
+     * The false token
+     */
+    protected static final EncodedText FALSE = new EncodedText("false");
+    /**
+     * The true token
+     */
+    protected static final EncodedText TRUE = new EncodedText("true");
 
     /**
-     * The excluded fields
+     * The configuration used by the next calls and its class descriptors (null when the configuration changed)
      */
-    protected final Map<Class<?>, Set<String>> excludedFields = new HashMap<Class<?>, Set<String>>();
+    private volatile WriteConfig config;
     /**
-     * The excluded types
+     * The rules used to select the fields (replaced when changed)
      */
-    protected final Map<Class<?>, Set<Class<?>>> excludedTypes = new HashMap<Class<?>, Set<Class<?>>>();
+    private volatile FieldRules fieldRules = new FieldRules();
     /**
      * The compress output option
      */
-    protected boolean compressOutput = false;
+    protected volatile boolean compressOutput = false;
     /**
-     * The included fields
+     * The cycle detection option
      */
-    protected final Map<Class<?>, Set<String>> includeFields = new HashMap<Class<?>, Set<String>>();
+    protected volatile boolean cycleDetection = true;
     /**
-     * The included types
+     * The codec used to write and read dates
      */
-    protected final Map<Class<?>, Set<Class<?>>> includedTypes = new HashMap<Class<?>, Set<Class<?>>>();
+    protected volatile DateCodec dateCodec = new DateCodec(DateCodec.Mode.OFFSET_DATE_TIME);
     /**
      * The indentation character
      */
-    protected String indentationCharacter = "  ";
+    protected volatile String indentationCharacter = "  ";
     /**
-     * The indentation level
+     * The line separator
      */
-    protected int indentationLevel = 0;
+    protected volatile String lineSeparator = System.getProperty("line.separator");
     /**
-     * The line separator
+     * The codec used to write doubles and floats
+     */
+    protected volatile NumberCodec numberCodec = NumberCodec.DEFAULT;
+    /**
+     * The pool writing large collections in parallel, null to write them on the calling thread
+     */
+    protected volatile ForkJoinPool parallelPool;
+    /**
+     * The number of elements from which a collection is written in parallel
      */
-    protected String lineSeparator = System.getProperty("line.separator");
+    protected volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
 
     /**
      * Default constructor
@@ -94,128 +128,91 @@ public abstract class KSerializer {
     }
 
     /**
-     * Decreases the indentation level
-     */
-    protected final void decreaseIndentation() {
-        indentationLevel--;
-    }
-
-    /**
-     * Adds the field to the exclusion list
+     * Creates an empty collection of the given type, interfaces are replaced by a default implementation
      *
-     * @param field
-     * @param cls
+     * @param cls the collection type
+     * @return Collection
      */
-    public final void excludeField(final String field, final Class<?> cls) {
-        if (!excludedFields.containsKey(cls)) {
-            excludedFields.put(cls, new HashSet<String>());
+    @SuppressWarnings("unchecked")
+    protected static Collection<Object> createCollection(final Class<?> cls) {
+        if (!cls.isInterface() && !Modifier.isAbstract(cls.getModifiers())) {
+            return (Collection<Object>) newInstance(cls);
+        } else if (SortedSet.class.isAssignableFrom(cls)) {
+            return new TreeSet<Object>();
+        } else if (Set.class.isAssignableFrom(cls)) {
+            return new LinkedHashSet<Object>();
+        } else if (Queue.class.isAssignableFrom(cls)) {
+            return new ArrayDeque<Object>();
         }
-        excludedFields.get(cls).add(field);
+        return new ArrayList<Object>();
     }
 
     /**
-     * Adds the type to the exclusion list
+     * Creates an empty map of the given type, interfaces are replaced by a default implementation
      *
-     * @param type
-     * @param cls
+     * @param cls the map type
+     * @return Map
      */
-    public final void excludeType(final Class<?> type, final Class<?> cls) {
-        if (!excludedTypes.containsKey(cls)) {
-            excludedTypes.put(cls, new HashSet<Class<?>>());
+    @SuppressWarnings("unchecked")
+    protected static Map<Object, Object> createMap(final Class<?> cls) {
+        if (!cls.isInterface() && !Modifier.isAbstract(cls.getModifiers())) {
+            return (Map<Object, Object>) newInstance(cls);
+        } else if (SortedMap.class.isAssignableFrom(cls)) {
+            return new TreeMap<Object, Object>();
         }
-        excludedTypes.get(cls).add(type);
+        return new LinkedHashMap<Object, Object>();
     }
 
     /**
-     * Converts the array to a collection
+     * Creates the configuration of the next calls from the current options
      *
-     * @param object
-     * @return Collection
+     * @return WriteConfig
      */
-    protected Collection<?> getCollectionFromObject(final Object object) {
-        final Class<?> cls = object.getClass();
-        final Collection<Object> list = new ArrayList<Object>();
-
-        if (cls.getSimpleName().equals("boolean[]")) {
-            final boolean[] array = (boolean[]) object;
-            for (final Object element : array) {
-                list.add(element);
-            }
-        } else if (cls.getSimpleName().equals("byte[]")) {
-            final byte[] array = (byte[]) object;
-            for (final Object element : array) {
-                list.add(element);
-            }
-        } else if (cls.getSimpleName().equals("char[]")) {
-            final char[] array = (char[]) object;
-            for (final Object element : array) {
-                list.add(element);
-            }
-        } else if (cls.getSimpleName().equals("double[]")) {
-            final double[] array = (double[]) object;
-            for (final Object element : array) {
-                list.add(element);
-            }
-        } else if (cls.getSimpleName().equals("float[]")) {
-            final float[] array = (float[]) object;
-            for (final Object element : array) {
-                list.add(element);
-            }
-        } else if (cls.getSimpleName().equals("int[]")) {
-            final int[] array = (int[]) object;
-            for (final Object element : array) {
-                list.add(element);
-            }
-        } else if (cls.getSimpleName().equals("long[]")) {
-            final long[] array = (long[]) object;
-            for (final Object element : array) {
-                list.add(element);
-            }
-        } else if (cls.getSimpleName().equals("short[]")) {
-            final short[] array = (short[]) object;
-            for (final Object element : array) {
-                list.add(element);
-            }
-        } else {
-            final Object[] array = (Object[]) object;
-            for (final Object element : array) {
-                list.add(element);
-            }
-        }
-        return list;
+    protected WriteConfig createConfig() {
+        return new WriteConfig(this);
     }
 
     /**
-     * Returns the excluded fields
+     * Creates the descriptor of the class, it must only depend on the given configuration
      *
-     * @return Map
+     * @param cls    the class to describe
+     * @param config the configuration
+     * @return ClassDescriptor
+     * @throws SecurityException
      */
-    public final Map<Class<?>, Set<String>> getExcludedFields() {
-        return excludedFields;
-    }
+    protected ClassDescriptor createDescriptor(final Class<?> cls, final WriteConfig config) throws SecurityException {
+        final List<Field> fields = new ArrayList<Field>();
+        final Set<Field> attributes = new HashSet<Field>();
 
-    /**
-     * Returns the excluded types
-     *
-     * @return Map
-     */
-    public Map<Class<?>, Set<Class<?>>> getExcludedTypes() {
-        return excludedTypes;
+        collectFields(cls, config.getFieldRules(), fields);
+
+        for (final Field field : fields) {
+            if (isAttribute(cls, field, config)) {
+                attributes.add(field);
+            }
+        }
+        return new ClassDescriptor(cls, fields, attributes);
     }
 
     /**
-     * Returns the object fields that can be converted
+     * Collects the fields of the class and its parents that can be converted
      *
-     * @param cls
-     * @return Set
+     * @param cls    the class to parse
+     * @param rules  the rules used to select the fields
+     * @param fields the list to fill
      * @throws SecurityException
      */
-    protected final Set<Field> getFields(final Class<?> cls) throws SecurityException {
-        final Set<Field> fields = new HashSet<Field>();
+    private void collectFields(final Class<?> cls, final FieldRules rules, final List<Field> fields) throws SecurityException {
         final Class<?> parent = cls.getSuperclass();
         final Field[] declaredFields = cls.getDeclaredFields();
+        final Set<Class<?>> ignoredClasses = rules.getIgnoredClasses();
 
         if (!ignoredClasses.contains(cls)) {
+            final Set<String> included = rules.getIncludedFields().get(cls);
+            final Set<String> excluded = rules.getExcludedFields().get(cls);
+            final Set<Class<?>> excludedClasses = rules.getExcludedTypes().get(cls);
+            final KSerializable annotation = cls.getAnnotation(KSerializable.class);
+
             for (final Field field : declaredFields) {
                 final Class<?> type = field.getType();
 
@@ -225,18 +222,22 @@ public abstract class KSerializer {
                 }
 
                 // Check if the field is included
-                if (includeFields.containsKey(cls) && (includeFields.get(cls).isEmpty()
-                        || !includeFields.get(cls).contains(field.getName()))) {
+                if (included != null && (included.isEmpty() || !included.contains(field.getName()))) {
+                    continue;
+                }
+
+                // Check if the field is filtered by the annotation
+                if (annotation != null && !isAnnotatedField(annotation, field.getName())) {
                     continue;
                 }
 
                 // Check if the field class is excluded
-                if (excludedTypes.containsKey(cls) && excludedTypes.get(cls).contains(type)) {
+                if (excludedClasses != null && excludedClasses.contains(type)) {
                     continue;
                 }
 
                 // Check if the field is excluded
-                if (excludedFields.containsKey(cls) && excludedFields.get(cls).contains(field.getName())) {
+                if (excluded != null && excluded.contains(field.getName())) {
                     continue;
                 }
 
@@ -251,28 +252,199 @@ public abstract class KSerializer {
 
         // Get inherited fields
         if (parent != null && !parent.equals(Object.class)) {
-            fields.addAll(getFields(parent));
+            collectFields(parent, rules, fields);
+        }
+    }
+
+    /**
+     * Adds the field to the exclusion list
+     *
+     * @param field
+     * @param cls
+     */
+    public final synchronized void excludeField(final String field, final Class<?> cls) {
+        fieldRules = fieldRules.withExcludedField(field, cls);
+        invalidateConfig();
+    }
+
+    /**
+     * Adds the type to the exclusion list
+     *
+     * @param type
+     * @param cls
+     */
+    public final synchronized void excludeType(final Class<?> type, final Class<?> cls) {
+        fieldRules = fieldRules.withExcludedType(type, cls);
+        invalidateConfig();
+    }
+
+    /**
+     * Converts the array to a collection
+     *
+     * @param object
+     * @return Collection
+     */
+    protected Collection<?> getCollectionFromObject(final Object object) {
+        final Class<?> type = object.getClass().getComponentType();
+
+        if (!type.isPrimitive()) {
+            return Arrays.asList((Object[]) object);
+        }
+        final int length = Array.getLength(object);
+        final Collection<Object> list = new ArrayList<Object>(length);
+
+        for (int i = 0; i < length; i++) {
+            list.add(Array.get(object, i));
+        }
+        return list;
+    }
+
+    /**
+     * Returns the excluded fields, the map cannot be modified since the rules are shared between threads,
+     * use {@link #excludeField} to add a rule
+     *
+     * @return Map
+     */
+    public final Map<Class<?>, Set<String>> getExcludedFields() {
+        return fieldRules.getExcludedFields();
+    }
+
+    /**
+     * Returns the excluded types, the map cannot be modified since the rules are shared between threads,
+     * use {@link #excludeType} to add a rule
+     *
+     * @return Map
+     */
+    public Map<Class<?>, Set<Class<?>>> getExcludedTypes() {
+        return fieldRules.getExcludedTypes();
+    }
+
+    /**
+     * Returns the descriptor of the class
+     *
+     * @param cls the class to describe
+     * @return ClassDescriptor
+     * @throws SecurityException
+     */
+    protected final ClassDescriptor getDescriptor(final Class<?> cls) throws SecurityException {
+        return getConfig().getDescriptor(cls);
+    }
+
+    /**
+     * Returns the configuration used by the next calls, it is created once per change
+     *
+     * @return WriteConfig
+     */
+    protected final WriteConfig getConfig() {
+        final WriteConfig current = config;
+
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (config == null) {
+                config = createConfig();
+            }
+            return config;
         }
+    }
+
+    /**
+     * Returns the object fields that can be converted
+     *
+     * @param cls
+     * @return Set
+     * @throws SecurityException
+     */
+    protected final Set<Field> getFields(final Class<?> cls) throws SecurityException {
+        return getDescriptor(cls).getFieldSet();
+    }
 
-        return fields;
+    /**
+     * Returns the rules used to select the fields
+     *
+     * @return FieldRules
+     */
+    public final FieldRules getFieldRules() {
+        return fieldRules;
     }
 
     /**
-     * Returns the included fields
+     * Returns the included fields, the map cannot be modified since the rules are shared between threads,
+     * use {@link #includeField} to add a rule
      *
      * @return Map
      */
     public final Map<Class<?>, Set<String>> getIncludeFields() {
-        return includeFields;
+        return fieldRules.getIncludedFields();
     }
 
     /**
-     * Returns the included types
+     * Returns the included types, the map cannot be modified since the rules are shared between threads,
+     * use {@link #includeType} to add a rule
      *
      * @return Map
      */
     public Map<Class<?>, Set<Class<?>>> getIncludedTypes() {
-        return includedTypes;
+        return fieldRules.getIncludedTypes();
+    }
+
+    /**
+     * Returns the class of a generic type
+     *
+     * @param type the type
+     * @return Class
+     */
+    protected static Class<?> getRawType(final Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        } else if (type instanceof GenericArrayType) {
+            return Array.newInstance(getRawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        } else if (type instanceof WildcardType) {
+            return getRawType(((WildcardType) type).getUpperBounds()[0]);
+        } else if (type instanceof TypeVariable) {
+            return getRawType(((TypeVariable<?>) type).getBounds()[0]);
+        }
+        return Object.class;
+    }
+
+    /**
+     * Returns a type argument of a generic type
+     *
+     * @param type  the type
+     * @param index the argument index
+     * @return Type or Object.class if the type has no arguments
+     */
+    protected static Type getTypeArgument(final Type type, final int index) {
+        if (type instanceof ParameterizedType) {
+            final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * Returns the codec used to write and read dates
+     *
+     * @return DateCodec
+     */
+    public DateCodec getDateCodec() {
+        return dateCodec;
+    }
+
+    /**
+     * Returns the indentation string of the level, the strings are built once per level
+     *
+     * @param level the indentation level
+     * @return EncodedText
+     */
+    protected final EncodedText getIndentation(final int level) {
+        return getConfig().getIndentation(level);
     }
 
     /**
@@ -285,12 +457,30 @@ public abstract class KSerializer {
     }
 
     /**
-     * Returns the indentation level
+     * Returns the codec used to write doubles and floats
      *
-     * @return String
+     * @return NumberCodec
+     */
+    public NumberCodec getNumberCodec() {
+        return numberCodec;
+    }
+
+    /**
+     * Returns the pool writing large collections in parallel
+     *
+     * @return ForkJoinPool or null if collections are written on the calling thread
      */
-    protected final int getIndentationLevel() {
-        return indentationLevel;
+    public ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    /**
+     * Returns the number of elements from which a collection is written in parallel
+     *
+     * @return int
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
     }
 
     /**
@@ -302,17 +492,25 @@ public abstract class KSerializer {
         return lineSeparator;
     }
 
+    /**
+     * Ignores the class and the fields of this type
+     *
+     * @param cls the class to ignore
+     */
+    protected final synchronized void ignoreClass(final Class<?> cls) {
+        fieldRules = fieldRules.withIgnoredClass(cls);
+        invalidateConfig();
+    }
+
     /**
      * Adds the field to the inclusion list
      *
      * @param field
      * @param cls
      */
-    public final void includeField(final String field, final Class<?> cls) {
-        if (!includeFields.containsKey(cls)) {
-            includeFields.put(cls, new HashSet<String>());
-        }
-        includeFields.get(cls).add(field);
+    public final synchronized void includeField(final String field, final Class<?> cls) {
+        fieldRules = fieldRules.withIncludedField(field, cls);
+        invalidateConfig();
     }
 
     /**
@@ -321,18 +519,45 @@ public abstract class KSerializer {
      * @param type
      * @param cls
      */
-    public final void includeType(final Class<?> type, final Class<?> cls) {
-        if (!includedTypes.containsKey(cls)) {
-            includedTypes.put(cls, new HashSet<Class<?>>());
+    public final synchronized void includeType(final Class<?> type, final Class<?> cls) {
+        fieldRules = fieldRules.withIncludedType(type, cls);
+        invalidateConfig();
+    }
+
+    /**
+     * Discards the configuration and its class descriptors, they will be created again on next use.
+     * It must be called while holding the lock of the serializer, after changing an option.
+     */
+    protected final void invalidateConfig() {
+        config = null;
+    }
+
+    /**
+     * Checks if the field is kept by the rules of the annotation
+     *
+     * @param annotation the annotation of the class
+     * @param field      the field name
+     * @return boolean
+     */
+    static boolean isAnnotatedField(final KSerializable annotation, final String field) {
+        final String[] included = annotation.include();
+
+        if (included.length > 0 && !Arrays.asList(included).contains(field)) {
+            return false;
         }
-        includedTypes.get(cls).add(type);
+        return !Arrays.asList(annotation.exclude()).contains(field);
     }
 
     /**
-     * Increases the indentation level
+     * Checks if the field should be written as an attribute
+     *
+     * @param cls    the class of the object
+     * @param field  the field
+     * @param config the configuration
+     * @return boolean
      */
-    protected final void increaseIndentation() {
-        indentationLevel++;
+    protected boolean isAttribute(final Class<?> cls, final Field field, final WriteConfig config) {
+        return false;
     }
 
     /**
@@ -344,6 +569,91 @@ public abstract class KSerializer {
         return compressOutput;
     }
 
+    /**
+     * Returns the cycle detection option
+     *
+     * @return boolean
+     */
+    public boolean isCycleDetection() {
+        return cycleDetection;
+    }
+
+    /**
+     * Parses a date written by {@link #writeDate(Date, WriteContext)}
+     *
+     * @param value the date string
+     * @return Date
+     * @throws IllegalArgumentException if the date is not valid
+     */
+    protected Date parseDate(final String value) {
+        return new Date(dateCodec.parse(value));
+    }
+
+    /**
+     * Creates an instance of the class using its public default constructor
+     *
+     * @param cls the class
+     * @return Object
+     */
+    private static Object newInstance(final Class<?> cls) {
+        try {
+            return cls.getConstructor().newInstance();
+        } catch (final InvocationTargetException e) {
+            throw new IllegalArgumentException("Cannot create an instance of " + cls.getName(), e.getCause());
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create an instance of " + cls.getName(), e);
+        }
+    }
+
+    /**
+     * Parses a value of a known type from its string form
+     *
+     * @param value the string
+     * @param cls   the value type
+     * @return Object or the string if the type is not known
+     * @throws IllegalArgumentException if the value is not valid
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected Object parseValue(final String value, final Class<?> cls) {
+        switch (FieldAccessor.getKind(cls)) {
+            case BOOLEAN:
+                return Boolean.valueOf(value);
+            case BYTE:
+                return Byte.valueOf(value);
+            case CHAR:
+                if (value.length() != 1) {
+                    throw new IllegalArgumentException("Invalid char " + value);
+                }
+                return value.charAt(0);
+            case SHORT:
+                return Short.valueOf(value);
+            case INT:
+                return Integer.valueOf(value);
+            case LONG:
+                return Long.valueOf(value);
+            case FLOAT:
+                return Float.valueOf(value);
+            case DOUBLE:
+                return Double.valueOf(value);
+            case ENUM:
+                return Enum.valueOf((Class<? extends Enum>) cls, value);
+            case DATE:
+                final Date date = parseDate(value);
+
+                if (cls.isInstance(date)) {
+                    return date;
+                }
+                // Subclasses like java.sql.Timestamp
+                try {
+                    return cls.getConstructor(Long.TYPE).newInstance(date.getTime());
+                } catch (final Exception e) {
+                    throw new IllegalArgumentException("Cannot create a date of type " + cls.getName(), e);
+                }
+            default:
+                return value;
+        }
+    }
+
     /**
      * Returns an object from the reader
      *
@@ -371,8 +681,35 @@ public abstract class KSerializer {
      *
      * @param compressOutput
      */
-    public void setCompressOutput(boolean compressOutput) {
+    public synchronized void setCompressOutput(boolean compressOutput) {
         this.compressOutput = compressOutput;
+
+        // Tokens depend on this option
+        invalidateConfig();
+    }
+
+    /**
+     * Sets the cycle detection option, when disabled the objects on the write path are not tracked
+     * so writing an object graph containing a cycle will never end
+     *
+     * @param cycleDetection
+     */
+    public synchronized void setCycleDetection(final boolean cycleDetection) {
+        this.cycleDetection = cycleDetection;
+        invalidateConfig();
+    }
+
+    /**
+     * Sets the codec used to write and read dates
+     *
+     * @param dateCodec the codec
+     */
+    public synchronized void setDateCodec(final DateCodec dateCodec) {
+        if (dateCodec == null) {
+            throw new IllegalArgumentException("The date codec is null");
+        }
+        this.dateCodec = dateCodec;
+        invalidateConfig();
     }
 
     /**
@@ -380,66 +717,882 @@ public abstract class KSerializer {
      *
      * @param indentationCharacter
      */
-    public final void setIndentationCharacter(final String indentationCharacter) {
+    public final synchronized void setIndentationCharacter(final String indentationCharacter) {
         this.indentationCharacter = indentationCharacter;
+        invalidateConfig();
     }
 
     /**
-     * Sets the line separator
+     * Sets the codec used to write doubles and floats
      *
-     * @param lineSeparator the line separator
+     * @param numberCodec the codec
      */
-    public void setLineSeparator(final String lineSeparator) {
-        this.lineSeparator = lineSeparator;
+    public synchronized void setNumberCodec(final NumberCodec numberCodec) {
+        if (numberCodec == null) {
+            throw new IllegalArgumentException("The number codec is null");
+        }
+        this.numberCodec = numberCodec;
+        invalidateConfig();
     }
 
     /**
-     * Converts the object to string and write it to the output
+     * Sets the pool writing large collections in parallel.
+     * Lists and arrays of at least {@link #getParallelThreshold()} elements are split in chunks
+     * written on the pool and copied to the output in their order, so the output is the same.
      *
-     * @param object
-     * @param writer
-     * @return Writer
-     * @throws IOException
+     * @param parallelPool the pool or null to write on the calling thread
      */
-    public abstract Writer write(Object object, Writer writer) throws IOException, IllegalArgumentException, IllegalAccessException;
+    public synchronized void setParallelPool(final ForkJoinPool parallelPool) {
+        this.parallelPool = parallelPool;
+        invalidateConfig();
+    }
 
     /**
-     * Writes the indentation character
+     * Sets the number of elements from which a collection is written in parallel
      *
-     * @param writer
-     * @return Writer
-     * @throws IOException
+     * @param parallelThreshold the number of elements
      */
-    protected Writer writeIndentation(final Writer writer) throws IOException {
-        if (!compressOutput) {
-            for (int i = 0; i < indentationLevel; i++) {
-                writer.write(indentationCharacter);
-            }
+    public synchronized void setParallelThreshold(final int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("The parallel threshold is less than 1");
         }
-        return writer;
+        this.parallelThreshold = parallelThreshold;
+        invalidateConfig();
     }
 
     /**
-     * Writes a new line character
+     * Sets the line separator
      *
-     * @param writer
-     * @return Writer
-     * @throws IOException
+     * @param lineSeparator the line separator
      */
-    protected Writer writeLineFeed(final Writer writer) throws IOException {
-        writer.write("\n");
-        return writer;
+    public synchronized void setLineSeparator(final String lineSeparator) {
+        this.lineSeparator = lineSeparator;
+        invalidateConfig();
     }
 
     /**
-     * Writes a single space character
+     * Converts a number read for a byte, checking its range
+     *
+     * @param value the number
+     * @return byte
+     * @throws IllegalArgumentException if the number is not a byte
+     */
+    protected static byte toByte(final long value) {
+        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("The number " + value + " is not a byte");
+        }
+        return (byte) value;
+    }
+
+    /**
+     * Converts a number read for a short, checking its range
+     *
+     * @param value the number
+     * @return short
+     * @throws IllegalArgumentException if the number is not a short
+     */
+    protected static short toShort(final long value) {
+        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The number " + value + " is not a short");
+        }
+        return (short) value;
+    }
+
+    /**
+     * Creates the context of a write call
+     *
+     * @param writer the writer
+     * @return WriteContext
+     */
+    protected WriteContext createContext(final Writer writer) {
+        return new WriteContext(writer, getConfig());
+    }
+
+    /**
+     * Creates the output of a write call to a byte stream
      *
+     * @param stream the output stream
+     * @return Output
+     * @throws IOException
+     */
+    protected Output createOutput(final OutputStream stream) throws IOException {
+        return new Utf8Output(stream);
+    }
+
+    /**
+     * Creates the output of a write call to a channel
+     *
+     * @param channel the channel
+     * @return Output
+     * @throws IOException
+     */
+    protected Output createOutput(final WritableByteChannel channel) throws IOException {
+        return new Utf8Output(channel);
+    }
+
+    /**
+     * Converts the object to string and write it to the output
+     *
+     * @param object
      * @param writer
      * @return Writer
      * @throws IOException
      */
-    protected Writer writeSpace(final Writer writer) throws IOException {
-        writer.write(" ");
+    public Writer write(final Object object, final Writer writer) throws IOException, IllegalArgumentException, IllegalAccessException {
+        write(object, createContext(writer));
         return writer;
     }
+
+    /**
+     * Converts the object and writes it to the stream, encoded in UTF-8
+     * without going through a writer
+     *
+     * @param object the object to write
+     * @param stream the output stream, it is not closed
+     * @return OutputStream
+     * @throws IOException
+     */
+    public OutputStream write(final Object object, final OutputStream stream) throws IOException {
+        final Output output = createOutput(stream);
+
+        try {
+            write(object, createContext(output));
+        } finally {
+            output.release();
+        }
+        return stream;
+    }
+
+    /**
+     * Converts the object and writes it to the channel, encoded in UTF-8
+     *
+     * @param object  the object to write
+     * @param channel the channel, it is not closed
+     * @return WritableByteChannel
+     * @throws IOException
+     */
+    public WritableByteChannel write(final Object object, final WritableByteChannel channel) throws IOException {
+        final Output output = createOutput(channel);
+
+        try {
+            write(object, createContext(output));
+        } finally {
+            output.release();
+        }
+        return channel;
+    }
+
+    /**
+     * Converts the object and hands it to the asynchronous output,
+     * the caller does not wait for the target unless the output queue is full
+     *
+     * @param object the object to write
+     * @param output the asynchronous output, it is not closed
+     * @return Future completed when the object is written to the target
+     * @throws IOException
+     */
+    public Future<Void> write(final Object object, final AsyncOutput output) throws IOException {
+        write(object, createContext(output));
+        return output.commit();
+    }
+
+    /**
+     * Converts each object to a string on the executor, the objects must not depend on each other
+     *
+     * @param objects  the objects to write
+     * @param executor the executor
+     * @return List of strings, in the order of the objects
+     * @throws IOException
+     */
+    public List<String> writeAll(final List<?> objects, final ExecutorService executor) throws IOException {
+        final List<Future<String>> futures = new ArrayList<Future<String>>(objects.size());
+
+        for (final Object object : objects) {
+            futures.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    final CharArrayOutput output = new CharArrayOutput(256);
+                    write(object, createContext(output));
+                    return output.toString();
+                }
+            }));
+        }
+        return getAll(futures);
+    }
+
+    /**
+     * Converts each object to UTF-8 bytes on the executor, the objects must not depend on each other
+     *
+     * @param objects  the objects to write
+     * @param executor the executor
+     * @return List of byte arrays, in the order of the objects
+     * @throws IOException
+     */
+    public List<byte[]> writeAllBytes(final List<?> objects, final ExecutorService executor) throws IOException {
+        final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(objects.size());
+
+        for (final Object object : objects) {
+            futures.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    final ByteArrayOutputStream stream = new ByteArrayOutputStream(256);
+                    write(object, stream);
+                    return stream.toByteArray();
+                }
+            }));
+        }
+        return getAll(futures);
+    }
+
+    /**
+     * Writes each object to the stream of the same index on the executor, encoded in UTF-8
+     *
+     * @param objects  the objects to write
+     * @param streams  the output streams, they are not closed
+     * @param executor the executor
+     * @throws IOException the first error, once all the objects are written
+     */
+    public void writeAll(final List<?> objects, final List<? extends OutputStream> streams, final ExecutorService executor) throws IOException {
+        if (objects.size() != streams.size()) {
+            throw new IllegalArgumentException("The number of objects and streams differ");
+        }
+        final List<Future<OutputStream>> futures = new ArrayList<Future<OutputStream>>(objects.size());
+
+        for (int i = 0; i < objects.size(); i++) {
+            final Object object = objects.get(i);
+            final OutputStream stream = streams.get(i);
+
+            futures.add(executor.submit(new Callable<OutputStream>() {
+                @Override
+                public OutputStream call() throws IOException {
+                    return write(object, stream);
+                }
+            }));
+        }
+        getAll(futures);
+    }
+
+    /**
+     * Converts the object to string and write it to the context
+     *
+     * @param object  the object to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected abstract WriteContext write(Object object, WriteContext context) throws IOException;
+
+    /**
+     * Checks if an element is skipped because it is an object on the write path
+     *
+     * @param element the element
+     * @param context the write context
+     * @return boolean
+     */
+    private static boolean isSkipped(final Object element, final WriteContext context) {
+        return element != null && context.isIgnored(element);
+    }
+
+    /**
+     * Writes an element of a collection, the elements on the write path are skipped before
+     *
+     * @param element the element
+     * @param index   the index of the element among the written elements
+     * @param context the write context
+     * @throws IOException
+     */
+    protected void writeElement(final Object element, final int index, final WriteContext context) throws IOException {
+        write(element, context);
+    }
+
+    /**
+     * Writes the elements of a collection with {@link #writeElement(Object, int, WriteContext)},
+     * large lists are written in parallel when a pool is set
+     *
+     * @param elements the elements
+     * @param context  the write context
+     * @return int the number of written elements
+     * @throws IOException
+     */
+    protected int writeElements(final Collection<?> elements, final WriteContext context) throws IOException {
+        final ForkJoinPool pool = context.getConfig().getParallelPool();
+        final int count = elements.size();
+
+        if (pool != null && count >= context.getConfig().getParallelThreshold() && elements instanceof List && elements instanceof RandomAccess) {
+            return writeParallel((List<?>) elements, pool, context);
+        }
+        int index = 0;
+
+        for (final Object element : elements) {
+            if (!isSkipped(element, context)) {
+                writeElement(element, index++, context);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Writes the elements of an iterator with {@link #writeElement(Object, int, WriteContext)}
+     * as they are produced, only the current element is held
+     *
+     * @param elements the elements
+     * @param context  the write context
+     * @return int the number of written elements
+     * @throws IOException
+     */
+    protected int writeElements(final Iterator<?> elements, final WriteContext context) throws IOException {
+        int index = 0;
+
+        while (elements.hasNext()) {
+            final Object element = elements.next();
+
+            if (!isSkipped(element, context)) {
+                writeElement(element, index++, context);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Writes the elements in chunks on the pool, the chunks are copied to the context in their order
+     *
+     * @param elements the elements
+     * @param pool     the pool
+     * @param context  the write context
+     * @return int the number of written elements
+     * @throws IOException
+     */
+    private int writeParallel(final List<?> elements, final ForkJoinPool pool, final WriteContext context) throws IOException {
+        final int count = elements.size();
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, count / (pool.getParallelism() * 4) + 1);
+        final int maxPending = pool.getParallelism() * 2;
+        final Deque<Future<CharArrayOutput>> pending = new ArrayDeque<Future<CharArrayOutput>>();
+        final Deque<CharArrayOutput> free = new ArrayDeque<CharArrayOutput>();
+        int written = 0;
+
+        try {
+            for (int from = 0; from < count; from += chunkSize) {
+                final int start = from;
+                final int end = Math.min(count, from + chunkSize);
+                final int first = written;
+
+                // Count the written elements so each chunk knows the index of its first one
+                for (int i = start; i < end; i++) {
+                    if (!isSkipped(elements.get(i), context)) {
+                        written++;
+                    }
+                }
+                final CharArrayOutput reused = free.poll();
+                final CharArrayOutput output = reused != null ? reused : new CharArrayOutput(chunkSize * 16);
+                final WriteContext chunkContext = context.fork(output);
+
+                pending.add(pool.submit(new Callable<CharArrayOutput>() {
+                    @Override
+                    public CharArrayOutput call() throws IOException {
+                        int index = first;
+
+                        for (int i = start; i < end; i++) {
+                            final Object element = elements.get(i);
+
+                            if (!isSkipped(element, chunkContext)) {
+                                writeElement(element, index++, chunkContext);
+                            }
+                        }
+                        return output;
+                    }
+                }));
+
+                if (pending.size() > maxPending) {
+                    free.add(writeChunk(pending, context));
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeChunk(pending, context);
+            }
+            return written;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing in parallel");
+        } catch (final ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            for (final Future<CharArrayOutput> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the results of the tasks, waiting for all of them
+     *
+     * @param futures the tasks
+     * @return List of results, in the order of the tasks
+     * @throws IOException the first error of the tasks
+     */
+    private static <T> List<T> getAll(final List<Future<T>> futures) throws IOException {
+        final List<T> results = new ArrayList<T>(futures.size());
+        ExecutionException error = null;
+
+        try {
+            for (final Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (final ExecutionException e) {
+                    error = error != null ? error : e;
+                    results.add(null);
+                }
+            }
+        } catch (final InterruptedException e) {
+            for (final Future<T> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing in parallel");
+        }
+        if (error != null) {
+            throw rethrow(error);
+        }
+        return results;
+    }
+
+    /**
+     * Throws the unchecked cause of a task error or returns it as an IOException
+     *
+     * @param e the task error
+     * @return IOException
+     */
+    private static IOException rethrow(final ExecutionException e) {
+        final Throwable cause = e.getCause();
+
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Copies the first pending chunk to the context once it is written
+     *
+     * @param pending the chunks being written, in their order
+     * @param context the write context
+     * @return CharArrayOutput the chunk, empty
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws IOException
+     */
+    private static CharArrayOutput writeChunk(final Deque<Future<CharArrayOutput>> pending, final WriteContext context)
+            throws InterruptedException, ExecutionException, IOException {
+        final CharArrayOutput output = pending.peek().get();
+        pending.poll();
+        output.writeTo(context);
+        output.reset();
+        return output;
+    }
+
+    /**
+     * Writes the start of an array element
+     *
+     * @param index   the element index
+     * @param type    the component type of the array
+     * @param context the write context
+     * @throws IOException
+     */
+    protected void openArrayElement(final int index, final Class<?> type, final WriteContext context) throws IOException {
+    }
+
+    /**
+     * Writes the end of an array element
+     *
+     * @param index   the element index
+     * @param type    the component type of the array
+     * @param context the write context
+     * @throws IOException
+     */
+    protected void closeArrayElement(final int index, final Class<?> type, final WriteContext context) throws IOException {
+    }
+
+    /**
+     * Writes the elements of a primitive array without boxing them,
+     * each element is surrounded by {@link #openArrayElement} and {@link #closeArrayElement}
+     *
+     * @param array   the primitive array
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writePrimitiveArray(final Object array, final WriteContext context) throws IOException {
+        final Class<?> type = array.getClass().getComponentType();
+
+        if (type == Boolean.TYPE) {
+            final boolean[] values = (boolean[]) array;
+            for (int i = 0; i < values.length; i++) {
+                openArrayElement(i, type, context);
+                writeBoolean(values[i], context);
+                closeArrayElement(i, type, context);
+            }
+        } else if (type == Byte.TYPE) {
+            final byte[] values = (byte[]) array;
+            for (int i = 0; i < values.length; i++) {
+                openArrayElement(i, type, context);
+                writeInt(values[i], context);
+                closeArrayElement(i, type, context);
+            }
+        } else if (type == Character.TYPE) {
+            final char[] values = (char[]) array;
+            for (int i = 0; i < values.length; i++) {
+                openArrayElement(i, type, context);
+                writeChar(values[i], context);
+                closeArrayElement(i, type, context);
+            }
+        } else if (type == Double.TYPE) {
+            final double[] values = (double[]) array;
+            for (int i = 0; i < values.length; i++) {
+                openArrayElement(i, type, context);
+                writeDouble(values[i], context);
+                closeArrayElement(i, type, context);
+            }
+        } else if (type == Float.TYPE) {
+            final float[] values = (float[]) array;
+            for (int i = 0; i < values.length; i++) {
+                openArrayElement(i, type, context);
+                writeFloat(values[i], context);
+                closeArrayElement(i, type, context);
+            }
+        } else if (type == Integer.TYPE) {
+            final int[] values = (int[]) array;
+            for (int i = 0; i < values.length; i++) {
+                openArrayElement(i, type, context);
+                writeInt(values[i], context);
+                closeArrayElement(i, type, context);
+            }
+        } else if (type == Long.TYPE) {
+            final long[] values = (long[]) array;
+            for (int i = 0; i < values.length; i++) {
+                openArrayElement(i, type, context);
+                writeLong(values[i], context);
+                closeArrayElement(i, type, context);
+            }
+        } else if (type == Short.TYPE) {
+            final short[] values = (short[]) array;
+            for (int i = 0; i < values.length; i++) {
+                openArrayElement(i, type, context);
+                writeInt(values[i], context);
+                closeArrayElement(i, type, context);
+            }
+        } else {
+            throw new IllegalArgumentException("The array " + array.getClass() + " is not a primitive array");
+        }
+        return context;
+    }
+
+    /**
+     * Writes a boolean value
+     *
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeBoolean(final boolean value, final WriteContext context) throws IOException {
+        context.write(value ? TRUE : FALSE);
+        return context;
+    }
+
+    /**
+     * Writes a char value
+     *
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeChar(final char value, final WriteContext context) throws IOException {
+        context.write(value);
+        return context;
+    }
+
+    /**
+     * Writes a date value
+     *
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeDate(final Date value, final WriteContext context) throws IOException {
+        final DateCodec codec = context.getConfig().getDateCodec();
+
+        if (codec.getMode() == DateCodec.Mode.EPOCH_MILLIS) {
+            return writeLong(value.getTime(), context);
+        }
+        final char[] buffer = context.getBuffer(DateCodec.MAX_LENGTH);
+        return writeDate(buffer, codec.format(value.getTime(), buffer, 0), context);
+    }
+
+    /**
+     * Writes a formatted date, its characters never need to be escaped
+     *
+     * @param chars   the characters of the date
+     * @param length  the number of characters
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeDate(final char[] chars, final int length, final WriteContext context) throws IOException {
+        context.write(chars, 0, length);
+        return context;
+    }
+
+    /**
+     * Writes a double value
+     *
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeDouble(final double value, final WriteContext context) throws IOException {
+        final NumberCodec codec = context.getConfig().getNumberCodec();
+
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return writeNonFinite(Double.toString(value), codec, context);
+        }
+        final char[] buffer = context.getBuffer(codec.getMaxLength());
+        context.write(buffer, 0, codec.format(value, buffer, 0));
+        return context;
+    }
+
+    /**
+     * Writes an enum value
+     *
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeEnum(final Enum<?> value, final WriteContext context) throws IOException {
+        // The name is read back by Enum.valueOf, toString may be overridden
+        return writeString(value.name(), context);
+    }
+
+    /**
+     * Writes a float value
+     *
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeFloat(final float value, final WriteContext context) throws IOException {
+        final NumberCodec codec = context.getConfig().getNumberCodec();
+
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return writeNonFinite(Float.toString(value), codec, context);
+        }
+        final char[] buffer = context.getBuffer(codec.getMaxLength());
+        context.write(buffer, 0, codec.format(value, buffer, 0));
+        return context;
+    }
+
+    /**
+     * Writes an int value
+     *
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeInt(final int value, final WriteContext context) throws IOException {
+        return writeLong(value, context);
+    }
+
+    /**
+     * Writes a long value
+     *
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeLong(final long value, final WriteContext context) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            context.write("-9223372036854775808");
+            return context;
+        }
+        final char[] digits = context.getBuffer(20);
+        long remaining = value < 0 ? -value : value;
+        int position = 20;
+
+        // Fill the buffer from the last digit
+        do {
+            digits[--position] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+
+        if (value < 0) {
+            digits[--position] = '-';
+        }
+        context.write(digits, position, 20 - position);
+        return context;
+    }
+
+    /**
+     * Writes a NaN or infinite value
+     *
+     * @param literal the value as written by Java (NaN, Infinity or -Infinity)
+     * @param codec   the number codec
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     * @throws IllegalArgumentException if the codec rejects these values
+     */
+    protected WriteContext writeNonFinite(final String literal, final NumberCodec codec, final WriteContext context) throws IOException {
+        switch (codec.getNonFinite()) {
+            case QUOTED:
+                return writeString(literal, context);
+            case NULL:
+                return writeNull(context);
+            case REJECT:
+                throw new IllegalArgumentException("Cannot write " + literal);
+            default:
+                context.write(literal);
+                return context;
+        }
+    }
+
+    /**
+     * Writes a null value, nothing is written by default
+     *
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeNull(final WriteContext context) throws IOException {
+        return context;
+    }
+
+    /**
+     * Writes the value of a primitive field without boxing it
+     *
+     * @param field   the primitive field
+     * @param object  the object containing the field
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writePrimitive(final FieldAccessor field, final Object object, final WriteContext context) throws IOException {
+        switch (field.getKind()) {
+            case BOOLEAN:
+                return writeBoolean(field.getBoolean(object), context);
+            case BYTE:
+                return writeInt(field.getByte(object), context);
+            case CHAR:
+                return writeChar(field.getChar(object), context);
+            case SHORT:
+                return writeInt(field.getShort(object), context);
+            case INT:
+                return writeInt(field.getInt(object), context);
+            case LONG:
+                return writeLong(field.getLong(object), context);
+            case FLOAT:
+                return writeFloat(field.getFloat(object), context);
+            case DOUBLE:
+                return writeDouble(field.getDouble(object), context);
+            default:
+                throw new IllegalArgumentException("Field " + field + " is not a primitive");
+        }
+    }
+
+    /**
+     * Writes a string value
+     *
+     * @param value   the value to write
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeString(final String value, final WriteContext context) throws IOException {
+        context.write(value);
+        return context;
+    }
+
+    /**
+     * Writes a value whose kind is known without inspecting it
+     *
+     * @param kind    the kind of the value
+     * @param value   the value to write, not null
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeTypedValue(final FieldAccessor.Kind kind, final Object value, final WriteContext context) throws IOException {
+        switch (kind) {
+            case BOOLEAN:
+                return writeBoolean((Boolean) value, context);
+            case BYTE:
+                return writeInt((Byte) value, context);
+            case CHAR:
+                return writeChar((Character) value, context);
+            case SHORT:
+                return writeInt((Short) value, context);
+            case INT:
+                return writeInt((Integer) value, context);
+            case LONG:
+                return writeLong((Long) value, context);
+            case FLOAT:
+                return writeFloat((Float) value, context);
+            case DOUBLE:
+                return writeDouble((Double) value, context);
+            case STRING:
+                return writeString((String) value, context);
+            case ENUM:
+                return writeEnum((Enum<?>) value, context);
+            case DATE:
+                return writeDate((Date) value, context);
+            default:
+                throw new IllegalArgumentException("The kind " + kind + " is not a typed value");
+        }
+    }
+
+    /**
+     * Writes the indentation character
+     *
+     * @param context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeIndentation(final WriteContext context) throws IOException {
+        if (!context.getConfig().isCompressOutput() && context.getIndentationLevel() > 0) {
+            context.write(context.getConfig().getIndentation(context.getIndentationLevel()));
+        }
+        return context;
+    }
+
+    /**
+     * Writes a new line character
+     *
+     * @param context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeLineFeed(final WriteContext context) throws IOException {
+        context.write("\n");
+        return context;
+    }
+
+    /**
+     * Writes a single space character
+     *
+     * @param context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeSpace(final WriteContext context) throws IOException {
+        context.write(" ");
+        return context;
+    }
 }
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+/**
+ * This class formats doubles and floats into a buffer without allocating anything.
+ * By default they are written with the shortest digits that read back as the same value,
+ * in the layout of {@link Double#toString(double)}, or they can be written with a fixed number of decimals.
+ * It is immutable so it can be shared between threads.
+ *
+ * @author Karl STEIN
+ */
+public final class NumberCodec {
+
+    /**
+     * The ways of writing NaN and infinite values
+     */
+    public enum NonFinite {
+        /**
+         * Written as NaN, Infinity or -Infinity
+         */
+        LITERAL,
+        /**
+         * Written as the strings "NaN", "Infinity" or "-Infinity"
+         */
+        QUOTED,
+        /**
+         * Written as null in JSON and as an empty value in the other formats
+         */
+        NULL,
+        /**
+         * Not written, an {@link IllegalArgumentException} is thrown
+         */
+        REJECT
+    }
+
+    /**
+     * The precision writing the shortest digits
+     */
+    public static final int SHORTEST = -1;
+    /**
+     * The default codec (shortest digits, literal NaN and infinite values)
+     */
+    public static final NumberCodec DEFAULT = new NumberCodec(SHORTEST, NonFinite.LITERAL);
+    /**
+     * The space used for the digits at the end of the buffer
+     */
+    private static final int DIGITS_LENGTH = 17;
+    /**
+     * The maximal length of a number written with the shortest digits
+     */
+    private static final int SHORTEST_LENGTH = 32;
+    /**
+     * The maximal length of the integer part of a number written with a fixed precision (with its sign)
+     */
+    private static final int INTEGER_LENGTH = 312;
+
+    /**
+     * The way of writing NaN and infinite values
+     */
+    private final NonFinite nonFinite;
+    /**
+     * The number of decimals or {@link #SHORTEST}
+     */
+    private final int precision;
+
+    /**
+     * Creates a codec
+     *
+     * @param precision the number of decimals or {@link #SHORTEST}
+     * @param nonFinite the way of writing NaN and infinite values
+     */
+    public NumberCodec(final int precision, final NonFinite nonFinite) {
+        if (precision < SHORTEST) {
+            throw new IllegalArgumentException("The precision is negative");
+        }
+        if (nonFinite == null) {
+            throw new IllegalArgumentException("The non finite mode is null");
+        }
+        this.precision = precision;
+        this.nonFinite = nonFinite;
+    }
+
+    /**
+     * Writes a finite double to the buffer
+     *
+     * @param value  the value
+     * @param buffer the buffer, with at least {@link #getMaxLength()} characters after the offset
+     * @param offset the position in the buffer
+     * @return int the position after the number
+     */
+    public int format(final double value, final char[] buffer, final int offset) {
+        if (value == 0) {
+            return writeZero(Double.doubleToRawLongBits(value) < 0, buffer, offset);
+        }
+        final int digitsOffset = offset + getMaxLength() - DIGITS_LENGTH;
+        return write(value < 0, ShortestDecimal.toDigits(value, buffer, digitsOffset), buffer, offset, digitsOffset);
+    }
+
+    /**
+     * Writes a finite float to the buffer
+     *
+     * @param value  the value
+     * @param buffer the buffer, with at least {@link #getMaxLength()} characters after the offset
+     * @param offset the position in the buffer
+     * @return int the position after the number
+     */
+    public int format(final float value, final char[] buffer, final int offset) {
+        if (value == 0) {
+            return writeZero(Float.floatToRawIntBits(value) < 0, buffer, offset);
+        }
+        final int digitsOffset = offset + getMaxLength() - DIGITS_LENGTH;
+        return write(value < 0, ShortestDecimal.toDigits(value, buffer, digitsOffset), buffer, offset, digitsOffset);
+    }
+
+    /**
+     * Returns a double as a string
+     *
+     * @param value the value
+     * @return String
+     */
+    public String format(final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.toString(value);
+        }
+        final char[] buffer = new char[getMaxLength()];
+        return new String(buffer, 0, format(value, buffer, 0));
+    }
+
+    /**
+     * Returns the maximal length of a number, including the space used while formatting it
+     *
+     * @return int
+     */
+    public int getMaxLength() {
+        return (precision == SHORTEST ? SHORTEST_LENGTH : INTEGER_LENGTH + 1 + precision) + DIGITS_LENGTH;
+    }
+
+    /**
+     * Returns the way of writing NaN and infinite values
+     *
+     * @return NonFinite
+     */
+    public NonFinite getNonFinite() {
+        return nonFinite;
+    }
+
+    /**
+     * Returns the number of decimals
+     *
+     * @return int or {@link #SHORTEST}
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Checks if the shortest digits are written
+     *
+     * @return boolean
+     */
+    public boolean isShortest() {
+        return precision == SHORTEST;
+    }
+
+    /**
+     * Returns a codec writing NaN and infinite values in the given way
+     *
+     * @param nonFinite the way of writing NaN and infinite values
+     * @return NumberCodec
+     */
+    public NumberCodec withNonFinite(final NonFinite nonFinite) {
+        return new NumberCodec(precision, nonFinite);
+    }
+
+    /**
+     * Returns a codec writing the given number of decimals
+     *
+     * @param precision the number of decimals or {@link #SHORTEST}
+     * @return NumberCodec
+     */
+    public NumberCodec withPrecision(final int precision) {
+        return new NumberCodec(precision, nonFinite);
+    }
+
+    /**
+     * Writes the digits of a number
+     *
+     * @param negative     true if the number is negative
+     * @param digits       the exponent and the number of digits
+     * @param buffer       the buffer
+     * @param offset       the position in the buffer
+     * @param digitsOffset the position of the digits
+     * @return int the position after the number
+     */
+    private int write(final boolean negative, final long digits, final char[] buffer, final int offset, final int digitsOffset) {
+        final int exponent = (int) (digits >> 32);
+        final int length = (int) digits;
+
+        return precision == SHORTEST
+                ? writeShortest(negative, exponent, length, buffer, offset, digitsOffset)
+                : writeFixed(negative, exponent, length, buffer, offset, digitsOffset);
+    }
+
+    /**
+     * Writes the digits rounded half-up to the precision, without exponent
+     *
+     * @param negative     true if the number is negative
+     * @param exponent     the exponent of 0.d1...dn
+     * @param length       the number of digits
+     * @param buffer       the buffer
+     * @param offset       the position in the buffer
+     * @param digitsOffset the position of the digits
+     * @return int the position after the number
+     */
+    private int writeFixed(final boolean negative, final int exponent, final int length,
+                           final char[] buffer, final int offset, final int digitsOffset) {
+        final int kept = exponent + precision;
+        int roundedExponent = exponent;
+        int roundedLength = length;
+
+        if (kept < length) {
+            roundedLength = Math.max(kept, 0);
+
+            // Round up when the first removed digit is 5 or more
+            if (kept >= 0 && buffer[digitsOffset + kept] >= '5') {
+                int i = kept - 1;
+
+                while (i >= 0 && buffer[digitsOffset + i] == '9') {
+                    i--;
+                }
+                if (i >= 0) {
+                    buffer[digitsOffset + i]++;
+                    roundedLength = i + 1;
+                } else {
+                    buffer[digitsOffset] = '1';
+                    roundedLength = 1;
+                    roundedExponent++;
+                }
+            }
+        }
+        int position = offset;
+
+        // Numbers rounded to zero have no sign
+        if (negative && roundedLength > 0) {
+            buffer[position++] = '-';
+        }
+        if (roundedExponent <= 0) {
+            buffer[position++] = '0';
+        }
+        for (int i = 0; i < roundedExponent; i++) {
+            buffer[position++] = i < roundedLength ? buffer[digitsOffset + i] : '0';
+        }
+        if (precision > 0) {
+            buffer[position++] = '.';
+
+            for (int i = roundedExponent; i < roundedExponent + precision; i++) {
+                buffer[position++] = i >= 0 && i < roundedLength ? buffer[digitsOffset + i] : '0';
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Writes the digits in the layout of {@link Double#toString(double)}
+     *
+     * @param negative     true if the number is negative
+     * @param exponent     the exponent of 0.d1...dn
+     * @param length       the number of digits
+     * @param buffer       the buffer
+     * @param offset       the position in the buffer
+     * @param digitsOffset the position of the digits
+     * @return int the position after the number
+     */
+    private static int writeShortest(final boolean negative, final int exponent, final int length,
+                                     final char[] buffer, final int offset, final int digitsOffset) {
+        int position = offset;
+
+        if (negative) {
+            buffer[position++] = '-';
+        }
+        if (exponent > 0 && exponent <= 7) {
+            // From 1 to 10^7: integer part and decimals
+            for (int i = 0; i < exponent; i++) {
+                buffer[position++] = i < length ? buffer[digitsOffset + i] : '0';
+            }
+            buffer[position++] = '.';
+
+            if (length > exponent) {
+                System.arraycopy(buffer, digitsOffset + exponent, buffer, position, length - exponent);
+                position += length - exponent;
+            } else {
+                buffer[position++] = '0';
+            }
+        } else if (exponent > -3 && exponent <= 0) {
+            // From 10^-3 to 1: leading zeros and digits
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+
+            for (int i = exponent; i < 0; i++) {
+                buffer[position++] = '0';
+            }
+            System.arraycopy(buffer, digitsOffset, buffer, position, length);
+            position += length;
+        } else {
+            // Scientific notation
+            buffer[position++] = buffer[digitsOffset];
+            buffer[position++] = '.';
+
+            if (length > 1) {
+                System.arraycopy(buffer, digitsOffset + 1, buffer, position, length - 1);
+                position += length - 1;
+            } else {
+                buffer[position++] = '0';
+            }
+            buffer[position++] = 'E';
+            int scale = exponent - 1;
+
+            if (scale < 0) {
+                buffer[position++] = '-';
+                scale = -scale;
+            }
+            if (scale >= 100) {
+                buffer[position++] = (char) ('0' + scale / 100);
+            }
+            if (scale >= 10) {
+                buffer[position++] = (char) ('0' + scale / 10 % 10);
+            }
+            buffer[position++] = (char) ('0' + scale % 10);
+        }
+        return position;
+    }
+
+    /**
+     * Writes a zero
+     *
+     * @param negative true if the zero is negative
+     * @param buffer   the buffer
+     * @param offset   the position in the buffer
+     * @return int the position after the number
+     */
+    private int writeZero(final boolean negative, final char[] buffer, final int offset) {
+        int position = offset;
+
+        if (precision == SHORTEST) {
+            if (negative) {
+                buffer[position++] = '-';
+            }
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            buffer[position++] = '0';
+
+        } else {
+            buffer[position++] = '0';
+
+            if (precision > 0) {
+                buffer[position++] = '.';
+
+                for (int i = 0; i < precision; i++) {
+                    buffer[position++] = '0';
+                }
+            }
+        }
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        return (precision == SHORTEST ? "SHORTEST" : "FIXED " + precision) + " " + nonFinite;
+    }
+}
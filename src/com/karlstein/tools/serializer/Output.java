@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class is the output of the serializers,
+ * it is a writer that can also write pre-encoded texts.
+ *
+ * @author Karl STEIN
+ */
+public abstract class Output extends Writer {
+
+    /**
+     * Returns an output writing to the writer
+     *
+     * @param writer the writer
+     * @return Output
+     */
+    public static Output of(final Writer writer) {
+        return writer instanceof Output ? (Output) writer : new WriterOutput(writer);
+    }
+
+    /**
+     * Writes the buffered data to the underlying output, without closing it.
+     * It is called when a write call ends, on outputs created by the serializer
+     *
+     * @throws IOException
+     */
+    public void release() throws IOException {
+        flush();
+    }
+
+    /**
+     * Writes a pre-encoded text
+     *
+     * @param text the text
+     * @throws IOException
+     */
+    public void write(final EncodedText text) throws IOException {
+        write(text.toString());
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class reads a UTF-8 CSV file on several threads.
+ * The file is memory-mapped and split in ranges that start on a row, then the ranges are read concurrently.
+ * To find the rows, a first pass counts the delimiters of each range so the ranges know if they start
+ * inside a delimited value, line breaks in delimited values are handled.
+ * The rows can be read in the order of the file or handed to a handler as soon as they are read.
+ * Rows must end with \n or \r\n.
+ *
+ * @param <T> the row type
+ * @author Karl STEIN
+ */
+public final class ParallelCsvReader<T> {
+
+    /**
+     * The handler of the rows read in any order
+     *
+     * @param <T> the row type
+     */
+    public interface RowHandler<T> {
+
+        /**
+         * Handles a row, it is called concurrently
+         *
+         * @param row the row
+         */
+        void handle(T row);
+    }
+
+    /**
+     * The default size of the ranges
+     */
+    public static final int DEFAULT_RANGE_SIZE = 32 << 20;
+
+    /**
+     * The charset of the file
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The serializer binding the rows
+     */
+    private final CsvSerializer serializer;
+    /**
+     * The row type
+     */
+    private final Class<T> type;
+    /**
+     * The file
+     */
+    private final FileChannel channel;
+    /**
+     * The executor reading the ranges
+     */
+    private final ExecutorService executor;
+    /**
+     * The size of the ranges
+     */
+    private final int rangeSize;
+    /**
+     * The value delimiter
+     */
+    private final byte delimiter;
+
+    /**
+     * Creates a reader with the default range size
+     *
+     * @param serializer the serializer binding the rows
+     * @param type       the row type
+     * @param channel    the file, it is not closed
+     * @param executor   the executor reading the ranges
+     */
+    public ParallelCsvReader(final CsvSerializer serializer, final Class<T> type, final FileChannel channel,
+                             final ExecutorService executor) {
+        this(serializer, type, channel, executor, DEFAULT_RANGE_SIZE);
+    }
+
+    /**
+     * Creates a reader
+     *
+     * @param serializer the serializer binding the rows
+     * @param type       the row type
+     * @param channel    the file, it is not closed
+     * @param executor   the executor reading the ranges
+     * @param rangeSize  the size of the ranges
+     */
+    public ParallelCsvReader(final CsvSerializer serializer, final Class<T> type, final FileChannel channel,
+                             final ExecutorService executor, final int rangeSize) {
+        if (rangeSize < 1) {
+            throw new IllegalArgumentException("The range size is less than 1");
+        }
+        if (serializer.getValueDelimiter() >= 0x80 || serializer.getValueSeparator() >= 0x80) {
+            throw new IllegalArgumentException("The value delimiter and separator must be ASCII characters");
+        }
+        this.serializer = serializer;
+        this.type = type;
+        this.channel = channel;
+        this.executor = executor;
+        this.rangeSize = rangeSize;
+        this.delimiter = (byte) serializer.getValueDelimiter();
+    }
+
+    /**
+     * Returns the position after the header line
+     *
+     * @param size the size of the file
+     * @return long
+     * @throws IOException
+     */
+    private long findDataStart(final long size) throws IOException {
+        long position = 0;
+        boolean quoted = false;
+
+        while (position < size) {
+            final ByteBuffer bytes = map(position, Math.min(size, position + rangeSize));
+
+            while (bytes.hasRemaining()) {
+                final byte b = bytes.get();
+
+                if (b == delimiter) {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    return position + bytes.position();
+                }
+            }
+            position += bytes.limit();
+        }
+        return size;
+    }
+
+    /**
+     * Maps a part of the file
+     *
+     * @param start the first byte
+     * @param end   the byte after the last one
+     * @return ByteBuffer
+     * @throws IOException
+     */
+    private ByteBuffer map(final long start, final long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    /**
+     * Reads the rows of a range
+     *
+     * @param columns the fields of the columns
+     * @param start   the first byte
+     * @param end     the byte after the last one
+     * @param handler the handler of the rows
+     * @return long the number of rows
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private long readRange(final FieldAccessor[] columns, final long start, final long end,
+                           final RowHandler<? super T> handler) throws IOException {
+        final ClassDescriptor descriptor = serializer.getDescriptor(type);
+        final CsvReader csv = new CsvReader(new InputStreamReader(new BufferInputStream(map(start, end)), UTF_8),
+                serializer.getValueDelimiter(), serializer.getValueSeparator());
+        long count = 0;
+
+        try {
+            while (csv.nextRow()) {
+                handler.handle((T) serializer.readRow(descriptor, columns, csv));
+                count++;
+            }
+        } finally {
+            csv.close();
+        }
+        return count;
+    }
+
+    /**
+     * Reads the header line and returns the field of each column
+     *
+     * @param dataStart the position after the header line
+     * @return FieldAccessor[]
+     * @throws IOException
+     */
+    private FieldAccessor[] readHeaders(final long dataStart) throws IOException {
+        final CsvReader csv = new CsvReader(new InputStreamReader(new BufferInputStream(map(0, dataStart)), UTF_8),
+                serializer.getValueDelimiter(), serializer.getValueSeparator());
+
+        try {
+            return serializer.readHeaders(serializer.getDescriptor(type), csv);
+        } finally {
+            csv.close();
+        }
+    }
+
+    /**
+     * Returns the rows in the order of the file, the ranges are read ahead on the executor
+     *
+     * @return OrderedRows
+     * @throws IOException
+     */
+    public OrderedRows readOrdered() throws IOException {
+        final long size = channel.size();
+        final long dataStart = findDataStart(size);
+        return new OrderedRows(readHeaders(dataStart), split(dataStart, size));
+    }
+
+    /**
+     * Reads all the rows and hands them to the handler as soon as they are read,
+     * the handler is called concurrently from the threads of the executor
+     *
+     * @param handler the handler of the rows
+     * @return long the number of rows
+     * @throws IOException the first error of the ranges
+     */
+    public long readUnordered(final RowHandler<? super T> handler) throws IOException {
+        final long size = channel.size();
+        final long dataStart = findDataStart(size);
+        final FieldAccessor[] columns = readHeaders(dataStart);
+        final long[] starts = split(dataStart, size);
+        final AtomicLong count = new AtomicLong();
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for (int i = 0; i < starts.length - 1; i++) {
+            final long start = starts[i];
+            final long end = starts[i + 1];
+
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    count.addAndGet(readRange(columns, start, end, handler));
+                    return null;
+                }
+            }));
+        }
+        for (final Future<?> future : futures) {
+            await(future, futures);
+        }
+        return count.get();
+    }
+
+    /**
+     * Splits the rows in ranges that start on a row
+     *
+     * @param dataStart the position after the header line
+     * @param size      the size of the file
+     * @return long[] the start of each range, followed by the size
+     * @throws IOException
+     */
+    private long[] split(final long dataStart, final long size) throws IOException {
+        final int count = (int) Math.max(1, (size - dataStart + rangeSize - 1) / rangeSize);
+        final List<Future<long[]>> futures = new ArrayList<Future<long[]>>(count);
+
+        // Count the delimiters and find the first line break after each split point
+        for (int i = 0; i < count; i++) {
+            final long start = dataStart + (long) i * rangeSize;
+            final long end = Math.min(size, start + rangeSize);
+
+            futures.add(executor.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() throws IOException {
+                    return scan(start, end);
+                }
+            }));
+        }
+        final long[][] scans = new long[count][];
+
+        for (int i = 0; i < count; i++) {
+            scans[i] = await(futures.get(i), futures);
+        }
+
+        // A range starts after the first line break outside of a delimited value
+        final long[] starts = new long[count + 1];
+        long delimiters = 0;
+        starts[count] = size;
+
+        for (int i = 1; i < count; i++) {
+            delimiters += scans[i - 1][0];
+            starts[i] = scans[i][delimiters % 2 == 0 ? 1 : 2];
+        }
+        starts[0] = dataStart;
+
+        // Ranges without row start are merged with the previous one
+        for (int i = count - 1; i > 0; i--) {
+            if (starts[i] < 0) {
+                starts[i] = starts[i + 1];
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * Scans a range from the split point, it runs on the executor
+     *
+     * @param start the split point
+     * @param end   the end of the range
+     * @return long[] the number of delimiters and the positions after the first line break
+     * reached after an even and an odd number of delimiters (-1 if none)
+     * @throws IOException
+     */
+    private long[] scan(final long start, final long end) throws IOException {
+        final long[] result = {0, -1, -1};
+
+        if (start == end) {
+            return result;
+        }
+
+        // The split point starts a row when it follows a line break
+        final ByteBuffer bytes = map(start - 1, end);
+        long delimiters = 0;
+
+        if (bytes.get() == '\n') {
+            result[1] = start;
+        }
+        while (bytes.hasRemaining()) {
+            final byte b = bytes.get();
+
+            if (b == delimiter) {
+                delimiters++;
+            } else if (b == '\n') {
+                final int parity = delimiters % 2 == 0 ? 1 : 2;
+
+                if (result[parity] < 0) {
+                    result[parity] = start - 1 + bytes.position();
+                }
+            }
+        }
+        result[0] = delimiters;
+        return result;
+    }
+
+    /**
+     * Returns the result of a task, the other tasks are cancelled if it failed
+     *
+     * @param future  the task
+     * @param futures all the tasks
+     * @return V
+     * @throws IOException
+     */
+    private static <V> V await(final Future<V> future, final Collection<? extends Future<?>> futures) throws IOException {
+        try {
+            return future.get();
+
+        } catch (final InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading in parallel");
+
+        } catch (final ExecutionException e) {
+            cancel(futures);
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Cancels tasks
+     *
+     * @param futures the tasks
+     */
+    private static void cancel(final Collection<? extends Future<?>> futures) {
+        for (final Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * The rows of the file in their order, a few ranges are read ahead
+     */
+    public final class OrderedRows implements Iterator<T>, Closeable {
+
+        /**
+         * The fields of the columns
+         */
+        private final FieldAccessor[] columns;
+        /**
+         * The start of each range, followed by the size
+         */
+        private final long[] starts;
+        /**
+         * The ranges being read, in their order
+         */
+        private final Deque<Future<List<T>>> pending = new ArrayDeque<Future<List<T>>>();
+        /**
+         * The number of ranges being read at most
+         */
+        private final int maxPending;
+        /**
+         * The index of the next range to read
+         */
+        private int nextRange = 0;
+        /**
+         * The rows of the current range
+         */
+        private Iterator<T> rows = Collections.<T>emptyList().iterator();
+
+        /**
+         * Creates the rows
+         *
+         * @param columns the fields of the columns
+         * @param starts  the start of each range, followed by the size
+         */
+        OrderedRows(final FieldAccessor[] columns, final long[] starts) {
+            this.columns = columns;
+            this.starts = starts;
+            this.maxPending = Runtime.getRuntime().availableProcessors() * 2;
+            submit();
+        }
+
+        /**
+         * Stops reading the ranges
+         */
+        @Override
+        public void close() {
+            cancel(pending);
+            pending.clear();
+            nextRange = starts.length - 1;
+            rows = Collections.<T>emptyList().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!rows.hasNext()) {
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                try {
+                    rows = await(pending.peek(), pending).iterator();
+                    pending.poll();
+                    submit();
+
+                } catch (final IOException e) {
+                    close();
+                    throw new IllegalArgumentException("Cannot read the rows of " + type.getName(), e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return rows.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Submits the next ranges until enough ranges are being read
+         */
+        private void submit() {
+            while (pending.size() < maxPending && nextRange < starts.length - 1) {
+                final long start = starts[nextRange];
+                final long end = starts[nextRange + 1];
+                nextRange++;
+
+                pending.add(executor.submit(new Callable<List<T>>() {
+                    @Override
+                    public List<T> call() throws IOException {
+                        final List<T> list = new ArrayList<T>();
+
+                        readRange(columns, start, end, new RowHandler<T>() {
+                            @Override
+                            public void handle(final T row) {
+                                list.add(row);
+                            }
+                        });
+                        return list;
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * A stream reading a buffer
+     */
+    private static final class BufferInputStream extends InputStream {
+
+        /**
+         * The buffer
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Creates a stream
+         *
+         * @param buffer the buffer
+         */
+        BufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
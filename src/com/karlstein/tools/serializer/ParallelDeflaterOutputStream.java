@@ -0,0 +1,439 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * This class compresses the written bytes in independent blocks on a pool of threads
+ * and writes them in order as a single gzip or zlib stream.
+ * Each block is primed with the last 32KB of the previous one so the ratio stays close to a single deflater,
+ * and ends with a sync flush so the blocks can be concatenated.
+ * The checksum is computed while the bytes are written.
+ *
+ * @author Karl STEIN
+ */
+public final class ParallelDeflaterOutputStream extends OutputStream {
+
+    /**
+     * The formats of the compressed stream
+     */
+    public enum Format {
+        /**
+         * The gzip format (RFC 1952), read by {@link java.util.zip.GZIPInputStream}
+         */
+        GZIP,
+        /**
+         * The zlib format (RFC 1950), read by {@link java.util.zip.InflaterInputStream}
+         */
+        ZLIB
+    }
+
+    /**
+     * The default size of the blocks
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    /**
+     * The size of the deflate window
+     */
+    private static final int WINDOW_SIZE = 32 * 1024;
+
+    /**
+     * The output stream
+     */
+    private final OutputStream out;
+    /**
+     * The format
+     */
+    private final Format format;
+    /**
+     * The compression level
+     */
+    private final int level;
+    /**
+     * The size of the blocks
+     */
+    private final int blockSize;
+    /**
+     * The pool compressing the blocks
+     */
+    private final ExecutorService executor;
+    /**
+     * The maximal number of blocks being compressed
+     */
+    private final int maxPending;
+    /**
+     * The checksum of the uncompressed bytes
+     */
+    private final Checksum checksum;
+    /**
+     * The deflaters that are not in use
+     */
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    /**
+     * The blocks being compressed, in the order of the stream
+     */
+    private final Queue<Future<Compressed>> pending = new ArrayDeque<Future<Compressed>>();
+    /**
+     * The block being filled
+     */
+    private byte[] block;
+    /**
+     * The number of bytes in the block
+     */
+    private int blockLength = 0;
+    /**
+     * The previous block, used as dictionary
+     */
+    private byte[] previous;
+    /**
+     * The number of bytes in the previous block
+     */
+    private int previousLength = 0;
+    /**
+     * The number of uncompressed bytes
+     */
+    private long totalLength = 0;
+    /**
+     * The closed flag
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a gzip stream compressing on the shared pool
+     *
+     * @param out the output stream
+     * @throws IOException
+     */
+    public ParallelDeflaterOutputStream(final OutputStream out) throws IOException {
+        this(out, Format.GZIP);
+    }
+
+    /**
+     * Creates a stream compressing on the shared pool
+     *
+     * @param out    the output stream
+     * @param format the format
+     * @throws IOException
+     */
+    public ParallelDeflaterOutputStream(final OutputStream out, final Format format) throws IOException {
+        this(out, format, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, SharedPool.EXECUTOR, SharedPool.SIZE * 2);
+    }
+
+    /**
+     * Creates a stream
+     *
+     * @param out        the output stream
+     * @param format     the format
+     * @param level      the compression level (0 to 9 or {@link Deflater#DEFAULT_COMPRESSION})
+     * @param blockSize  the size of the blocks
+     * @param executor   the pool compressing the blocks
+     * @param maxPending the maximal number of blocks being compressed
+     * @throws IOException
+     */
+    public ParallelDeflaterOutputStream(final OutputStream out, final Format format, final int level, final int blockSize,
+                                        final ExecutorService executor, final int maxPending) throws IOException {
+        if (blockSize < WINDOW_SIZE) {
+            throw new IllegalArgumentException("The block size is less than " + WINDOW_SIZE);
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("The maximal number of pending blocks is less than 1");
+        }
+        this.out = out;
+        this.format = format;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.checksum = format == Format.GZIP ? new CRC32() : new Adler32();
+        this.block = new byte[blockSize];
+
+        writeHeader();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            submit(true);
+            writePending(0);
+            writeTrailer();
+            out.close();
+
+        } finally {
+            // Release the native memory
+            for (Deflater deflater = deflaters.poll(); deflater != null; deflater = deflaters.poll()) {
+                deflater.end();
+            }
+            for (final Future<Compressed> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Compresses a block, it runs on the pool
+     *
+     * @param data             the block
+     * @param length           the number of bytes in the block
+     * @param dictionary       the previous block or null
+     * @param dictionaryLength the number of bytes in the previous block
+     * @param last             true if this is the last block of the stream
+     * @return Compressed
+     */
+    private Compressed compress(final byte[] data, final int length, final byte[] dictionary,
+                                final int dictionaryLength, final boolean last) {
+        Deflater deflater = deflaters.poll();
+
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            if (dictionaryLength > 0) {
+                final int size = Math.min(WINDOW_SIZE, dictionaryLength);
+                deflater.setDictionary(dictionary, dictionaryLength - size, size);
+            }
+            deflater.setInput(data, 0, length);
+
+            if (last) {
+                deflater.finish();
+            }
+            byte[] output = new byte[Math.max(64, length / 2)];
+            int count = 0;
+
+            // Blocks end with a sync flush so the next one starts on a byte boundary
+            while (true) {
+                count += deflater.deflate(output, count, output.length - count, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+
+                if (last ? deflater.finished() : count < output.length) {
+                    return new Compressed(output, count);
+                }
+                if (count == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+            }
+        } finally {
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+
+        if (blockLength > 0) {
+            submit(false);
+        }
+        writePending(0);
+        out.flush();
+    }
+
+    /**
+     * Checks that the stream is open
+     *
+     * @throws IOException
+     */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Sends the current block to the pool
+     *
+     * @param last true if this is the last block of the stream
+     * @throws IOException
+     */
+    private void submit(final boolean last) throws IOException {
+        final byte[] data = block;
+        final int length = blockLength;
+        final byte[] dictionary = previous;
+        final int dictionaryLength = previousLength;
+
+        pending.add(executor.submit(new Callable<Compressed>() {
+            @Override
+            public Compressed call() {
+                return compress(data, length, dictionary, dictionaryLength, last);
+            }
+        }));
+        previous = data;
+        previousLength = length;
+        block = last ? null : new byte[blockSize];
+        blockLength = 0;
+
+        writePending(maxPending);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        checkOpen();
+
+        if (blockLength == blockSize) {
+            submit(false);
+        }
+        block[blockLength++] = (byte) b;
+        checksum.update(b);
+        totalLength++;
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        checkOpen();
+        checksum.update(bytes, offset, length);
+        totalLength += length;
+
+        int position = offset;
+        final int end = offset + length;
+
+        while (position < end) {
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+            final int count = Math.min(end - position, blockSize - blockLength);
+            System.arraycopy(bytes, position, block, blockLength, count);
+            blockLength += count;
+            position += count;
+        }
+    }
+
+    /**
+     * Writes the header of the format
+     *
+     * @throws IOException
+     */
+    private void writeHeader() throws IOException {
+        if (format == Format.GZIP) {
+            // Magic number, deflate method, no flags, no time, no extra flags, unknown OS
+            out.write(new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+        } else {
+            // Deflate method with a 32KB window, then the level and the header check
+            final int flags = (level == 0 || level == 1 ? 0 : level >= 2 && level <= 5 ? 1 : level >= 7 ? 3 : 2) << 6;
+            out.write(0x78);
+            out.write(flags + 31 - (0x78 * 256 + flags) % 31);
+        }
+    }
+
+    /**
+     * Writes the compressed blocks in order until the given number of blocks are pending
+     *
+     * @param remaining the number of blocks that can stay pending
+     * @throws IOException
+     */
+    private void writePending(final int remaining) throws IOException {
+        while (pending.size() > remaining) {
+            final Compressed compressed;
+
+            try {
+                compressed = pending.peek().get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing");
+            } catch (final ExecutionException e) {
+                throw new IOException("Cannot compress a block", e.getCause());
+            }
+            pending.poll();
+            out.write(compressed.data, 0, compressed.length);
+        }
+    }
+
+    /**
+     * Writes the trailer of the format
+     *
+     * @throws IOException
+     */
+    private void writeTrailer() throws IOException {
+        final long value = checksum.getValue();
+
+        if (format == Format.GZIP) {
+            // Checksum and size, little-endian
+            out.write(new byte[]{
+                    (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24),
+                    (byte) totalLength, (byte) (totalLength >> 8), (byte) (totalLength >> 16), (byte) (totalLength >> 24)
+            });
+        } else {
+            // Checksum, big-endian
+            out.write(new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value});
+        }
+    }
+
+    /**
+     * A compressed block
+     */
+    private static final class Compressed {
+
+        /**
+         * The compressed bytes
+         */
+        final byte[] data;
+        /**
+         * The number of compressed bytes
+         */
+        final int length;
+
+        /**
+         * Creates a compressed block
+         *
+         * @param data   the compressed bytes
+         * @param length the number of compressed bytes
+         */
+        Compressed(final byte[] data, final int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The pool shared by the streams created without pool, its threads are daemons
+     */
+    private static final class SharedPool {
+
+        /**
+         * The number of threads
+         */
+        static final int SIZE = Runtime.getRuntime().availableProcessors();
+        /**
+         * The pool
+         */
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(SIZE, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "kserializer-deflater-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class reads a stream ahead on its own thread, so the work of the source
+ * (like decompressing) overlaps with the work of the reader (like parsing).
+ * The bytes are handed over in chunks that are reused once they are read.
+ *
+ * @author Karl STEIN
+ */
+public final class ReadAheadInputStream extends InputStream {
+
+    /**
+     * The default size of the chunks
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    /**
+     * The default number of chunks read ahead
+     */
+    public static final int DEFAULT_CHUNK_COUNT = 4;
+
+    /**
+     * The chunks read ahead
+     */
+    private final BlockingQueue<Chunk> filled;
+    /**
+     * The chunks that can be reused
+     */
+    private final BlockingQueue<Chunk> free;
+    /**
+     * The thread reading the source
+     */
+    private final Thread thread;
+    /**
+     * The chunk being read
+     */
+    private Chunk current;
+    /**
+     * The position in the current chunk
+     */
+    private int position = 0;
+    /**
+     * The closed flag
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a stream with the default chunks
+     *
+     * @param source the stream to read ahead, it is closed with this stream
+     */
+    public ReadAheadInputStream(final InputStream source) {
+        this(source, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_COUNT);
+    }
+
+    /**
+     * Creates a stream
+     *
+     * @param source     the stream to read ahead, it is closed with this stream
+     * @param chunkSize  the size of the chunks
+     * @param chunkCount the number of chunks read ahead
+     */
+    public ReadAheadInputStream(final InputStream source, final int chunkSize, final int chunkCount) {
+        if (chunkSize < 1 || chunkCount < 1) {
+            throw new IllegalArgumentException("The chunk size and count must be positive");
+        }
+        this.filled = new ArrayBlockingQueue<Chunk>(chunkCount);
+        this.free = new ArrayBlockingQueue<Chunk>(chunkCount + 2);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readSource(source, chunkSize);
+            }
+        }, "kserializer-read-ahead");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (current != null && position < current.length) {
+            return current.length - position;
+        }
+        final Chunk next = filled.peek();
+        return next != null && next.length > 0 ? next.length : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Returns the chunk to read, waiting for the source if needed
+     *
+     * @return Chunk or null at the end of the source
+     * @throws IOException
+     */
+    private Chunk nextChunk() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current == null || position == current.length) {
+            if (current != null) {
+                free.offer(current);
+            }
+            try {
+                current = filled.take();
+                position = 0;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading ahead");
+            }
+        }
+        if (current.error != null) {
+            throw new IOException("Cannot read the source", current.error);
+        }
+        return current.length < 0 ? null : current;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final Chunk chunk = nextChunk();
+        return chunk != null ? chunk.data[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        final Chunk chunk = nextChunk();
+
+        if (chunk == null) {
+            return -1;
+        }
+        final int count = Math.min(length, chunk.length - position);
+        System.arraycopy(chunk.data, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Reads the source into chunks until its end or until this stream is closed, it runs on the thread
+     *
+     * @param source    the source
+     * @param chunkSize the size of the chunks
+     */
+    private void readSource(final InputStream source, final int chunkSize) {
+        Exception error = null;
+
+        try {
+            boolean end = false;
+
+            while (!end && !closed) {
+                Chunk chunk = free.poll();
+
+                if (chunk == null) {
+                    chunk = new Chunk(new byte[chunkSize]);
+                }
+                int length = 0;
+
+                // Fill the chunk unless the source would block
+                do {
+                    final int count = source.read(chunk.data, length, chunkSize - length);
+
+                    if (count < 0) {
+                        end = true;
+                        break;
+                    }
+                    length += count;
+                } while (length < chunkSize && (length == 0 || source.available() > 0));
+
+                if (length > 0) {
+                    chunk.length = length;
+                    filled.put(chunk);
+                } else {
+                    free.offer(chunk);
+                }
+            }
+        } catch (final InterruptedException e) {
+            // Closed
+            return;
+        } catch (final IOException e) {
+            error = e;
+        } catch (final RuntimeException e) {
+            error = e;
+        } finally {
+            try {
+                source.close();
+            } catch (final IOException e) {
+                // Nothing to do
+            }
+        }
+
+        // Mark the end of the source
+        try {
+            filled.put(new Chunk(-1, error));
+        } catch (final InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * A chunk of bytes
+     */
+    private static final class Chunk {
+
+        /**
+         * The bytes
+         */
+        final byte[] data;
+        /**
+         * The error of the source, null if none
+         */
+        final Exception error;
+        /**
+         * The number of bytes, -1 at the end of the source
+         */
+        int length;
+
+        /**
+         * Creates a chunk to fill
+         *
+         * @param data the bytes
+         */
+        Chunk(final byte[] data) {
+            this.data = data;
+            this.error = null;
+        }
+
+        /**
+         * Creates the last chunk
+         *
+         * @param length -1
+         * @param error  the error of the source or null
+         */
+        Chunk(final int length, final Exception error) {
+            this.data = null;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
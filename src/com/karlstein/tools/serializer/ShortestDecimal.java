@@ -0,0 +1,402 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.math.BigInteger;
+
+/**
+ * This class finds the shortest decimal digits that read back as the same double or float,
+ * using the Schubfach algorithm of Raffaello Giulietti.
+ * The digits are the ones of {@link Double#toString(double)} since Java 19,
+ * they are written to a buffer without allocating anything.
+ *
+ * @author Karl STEIN
+ */
+final class ShortestDecimal {
+
+    /**
+     * The precision of doubles
+     */
+    private static final int DOUBLE_PRECISION = 53;
+    /**
+     * The minimal exponent of doubles
+     */
+    private static final int DOUBLE_Q_MIN = -1074;
+    /**
+     * The minimal significand of normal doubles
+     */
+    private static final long DOUBLE_C_MIN = 1L << 52;
+    /**
+     * The subnormal significands below this value get an extra digit
+     */
+    private static final long DOUBLE_C_TINY = 3;
+    /**
+     * The precision of floats
+     */
+    private static final int FLOAT_PRECISION = 24;
+    /**
+     * The minimal exponent of floats
+     */
+    private static final int FLOAT_Q_MIN = -149;
+    /**
+     * The minimal significand of normal floats
+     */
+    private static final int FLOAT_C_MIN = 1 << 23;
+    /**
+     * The subnormal significands below this value get an extra digit
+     */
+    private static final int FLOAT_C_TINY = 8;
+    /**
+     * The minimal power of ten of the table
+     */
+    private static final int K_MIN = -324;
+    /**
+     * The maximal power of ten of the table
+     */
+    private static final int K_MAX = 292;
+    /**
+     * The mask of the 63 low bits
+     */
+    private static final long MASK_63 = (1L << 63) - 1;
+    /**
+     * The mask of the 32 low bits
+     */
+    private static final long MASK_32 = (1L << 32) - 1;
+    /**
+     * The 126 bits approximations of the powers of ten, split in two longs of 63 bits
+     */
+    private static final long[] G = createTable();
+
+    /**
+     * Prevents instantiation
+     */
+    private ShortestDecimal() {
+    }
+
+    /**
+     * Builds the approximations of the powers of ten:
+     * 10^-k = beta 2^r with 2^125 <= beta < 2^126, g = floor(beta) + 1
+     *
+     * @return long[]
+     */
+    private static long[] createTable() {
+        final long[] table = new long[(K_MAX - K_MIN + 1) * 2];
+
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            final int r = flog2pow10(-k) - 125;
+            BigInteger g;
+
+            if (k <= 0) {
+                final BigInteger power = BigInteger.TEN.pow(-k);
+                g = r >= 0 ? power.shiftRight(r) : power.shiftLeft(-r);
+            } else {
+                g = BigInteger.ONE.shiftLeft(-r).divide(BigInteger.TEN.pow(k));
+            }
+            g = g.add(BigInteger.ONE);
+            table[(k - K_MIN) * 2] = g.shiftRight(63).longValue();
+            table[(k - K_MIN) * 2 + 1] = g.longValue() & MASK_63;
+        }
+        return table;
+    }
+
+    /**
+     * Returns floor(e log10(2))
+     *
+     * @param e the exponent
+     * @return int
+     */
+    static int flog10pow2(final int e) {
+        return (int) (e * 661971961083L >> 41);
+    }
+
+    /**
+     * Returns floor(log10(3/4 2^e))
+     *
+     * @param e the exponent
+     * @return int
+     */
+    static int flog10threeQuartersPow2(final int e) {
+        return (int) (e * 661971961083L - 274743187321L >> 41);
+    }
+
+    /**
+     * Returns floor(e log2(10))
+     *
+     * @param e the exponent
+     * @return int
+     */
+    static int flog2pow10(final int e) {
+        return (int) (e * 913124641741L >> 38);
+    }
+
+    /**
+     * Returns the 64 high bits of the 128 bits product of two signed longs
+     *
+     * @param x the first factor
+     * @param y the second factor
+     * @return long
+     */
+    static long multiplyHigh(final long x, final long y) {
+        final long x1 = x >> 32;
+        final long x2 = x & MASK_32;
+        final long y1 = y >> 32;
+        final long y2 = y & MASK_32;
+        final long z2 = x2 * y2;
+        final long t = x1 * y2 + (z2 >>> 32);
+        final long z0 = t >> 32;
+        final long z1 = (t & MASK_32) + x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    /**
+     * Returns the rounded product of a power of ten approximation and a double significand
+     *
+     * @param g1 the high bits of the power of ten
+     * @param g0 the low bits of the power of ten
+     * @param cp the shifted significand
+     * @return long
+     */
+    private static long roundOdd(final long g1, final long g0, final long cp) {
+        final long x1 = multiplyHigh(g0, cp);
+        final long y0 = g1 * cp;
+        final long y1 = multiplyHigh(g1, cp);
+        final long z = (y0 >>> 1) + x1;
+        final long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    /**
+     * Returns the rounded product of a power of ten approximation and a float significand
+     *
+     * @param g  the power of ten
+     * @param cp the shifted significand
+     * @return int
+     */
+    private static int roundOdd(final long g, final long cp) {
+        final long x1 = multiplyHigh(g, cp);
+        final long vbp = x1 >>> 31;
+        return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+    }
+
+    /**
+     * Writes the shortest digits of a double, its sign is ignored
+     *
+     * @param value  the finite and non-zero value
+     * @param buffer the buffer, with at least 17 characters after the offset
+     * @param offset the position of the first digit
+     * @return long the exponent e in the high bits and the number of digits n in the low bits,
+     * the value is 0.d1...dn 10^e
+     */
+    static long toDigits(final double value, final char[] buffer, final int offset) {
+        final long bits = Double.doubleToRawLongBits(value);
+        final long t = bits & (DOUBLE_C_MIN - 1);
+        final int bq = (int) (bits >>> 52) & 0x7ff;
+
+        if (bq != 0) {
+            final int mq = -DOUBLE_Q_MIN + 1 - bq;
+            final long c = DOUBLE_C_MIN | t;
+
+            // Integers are written directly
+            if (0 < mq && mq < DOUBLE_PRECISION) {
+                final long f = c >> mq;
+
+                if (f << mq == c) {
+                    return writeDigits(f, 0, buffer, offset);
+                }
+            }
+            return toDigits(-mq, c, 0, buffer, offset);
+        }
+        return t < DOUBLE_C_TINY
+                ? toDigits(DOUBLE_Q_MIN, 10 * t, -1, buffer, offset)
+                : toDigits(DOUBLE_Q_MIN, t, 0, buffer, offset);
+    }
+
+    /**
+     * Writes the shortest digits of a float, its sign is ignored
+     *
+     * @param value  the finite and non-zero value
+     * @param buffer the buffer, with at least 9 characters after the offset
+     * @param offset the position of the first digit
+     * @return long the exponent e in the high bits and the number of digits n in the low bits,
+     * the value is 0.d1...dn 10^e
+     */
+    static long toDigits(final float value, final char[] buffer, final int offset) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int t = bits & (FLOAT_C_MIN - 1);
+        final int bq = (bits >>> 23) & 0xff;
+
+        if (bq != 0) {
+            final int mq = -FLOAT_Q_MIN + 1 - bq;
+            final int c = FLOAT_C_MIN | t;
+
+            // Integers are written directly
+            if (0 < mq && mq < FLOAT_PRECISION) {
+                final int f = c >> mq;
+
+                if (f << mq == c) {
+                    return writeDigits(f, 0, buffer, offset);
+                }
+            }
+            return toDigits(-mq, c, 0, buffer, offset);
+        }
+        return t < FLOAT_C_TINY
+                ? toDigits(FLOAT_Q_MIN, 10 * t, -1, buffer, offset)
+                : toDigits(FLOAT_Q_MIN, t, 0, buffer, offset);
+    }
+
+    /**
+     * Finds the shortest digits of c 2^q (double)
+     *
+     * @param q      the binary exponent
+     * @param c      the significand
+     * @param dk     the correction of the decimal exponent
+     * @param buffer the buffer
+     * @param offset the position of the first digit
+     * @return long
+     */
+    private static long toDigits(final int q, final long c, final int dk, final char[] buffer, final int offset) {
+        final int out = (int) c & 0x1;
+        final long cb = c << 2;
+        final long cbr = cb + 2;
+        final long cbl;
+        final int k;
+
+        // The rounding interval is asymmetric at the powers of two
+        if (c != DOUBLE_C_MIN || q == DOUBLE_Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        final int h = q + flog2pow10(-k) + 2;
+        final long g1 = G[(k - K_MIN) * 2];
+        final long g0 = G[(k - K_MIN) * 2 + 1];
+
+        final long vb = roundOdd(g1, g0, cb << h);
+        final long vbl = roundOdd(g1, g0, cbl << h);
+        final long vbr = roundOdd(g1, g0, cbr << h);
+        final long s = vb >> 2;
+
+        // Try one digit less
+        if (s >= 100) {
+            final long sp10 = s / 10 * 10;
+            final long tp10 = sp10 + 10;
+            final boolean upin = vbl + out <= sp10 << 2;
+            final boolean wpin = (tp10 << 2) + out <= vbr;
+
+            if (upin != wpin) {
+                return writeDigits(upin ? sp10 : tp10, k, buffer, offset);
+            }
+        }
+        final long t = s + 1;
+        final boolean uin = vbl + out <= s << 2;
+        final boolean win = (t << 2) + out <= vbr;
+
+        if (uin != win) {
+            return writeDigits(uin ? s : t, k + dk, buffer, offset);
+        }
+        // Both candidates are in the interval, take the closest one
+        final long cmp = vb - (s + t << 1);
+        return writeDigits(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, buffer, offset);
+    }
+
+    /**
+     * Finds the shortest digits of c 2^q (float)
+     *
+     * @param q      the binary exponent
+     * @param c      the significand
+     * @param dk     the correction of the decimal exponent
+     * @param buffer the buffer
+     * @param offset the position of the first digit
+     * @return long
+     */
+    private static long toDigits(final int q, final int c, final int dk, final char[] buffer, final int offset) {
+        final int out = c & 0x1;
+        final long cb = (long) c << 2;
+        final long cbr = cb + 2;
+        final long cbl;
+        final int k;
+
+        // The rounding interval is asymmetric at the powers of two
+        if (c != FLOAT_C_MIN || q == FLOAT_Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        final int h = q + flog2pow10(-k) + 33;
+        final long g = G[(k - K_MIN) * 2] + 1;
+
+        final int vb = roundOdd(g, cb << h);
+        final int vbl = roundOdd(g, cbl << h);
+        final int vbr = roundOdd(g, cbr << h);
+        final int s = vb >> 2;
+
+        // Try one digit less
+        if (s >= 100) {
+            final int sp10 = s / 10 * 10;
+            final int tp10 = sp10 + 10;
+            final boolean upin = vbl + out <= sp10 << 2;
+            final boolean wpin = (tp10 << 2) + out <= vbr;
+
+            if (upin != wpin) {
+                return writeDigits(upin ? sp10 : tp10, k, buffer, offset);
+            }
+        }
+        final int t = s + 1;
+        final boolean uin = vbl + out <= s << 2;
+        final boolean win = (t << 2) + out <= vbr;
+
+        if (uin != win) {
+            return writeDigits(uin ? s : t, k + dk, buffer, offset);
+        }
+        // Both candidates are in the interval, take the closest one
+        final int cmp = vb - (s + t << 1);
+        return writeDigits(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, buffer, offset);
+    }
+
+    /**
+     * Writes the digits of f 10^e without the trailing zeros
+     *
+     * @param f      the decimal significand
+     * @param e      the decimal exponent
+     * @param buffer the buffer
+     * @param offset the position of the first digit
+     * @return long the exponent of 0.d1...dn in the high bits and the number of digits in the low bits
+     */
+    private static long writeDigits(final long f, final int e, final char[] buffer, final int offset) {
+        long significand = f;
+        int exponent = e;
+
+        while (significand % 10 == 0) {
+            significand /= 10;
+            exponent++;
+        }
+        int length = 1;
+
+        for (long remaining = significand / 10; remaining != 0; remaining /= 10) {
+            length++;
+        }
+        for (int i = offset + length - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + significand % 10);
+            significand /= 10;
+        }
+        return (long) (exponent + length) << 32 | length;
+    }
+}
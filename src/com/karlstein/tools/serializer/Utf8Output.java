@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This class encodes characters to UTF-8 straight into a byte buffer
+ * and writes the buffer to an output stream, a channel or a {@link ByteSink} when it is full.
+ * The buffer is taken from a per-thread cache and given back by {@link #release()} or {@link #close()}.
+ * Unpaired surrogates are written as '?'.
+ *
+ * @author Karl STEIN
+ */
+public final class Utf8Output extends Output {
+
+    /**
+     * The size of the byte buffer
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * The byte buffers that are not in use, by thread
+     */
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>();
+
+    /**
+     * The sink of the encoded bytes
+     */
+    private final ByteSink sink;
+    /**
+     * The byte buffer
+     */
+    private byte[] buffer;
+    /**
+     * The number of bytes in the buffer
+     */
+    private int count = 0;
+    /**
+     * The high surrogate waiting for its low surrogate, 0 if none
+     */
+    private char highSurrogate = 0;
+
+    /**
+     * Creates an output writing to the stream
+     *
+     * @param stream the output stream
+     */
+    public Utf8Output(final OutputStream stream) {
+        this(new StreamSink(stream));
+    }
+
+    /**
+     * Creates an output writing to the channel
+     *
+     * @param channel the channel
+     */
+    public Utf8Output(final WritableByteChannel channel) {
+        this(new ChannelSink(channel));
+    }
+
+    /**
+     * Creates an output writing to the sink
+     *
+     * @param sink the sink of the encoded bytes
+     */
+    public Utf8Output(final ByteSink sink) {
+        this.sink = sink;
+        this.buffer = acquireBuffer();
+    }
+
+    /**
+     * Returns a buffer from the cache of the thread or a new buffer
+     *
+     * @return byte[]
+     */
+    private static byte[] acquireBuffer() {
+        final byte[] cached = BUFFERS.get();
+
+        if (cached != null) {
+            BUFFERS.set(null);
+            return cached;
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Writes the buffer, releases it and closes the sink
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            release();
+        }
+        sink.close();
+    }
+
+    /**
+     * Writes a character, the buffer has room for 4 bytes
+     *
+     * @param c the character
+     */
+    private void encode(final char c) {
+        final byte[] bytes = buffer;
+
+        if (highSurrogate != 0) {
+            final char high = highSurrogate;
+            highSurrogate = 0;
+
+            if (Character.isLowSurrogate(c)) {
+                final int codePoint = Character.toCodePoint(high, c);
+                bytes[count++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            bytes[count++] = '?';
+        }
+
+        if (c < 0x80) {
+            bytes[count++] = (byte) c;
+        } else if (c < 0x800) {
+            bytes[count++] = (byte) (0xC0 | (c >> 6));
+            bytes[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            bytes[count++] = '?';
+        } else {
+            bytes[count++] = (byte) (0xE0 | (c >> 12));
+            bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    /**
+     * Writes the buffer and flushes the sink
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        sink.flush();
+    }
+
+    /**
+     * Writes the bytes of the buffer to the sink
+     *
+     * @throws IOException
+     */
+    public void flushBuffer() throws IOException {
+        if (count > 0) {
+            sink.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes the buffer and gives it back to the cache of the thread,
+     * the output must not be used after
+     *
+     * @throws IOException
+     */
+    @Override
+    public void release() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            write('?');
+        }
+        flushBuffer();
+        BUFFERS.set(buffer);
+        buffer = null;
+    }
+
+    @Override
+    public void write(final EncodedText text) throws IOException {
+        final byte[] bytes = text.bytes;
+
+        if (highSurrogate != 0 || bytes.length > buffer.length) {
+            write(text.toString());
+            return;
+        }
+        if (count + bytes.length > buffer.length) {
+            flushBuffer();
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        if (count + 4 > buffer.length) {
+            flushBuffer();
+        }
+        if (c < 0x80 && highSurrogate == 0) {
+            buffer[count++] = (byte) c;
+        } else {
+            encode((char) c);
+        }
+    }
+
+    @Override
+    public void write(final char[] chars, final int offset, final int length) throws IOException {
+        final int end = offset + length;
+        int i = offset;
+
+        while (i < end) {
+            if (count + 4 > buffer.length) {
+                flushBuffer();
+            }
+            final byte[] bytes = buffer;
+            final int limit = Math.min(end, i + bytes.length - count - 4);
+
+            // Copy ASCII characters without checks
+            while (i < limit && highSurrogate == 0) {
+                final char c = chars[i];
+
+                if (c >= 0x80) {
+                    break;
+                }
+                bytes[count++] = (byte) c;
+                i++;
+            }
+            if (i < end && count + 4 <= bytes.length) {
+                encode(chars[i++]);
+            }
+        }
+    }
+
+    @Override
+    public void write(final String value) throws IOException {
+        write(value, 0, value.length());
+    }
+
+    @Override
+    public void write(final String value, final int offset, final int length) throws IOException {
+        final int end = offset + length;
+        int i = offset;
+
+        while (i < end) {
+            if (count + 4 > buffer.length) {
+                flushBuffer();
+            }
+            final byte[] bytes = buffer;
+            final int limit = Math.min(end, i + bytes.length - count - 4);
+
+            // Copy ASCII characters without checks
+            while (i < limit && highSurrogate == 0) {
+                final char c = value.charAt(i);
+
+                if (c >= 0x80) {
+                    break;
+                }
+                bytes[count++] = (byte) c;
+                i++;
+            }
+            if (i < end && count + 4 <= bytes.length) {
+                encode(value.charAt(i++));
+            }
+        }
+    }
+
+    /**
+     * This class writes the bytes to a channel
+     */
+    private static final class ChannelSink implements ByteSink {
+
+        /**
+         * The channel
+         */
+        private final WritableByteChannel channel;
+        /**
+         * The wrapper of the last buffer written
+         */
+        private ByteBuffer wrapper;
+
+        /**
+         * Creates a sink writing to the channel
+         *
+         * @param channel the channel
+         */
+        ChannelSink(final WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (wrapper == null || wrapper.array() != bytes) {
+                wrapper = ByteBuffer.wrap(bytes);
+            }
+            wrapper.limit(offset + length);
+            wrapper.position(offset);
+
+            while (wrapper.hasRemaining()) {
+                channel.write(wrapper);
+            }
+        }
+    }
+
+    /**
+     * This class writes the bytes to an output stream
+     */
+    private static final class StreamSink implements ByteSink {
+
+        /**
+         * The output stream
+         */
+        private final OutputStream stream;
+
+        /**
+         * Creates a sink writing to the stream
+         *
+         * @param stream the output stream
+         */
+        StreamSink(final OutputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            stream.flush();
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            stream.write(bytes, offset, length);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class holds the configuration of a serializer when a write call starts.
+ * It is immutable, a change of the serializer creates a new instance
+ * so a call uses the same options and class descriptors until it ends.
+ *
+ * @author Karl STEIN
+ */
+public class WriteConfig {
+
+    /**
+     * The class descriptors, computed from this configuration
+     */
+    private final ClassValue<ClassDescriptor> descriptors;
+    /**
+     * The rules used to select the fields
+     */
+    private final FieldRules fieldRules;
+    /**
+     * The compress output option
+     */
+    private final boolean compressOutput;
+    /**
+     * The cycle detection option
+     */
+    private final boolean cycleDetection;
+    /**
+     * The codec used to write dates
+     */
+    private final DateCodec dateCodec;
+    /**
+     * The indentation character
+     */
+    private final String indentationCharacter;
+    /**
+     * The indentation strings by level (grown when a deeper level is written)
+     */
+    private volatile EncodedText[] indentations = new EncodedText[0];
+    /**
+     * The line separator
+     */
+    private final String lineSeparator;
+    /**
+     * The codec used to write doubles and floats
+     */
+    private final NumberCodec numberCodec;
+    /**
+     * The pool writing large collections in parallel
+     */
+    private final ForkJoinPool parallelPool;
+    /**
+     * The number of elements from which a collection is written in parallel
+     */
+    private final int parallelThreshold;
+
+    /**
+     * Creates the configuration from the current options of the serializer,
+     * it must be called while holding the lock of the serializer
+     *
+     * @param serializer the serializer
+     */
+    protected WriteConfig(final KSerializer serializer) {
+        this.fieldRules = serializer.getFieldRules();
+        this.compressOutput = serializer.isCompressOutput();
+        this.cycleDetection = serializer.isCycleDetection();
+        this.dateCodec = serializer.getDateCodec();
+        this.indentationCharacter = serializer.getIndentationCharacter();
+        this.lineSeparator = serializer.getLineSeparator();
+        this.numberCodec = serializer.getNumberCodec();
+        this.parallelPool = serializer.getParallelPool();
+        this.parallelThreshold = serializer.getParallelThreshold();
+        this.descriptors = new ClassValue<ClassDescriptor>() {
+            @Override
+            protected ClassDescriptor computeValue(final Class<?> type) {
+                return serializer.createDescriptor(type, WriteConfig.this);
+            }
+        };
+    }
+
+    /**
+     * Returns the codec used to write dates
+     *
+     * @return DateCodec
+     */
+    public DateCodec getDateCodec() {
+        return dateCodec;
+    }
+
+    /**
+     * Returns the descriptor of the class
+     *
+     * @param cls the class to describe
+     * @return ClassDescriptor
+     */
+    public ClassDescriptor getDescriptor(final Class<?> cls) {
+        return descriptors.get(cls);
+    }
+
+    /**
+     * Returns the rules used to select the fields
+     *
+     * @return FieldRules
+     */
+    public FieldRules getFieldRules() {
+        return fieldRules;
+    }
+
+    /**
+     * Returns the indentation string of the level, the strings are built once per level
+     *
+     * @param level the indentation level
+     * @return EncodedText
+     */
+    public EncodedText getIndentation(final int level) {
+        final EncodedText[] cache = indentations;
+
+        if (level < cache.length) {
+            return cache[level];
+        }
+        synchronized (this) {
+            final EncodedText[] current = indentations;
+
+            if (level >= current.length) {
+                final EncodedText[] grown = Arrays.copyOf(current, Math.max(level + 1, Math.max(8, current.length * 2)));
+                final StringBuilder builder = new StringBuilder();
+
+                for (int i = 0; i < grown.length; i++) {
+                    if (grown[i] == null) {
+                        grown[i] = new EncodedText(builder.toString());
+                    }
+                    builder.append(indentationCharacter);
+                }
+                indentations = grown;
+                return grown[level];
+            }
+            return current[level];
+        }
+    }
+
+    /**
+     * Returns the indentation character
+     *
+     * @return String
+     */
+    public String getIndentationCharacter() {
+        return indentationCharacter;
+    }
+
+    /**
+     * Returns the line separator
+     *
+     * @return String
+     */
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    /**
+     * Returns the codec used to write doubles and floats
+     *
+     * @return NumberCodec
+     */
+    public NumberCodec getNumberCodec() {
+        return numberCodec;
+    }
+
+    /**
+     * Returns the pool writing large collections in parallel
+     *
+     * @return ForkJoinPool or null if collections are written on the calling thread
+     */
+    public ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    /**
+     * Returns the number of elements from which a collection is written in parallel
+     *
+     * @return int
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Returns the compress output option
+     *
+     * @return boolean
+     */
+    public boolean isCompressOutput() {
+        return compressOutput;
+    }
+
+    /**
+     * Returns the cycle detection option
+     *
+     * @return boolean
+     */
+    public boolean isCycleDetection() {
+        return cycleDetection;
+    }
+}
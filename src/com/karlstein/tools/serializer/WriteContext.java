@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class holds the state of a single write call,
+ * it is created for each call so a serializer can be shared between threads
+ *
+ * @author Karl STEIN
+ */
+public class WriteContext {
+
+    /**
+     * The configuration of the call
+     */
+    private final WriteConfig config;
+    /**
+     * The objects being written (null if cycles are not detected)
+     */
+    private final CycleTracker cycleTracker;
+    /**
+     * The output
+     */
+    private final Output output;
+    /**
+     * The buffer used to render values
+     */
+    private char[] buffer;
+    /**
+     * The indentation level
+     */
+    private int indentationLevel = 0;
+
+    /**
+     * Creates a context writing to the writer with the configuration,
+     * cycles are detected if the configuration enables it
+     *
+     * @param writer the writer
+     * @param config the configuration of the call
+     */
+    public WriteContext(final Writer writer, final WriteConfig config) {
+        this(writer, config, config.isCycleDetection() ? new CycleTracker() : null);
+    }
+
+    /**
+     * Creates a context writing to the writer
+     *
+     * @param writer       the writer
+     * @param config       the configuration of the call
+     * @param cycleTracker the tracker of the objects being written or null to not detect cycles
+     */
+    private WriteContext(final Writer writer, final WriteConfig config, final CycleTracker cycleTracker) {
+        this.output = Output.of(writer);
+        this.config = config;
+        this.cycleTracker = cycleTracker;
+    }
+
+    /**
+     * Writes a sequence of characters
+     *
+     * @param value the characters
+     * @throws IOException
+     */
+    public void append(final CharSequence value) throws IOException {
+        output.append(value);
+    }
+
+    /**
+     * Decreases the indentation level
+     */
+    public void decreaseIndentation() {
+        indentationLevel--;
+    }
+
+    /**
+     * Marks the object as being written
+     *
+     * @param object the object
+     */
+    public void enter(final Object object) {
+        if (cycleTracker != null) {
+            cycleTracker.push(object);
+        }
+    }
+
+    /**
+     * Marks the object as written
+     *
+     * @param object the object, it must be the last object entered
+     */
+    public void exit(final Object object) {
+        if (cycleTracker != null) {
+            cycleTracker.pop(object);
+        }
+    }
+
+    /**
+     * Creates a context writing to another writer from the current state and configuration of this one,
+     * it is used to write a part of the output on another thread
+     *
+     * @param writer the writer
+     * @return WriteContext
+     */
+    public WriteContext fork(final Writer writer) {
+        final WriteContext context = new WriteContext(writer, config, cycleTracker != null ? cycleTracker.copy() : null);
+        context.indentationLevel = indentationLevel;
+        return context;
+    }
+
+    /**
+     * Returns a buffer of at least the given size, the buffer is reused by the next calls
+     *
+     * @param size the minimal size
+     * @return char[]
+     */
+    public char[] getBuffer(final int size) {
+        if (buffer == null || buffer.length < size) {
+            buffer = new char[Math.max(size, 32)];
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the configuration of the call
+     *
+     * @return WriteConfig
+     */
+    public WriteConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the indentation level
+     *
+     * @return int
+     */
+    public int getIndentationLevel() {
+        return indentationLevel;
+    }
+
+    /**
+     * Returns the output
+     *
+     * @return Output
+     */
+    public Output getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns the output as a writer
+     *
+     * @return Writer
+     */
+    public Writer getWriter() {
+        return output;
+    }
+
+    /**
+     * Increases the indentation level
+     */
+    public void increaseIndentation() {
+        indentationLevel++;
+    }
+
+    /**
+     * Checks if the object is being written, objects are compared by identity
+     *
+     * @param object the object
+     * @return boolean
+     */
+    public boolean isIgnored(final Object object) {
+        return cycleTracker != null && cycleTracker.contains(object);
+    }
+
+    /**
+     * Writes a pre-encoded text
+     *
+     * @param text the text
+     * @throws IOException
+     */
+    public void write(final EncodedText text) throws IOException {
+        output.write(text);
+    }
+
+    /**
+     * Writes a character
+     *
+     * @param c the character
+     * @throws IOException
+     */
+    public void write(final int c) throws IOException {
+        output.write(c);
+    }
+
+    /**
+     * Writes characters from an array
+     *
+     * @param chars  the characters
+     * @param offset the offset of the first character
+     * @param length the number of characters
+     * @throws IOException
+     */
+    public void write(final char[] chars, final int offset, final int length) throws IOException {
+        output.write(chars, offset, length);
+    }
+
+    /**
+     * Writes a string
+     *
+     * @param value the string
+     * @throws IOException
+     */
+    public void write(final String value) throws IOException {
+        output.write(value);
+    }
+
+    /**
+     * Writes a part of a string
+     *
+     * @param value  the string
+     * @param offset the offset of the first character
+     * @param length the number of characters
+     * @throws IOException
+     */
+    public void write(final String value, final int offset, final int length) throws IOException {
+        output.write(value, offset, length);
+    }
+}
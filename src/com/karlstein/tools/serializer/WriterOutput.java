@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.karlstein.tools.serializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class adapts a writer to the {@link Output} of the serializers
+ *
+ * @author Karl STEIN
+ */
+public final class WriterOutput extends Output {
+
+    /**
+     * The writer
+     */
+    private final Writer writer;
+
+    /**
+     * Creates an output writing to the writer
+     *
+     * @param writer the writer
+     */
+    public WriterOutput(final Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Returns the writer
+     *
+     * @return Writer
+     */
+    public Writer getWriter() {
+        return writer;
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        writer.write(c);
+    }
+
+    @Override
+    public void write(final char[] chars, final int offset, final int length) throws IOException {
+        writer.write(chars, offset, length);
+    }
+
+    @Override
+    public void write(final String value) throws IOException {
+        writer.write(value);
+    }
+
+    @Override
+    public void write(final String value, final int offset, final int length) throws IOException {
+        writer.write(value, offset, length);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.karlstein.tools.serializer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class reads the child elements of the XML root one at a time,
+ * only the current element is held in memory.
+ * The stream reader is closed when the end of the root is reached or when the iterator is closed,
+ * the underlying reader is never closed.
+ *
+ * @param <T> the element type
+ * @author Karl STEIN
+ */
+public final class XmlElementIterator<T> implements Iterator<T>, Closeable {
+
+    /**
+     * The serializer binding the elements
+     */
+    private final XmlSerializer serializer;
+    /**
+     * The element type
+     */
+    private final Class<T> type;
+    /**
+     * The stream reader (null when closed)
+     */
+    private XMLStreamReader xml;
+    /**
+     * The flag of an element started and not read yet
+     */
+    private boolean started = false;
+
+    /**
+     * Creates an iterator over the children of the root the stream reader is positioned on
+     *
+     * @param serializer the serializer binding the elements
+     * @param type       the element type
+     * @param xml        the stream reader, on the start of the root
+     */
+    XmlElementIterator(final XmlSerializer serializer, final Class<T> type, final XMLStreamReader xml) {
+        this.serializer = serializer;
+        this.type = type;
+        this.xml = xml;
+    }
+
+    /**
+     * Stops the iteration and closes the stream reader
+     */
+    @Override
+    public void close() {
+        if (xml != null) {
+            try {
+                xml.close();
+            } catch (final XMLStreamException ignored) {
+                // The reader is not closed by the stream reader
+            }
+            xml = null;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (xml == null) {
+            return false;
+        } else if (started) {
+            return true;
+        }
+        try {
+            if (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                started = true;
+                return true;
+            }
+            close();
+            return false;
+
+        } catch (final XMLStreamException e) {
+            close();
+            throw new IllegalArgumentException("Cannot read the elements of " + type.getName(), e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        started = false;
+
+        try {
+            return (T) serializer.readValue(type, xml);
+        } catch (final XMLStreamException e) {
+            close();
+            throw new IllegalArgumentException("Cannot read the elements of " + type.getName(), e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
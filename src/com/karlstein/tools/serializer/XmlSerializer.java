@@ -16,12 +16,20 @@
 
 package com.karlstein.tools.serializer;
 
-import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.text.SimpleDateFormat;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class is used to read/write XML data
@@ -30,18 +38,43 @@ import java.util.*;
  */
 public class XmlSerializer extends KSerializer {
 
+    /**
+     * The index of the open tag in the tag tokens
+     */
+    protected static final int OPEN_TAG = 0;
+    /**
+     * The index of the open tag without its end in the tag tokens
+     */
+    protected static final int OPEN_TAG_START = 1;
+    /**
+     * The index of the close tag in the tag tokens
+     */
+    protected static final int CLOSE_TAG = 2;
+    /**
+     * The index of the attribute name, equal sign and quote in the tag tokens
+     */
+    protected static final int ATTRIBUTE_PREFIX = 3;
+    /**
+     * The factory of the stream readers, DTDs and external entities are not supported
+     */
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
     /**
      * The attributes
      */
-    private Map<Class<?>, Set<String>> attributes = new HashMap<Class<?>, Set<String>>();
+    private volatile Map<Class<?>, Set<String>> attributes = Collections.emptyMap();
     /**
      * The encoding
      */
-    private String encoding = "UTF-8";
+    private volatile String encoding = "UTF-8";
     /**
      * The object namespaces
      */
     private Map<String, String> namespaces = new HashMap<String, String>();
+    /**
+     * The tag tokens by node name
+     */
+    private final ConcurrentMap<String, EncodedText[]> tags = new ConcurrentHashMap<String, EncodedText[]>();
 
     /**
      * Creates an XML converter
@@ -57,11 +90,100 @@ public class XmlSerializer extends KSerializer {
      * @param cls   the target class
      * @param field the target field
      */
-    public void asAttribute(final Class<?> cls, final String field) {
-        if (!attributes.containsKey(cls)) {
-            attributes.put(cls, new HashSet<String>());
+    public synchronized void asAttribute(final Class<?> cls, final String field) {
+        attributes = FieldRules.with(attributes, cls, field);
+        invalidateConfig();
+    }
+
+    @Override
+    protected void closeArrayElement(final int index, final Class<?> type, final WriteContext context) throws IOException {
+        context.write(getTags(getElementName(type))[CLOSE_TAG]);
+        writeLineFeed(context);
+    }
+
+    @Override
+    protected WriteConfig createConfig() {
+        return new Config(this);
+    }
+
+    @Override
+    protected ClassDescriptor createDescriptor(final Class<?> cls, final WriteConfig config) throws SecurityException {
+        final ClassDescriptor descriptor = super.createDescriptor(cls, config);
+
+        // Build the tags and the attribute prefix of each field once
+        for (final FieldAccessor field : descriptor.fields) {
+            field.setTokens(getTags(field.getName()));
+            descriptor.setNodeName(getNodeName(field.getName()), field);
+        }
+        return descriptor;
+    }
+
+    /**
+     * Creates the factory of the stream readers
+     *
+     * @return XMLInputFactory
+     */
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * Creates a stream reader positioned on the root element
+     *
+     * @param reader the reader, it is not closed by the stream reader
+     * @return XMLStreamReader
+     * @throws XMLStreamException
+     */
+    private static XMLStreamReader createStreamReader(final Reader reader) throws XMLStreamException {
+        final XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(reader);
+
+        try {
+            xml.nextTag();
+        } catch (final XMLStreamException e) {
+            xml.close();
+            throw e;
         }
-        attributes.get(cls).add(field);
+        return xml;
+    }
+
+    /**
+     * Creates the tag tokens of a node, indexed by {@link #OPEN_TAG}, {@link #OPEN_TAG_START},
+     * {@link #CLOSE_TAG} and {@link #ATTRIBUTE_PREFIX}
+     *
+     * @param nodeName the normalized node name
+     * @return EncodedText[]
+     */
+    protected static EncodedText[] createTags(final String nodeName) {
+        return new EncodedText[]{
+                new EncodedText("<" + nodeName + ">"),
+                new EncodedText("<" + nodeName),
+                new EncodedText("</" + nodeName + ">"),
+                new EncodedText(" " + nodeName + "=\"")
+        };
+    }
+
+    /**
+     * Checks if the encoding is UTF-8
+     *
+     * @return boolean
+     */
+    private boolean isUtf8() {
+        return "UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding);
+    }
+
+    @Override
+    protected Output createOutput(final OutputStream stream) throws IOException {
+        // Encode directly to UTF-8 or use the charset of the encoding
+        return isUtf8() ? super.createOutput(stream) : new WriterOutput(new OutputStreamWriter(stream, encoding));
+    }
+
+    @Override
+    protected Output createOutput(final WritableByteChannel channel) throws IOException {
+        return isUtf8() ? super.createOutput(channel) : new WriterOutput(Channels.newWriter(channel, encoding));
     }
 
     /**
@@ -70,16 +192,8 @@ public class XmlSerializer extends KSerializer {
      * @param value the value to escape
      * @return CharSequence
      */
-    protected CharSequence escapeAttribute(String value) {
-        if (value != null) {
-            value = value.replace("\"", "&quot;");
-            value = value.replace("<", "&lt;");
-            value = value.replace(">", "&gt;");
-
-            // Removes the line separator
-            value = value.replaceAll("\\r|\\n", "");
-        }
-        return value;
+    protected CharSequence escapeAttribute(final String value) {
+        return value != null ? Escaper.xmlAttribute().escape(value) : null;
     }
 
     /**
@@ -88,12 +202,8 @@ public class XmlSerializer extends KSerializer {
      * @param value the value to escape
      * @return CharSequence
      */
-    protected CharSequence escapeValue(String value) {
-        if (value != null) {
-            value = value.replace("<", "&lt;");
-            value = value.replace(">", "&gt;");
-        }
-        return value;
+    protected CharSequence escapeValue(final String value) {
+        return value != null ? Escaper.xmlText().escape(value) : null;
     }
 
     /**
@@ -106,6 +216,31 @@ public class XmlSerializer extends KSerializer {
         return attributes.get(cls);
     }
 
+    /**
+     * Returns the node name of the primitive array elements
+     *
+     * @param type the primitive type
+     * @return String
+     */
+    private static String getElementName(final Class<?> type) {
+        if (type == Boolean.TYPE) {
+            return "Boolean";
+        } else if (type == Byte.TYPE) {
+            return "Byte";
+        } else if (type == Character.TYPE) {
+            return "Character";
+        } else if (type == Double.TYPE) {
+            return "Double";
+        } else if (type == Float.TYPE) {
+            return "Float";
+        } else if (type == Integer.TYPE) {
+            return "Integer";
+        } else if (type == Long.TYPE) {
+            return "Long";
+        }
+        return "Short";
+    }
+
     /**
      * Returns the encoding
      *
@@ -116,22 +251,28 @@ public class XmlSerializer extends KSerializer {
     }
 
     /**
-     * Returns the node attributes
+     * Returns the fields of the accessors
      *
-     * @param cls the class to parse
+     * @param accessors the field accessors
      * @return Set
      */
-    protected Set<Field> getNodeAttributes(final Class<?> cls) {
-        final Set<Field> attr = new HashSet<Field>();
-        final Set<Field> fields = getFields(cls);
+    private static Set<Field> getFieldSet(final FieldAccessor[] accessors) {
+        final Set<Field> fields = new LinkedHashSet<Field>();
 
-        for (final Field field : fields) {
-            if (attributes.containsKey(cls) && attributes.get(cls).contains(field.getName())) {
-                attr.add(field);
-            }
+        for (final FieldAccessor accessor : accessors) {
+            fields.add(accessor.getField());
         }
+        return fields;
+    }
 
-        return attr;
+    /**
+     * Returns the node attributes
+     *
+     * @param cls the class to parse
+     * @return Set
+     */
+    protected Set<Field> getNodeAttributes(final Class<?> cls) {
+        return getFieldSet(getDescriptor(cls).attributes);
     }
 
     /**
@@ -141,16 +282,7 @@ public class XmlSerializer extends KSerializer {
      * @return Set
      */
     protected Set<Field> getNodeChildren(final Class<?> cls) {
-        final Set<Field> children = new HashSet<Field>();
-        final Set<Field> fields = getFields(cls);
-
-        for (final Field field : fields) {
-            if (!attributes.containsKey(cls) || !attributes.get(cls).contains(field.getName())) {
-                children.add(field);
-            }
-        }
-
-        return children;
+        return getFieldSet(getDescriptor(cls).children);
     }
 
     /**
@@ -163,6 +295,32 @@ public class XmlSerializer extends KSerializer {
         return cls.getSimpleName();
     }
 
+    /**
+     * Returns the normalized node name of a field or class name
+     *
+     * @param name the name
+     * @return String
+     */
+    private String getNodeName(final String name) {
+        return normalize("") + normalize(name);
+    }
+
+    /**
+     * Returns the tag tokens of a node, they are built once per name
+     *
+     * @param name the node name, it is normalized
+     * @return EncodedText[]
+     */
+    protected final EncodedText[] getTags(final String name) {
+        EncodedText[] nodeTags = tags.get(name);
+
+        if (nodeTags == null) {
+            nodeTags = createTags(getNodeName(name));
+            tags.putIfAbsent(name, nodeTags);
+        }
+        return nodeTags;
+    }
+
     /**
      * Returns the node namespace
      *
@@ -173,6 +331,23 @@ public class XmlSerializer extends KSerializer {
         return cls.getPackage().getName();
     }
 
+    @Override
+    protected void openArrayElement(final int index, final Class<?> type, final WriteContext context) throws IOException {
+        writeIndentation(context);
+        context.write(getTags(getElementName(type))[OPEN_TAG]);
+    }
+
+    @Override
+    protected boolean isAttribute(final Class<?> cls, final Field field, final WriteConfig config) {
+        final Set<String> fields = ((Config) config).attributes.get(cls);
+        final KSerializable annotation = cls.getAnnotation(KSerializable.class);
+
+        if (annotation != null && Arrays.asList(annotation.attributes()).contains(field.getName())) {
+            return true;
+        }
+        return fields != null && fields.contains(field.getName());
+    }
+
     /**
      * Checks if the object is a value
      *
@@ -202,9 +377,261 @@ public class XmlSerializer extends KSerializer {
         return name.replaceAll("[^A-Za-z0-9]", "");
     }
 
+    /**
+     * Parses the text of an element or an attribute, empty texts are read as null except for strings
+     *
+     * @param text the text
+     * @param cls  the value type
+     * @return Object
+     * @throws IllegalArgumentException if the text is not valid or the type cannot be read from a text
+     */
+    protected Object parseText(final String text, final Class<?> cls) {
+        final FieldAccessor.Kind kind = FieldAccessor.getKind(cls);
+
+        if (kind == FieldAccessor.Kind.STRING || kind == FieldAccessor.Kind.CHAR) {
+            return text.isEmpty() && kind == FieldAccessor.Kind.CHAR ? null : parseValue(text, cls);
+        }
+        final String value = text.trim();
+
+        if (value.isEmpty()) {
+            return null;
+        } else if (kind != FieldAccessor.Kind.OBJECT) {
+            return parseValue(value, cls);
+        } else if (cls.isAssignableFrom(String.class)) {
+            return text;
+        } else if (Number.class.isAssignableFrom(cls)) {
+            // Other numbers like BigDecimal
+            try {
+                return cls.getConstructor(String.class).newInstance(value);
+            } catch (final Exception e) {
+                throw new IllegalArgumentException("Cannot create a number of type " + cls.getName(), e);
+            }
+        }
+        throw new IllegalArgumentException("Cannot read " + cls.getName() + " from a text");
+    }
+
     @Override
-    public <T> T read(Class<T> cls, Reader reader) {
-        return null;
+    @SuppressWarnings("unchecked")
+    public <T> T read(final Class<T> cls, final Reader reader) {
+        XMLStreamReader xml = null;
+
+        try {
+            xml = createStreamReader(reader);
+            return (T) readValue(cls, xml);
+        } catch (final XMLStreamException e) {
+            throw new IllegalArgumentException("Cannot read " + cls.getName(), e);
+        } finally {
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (final XMLStreamException ignored) {
+                    // The reader is not closed by the stream reader
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the child elements of the root one at a time, the whole document is never held in memory
+     *
+     * @param cls    the element type
+     * @param reader the reader
+     * @param <T>    the element type
+     * @return XmlElementIterator
+     */
+    public <T> XmlElementIterator<T> readElements(final Class<T> cls, final Reader reader) {
+        try {
+            return new XmlElementIterator<T>(this, cls, createStreamReader(reader));
+        } catch (final XMLStreamException e) {
+            throw new IllegalArgumentException("Cannot read the elements of " + cls.getName(), e);
+        }
+    }
+
+    /**
+     * Reads an array from the child elements
+     *
+     * @param cls  the array type
+     * @param type the generic array type
+     * @param xml  the stream reader, on the start of the element
+     * @return Object
+     * @throws XMLStreamException
+     */
+    protected Object readArray(final Class<?> cls, final Type type, final XMLStreamReader xml) throws XMLStreamException {
+        final Type componentType = type instanceof GenericArrayType
+                ? ((GenericArrayType) type).getGenericComponentType() : cls.getComponentType();
+        final List<Object> elements = new ArrayList<Object>();
+
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            elements.add(readValue(componentType, xml));
+        }
+
+        final Object array = Array.newInstance(cls.getComponentType(), elements.size());
+
+        for (int i = 0; i < elements.size(); i++) {
+            // Primitive elements without value keep their default value
+            if (elements.get(i) != null) {
+                Array.set(array, i, elements.get(i));
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Reads a collection from the child elements
+     *
+     * @param cls  the collection type
+     * @param type the generic collection type
+     * @param xml  the stream reader, on the start of the element
+     * @return Collection
+     * @throws XMLStreamException
+     */
+    protected Collection<?> readCollection(final Class<?> cls, final Type type, final XMLStreamReader xml) throws XMLStreamException {
+        final Collection<Object> collection = createCollection(cls);
+        final Type elementType = getTypeArgument(type, 0);
+
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            collection.add(readValue(elementType, xml));
+        }
+        return collection;
+    }
+
+    /**
+     * Reads an element without target type, elements with attributes or children are read as maps
+     * by local name and the others as strings
+     *
+     * @param xml the stream reader, on the start of the element
+     * @return Object
+     * @throws XMLStreamException
+     */
+    protected Object readNatural(final XMLStreamReader xml) throws XMLStreamException {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        final StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < xml.getAttributeCount(); i++) {
+            map.put(xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+        }
+
+        int event = xml.next();
+
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                final String name = xml.getLocalName();
+                map.put(name, readNatural(xml));
+
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                text.append(xml.getText());
+            }
+            event = xml.next();
+        }
+        return map.isEmpty() ? text.toString() : map;
+    }
+
+    /**
+     * Reads an object, the attributes and the child elements are bound to the fields by their node name
+     * so only the fields that would be written are read, the others are skipped.
+     * Maps are skipped since their keys are not written.
+     *
+     * @param cls the object type
+     * @param xml the stream reader, on the start of the element
+     * @return Object
+     * @throws XMLStreamException
+     */
+    protected Object readObject(final Class<?> cls, final XMLStreamReader xml) throws XMLStreamException {
+        final ClassDescriptor descriptor = getDescriptor(cls);
+        final Object object = descriptor.newInstance();
+
+        for (int i = 0; i < xml.getAttributeCount(); i++) {
+            final FieldAccessor field = descriptor.getNodeField(xml.getAttributeLocalName(i));
+
+            if (field == null || !field.isWritable()) {
+                continue;
+            }
+            if (field.isPrimitive()) {
+                readPrimitive(field, object, xml.getAttributeValue(i));
+            } else {
+                field.set(object, parseText(xml.getAttributeValue(i), field.getType()));
+            }
+        }
+
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            final FieldAccessor field = descriptor.getNodeField(xml.getLocalName());
+
+            if (field == null || !field.isWritable() || Map.class.isAssignableFrom(field.getType())) {
+                skipElement(xml);
+
+            } else if (field.isPrimitive()) {
+                readPrimitive(field, object, xml.getElementText());
+
+            } else {
+                field.set(object, readValue(field.getGenericType(), xml));
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Reads the value of a primitive field without boxing it, an empty text keeps the current value
+     *
+     * @param field  the primitive field
+     * @param object the object containing the field
+     * @param text   the text of the element or the attribute
+     */
+    protected void readPrimitive(final FieldAccessor field, final Object object, final String text) {
+        final String value = field.getKind() == FieldAccessor.Kind.CHAR ? text : text.trim();
+
+        if (value.isEmpty()) {
+            return;
+        }
+        switch (field.getKind()) {
+            case BOOLEAN:
+                field.setBoolean(object, Boolean.parseBoolean(value));
+                break;
+            case BYTE:
+                field.setByte(object, Byte.parseByte(value));
+                break;
+            case CHAR:
+                field.setChar(object, (Character) parseValue(value, Character.TYPE));
+                break;
+            case SHORT:
+                field.setShort(object, Short.parseShort(value));
+                break;
+            case INT:
+                field.setInt(object, Integer.parseInt(value));
+                break;
+            case LONG:
+                field.setLong(object, Long.parseLong(value));
+                break;
+            case FLOAT:
+                field.setFloat(object, Float.parseFloat(value));
+                break;
+            default:
+                field.setDouble(object, Double.parseDouble(value));
+        }
+    }
+
+    /**
+     * Reads the element of a value of the given type, the stream reader is left on the end of the element
+     *
+     * @param type the value type
+     * @param xml  the stream reader, on the start of the element
+     * @return Object
+     * @throws XMLStreamException
+     */
+    protected Object readValue(final Type type, final XMLStreamReader xml) throws XMLStreamException {
+        final Class<?> cls = getRawType(type);
+
+        if (FieldAccessor.getKind(cls) != FieldAccessor.Kind.OBJECT || Number.class.isAssignableFrom(cls)) {
+            return parseText(xml.getElementText(), cls);
+        } else if (cls.equals(Object.class)) {
+            return readNatural(xml);
+        } else if (cls.isArray()) {
+            return readArray(cls, type, xml);
+        } else if (Collection.class.isAssignableFrom(cls)) {
+            return readCollection(cls, type, xml);
+        } else if (Map.class.isAssignableFrom(cls)) {
+            throw new IllegalArgumentException("Cannot read the map " + cls.getName() + ", the keys are not written");
+        }
+        return readObject(cls, xml);
     }
 
     /**
@@ -216,9 +643,29 @@ public class XmlSerializer extends KSerializer {
         this.encoding = encoding;
     }
 
+    /**
+     * Skips an element and its children
+     *
+     * @param xml the stream reader, on the start of the element
+     * @throws XMLStreamException
+     */
+    protected static void skipElement(final XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+
+        while (depth > 0) {
+            final int event = xml.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
     @Override
-    public Writer write(final Object object, final Writer writer) throws IOException, IllegalArgumentException, IllegalAccessException {
-        return writeNode(object, writer);
+    protected WriteContext write(final Object object, final WriteContext context) throws IOException {
+        return writeNode(object, context);
     }
 
     /**
@@ -231,32 +678,108 @@ public class XmlSerializer extends KSerializer {
      * @throws IOException
      * @throws IllegalAccessException
      */
-    public Writer write(final String nodeName, final Collection<?> collection, final Writer writer) throws IOException, IllegalAccessException {
-        // Open the node
-        writeIndentation(writer);
-        writer.write("<" + nodeName + ">");
-        writeLineFeed(writer);
+    public Writer write(final String nodeName, final Collection<?> collection, final Writer writer) throws IOException {
+        write(nodeName, collection, createContext(writer));
+        return writer;
+    }
 
-        for (final Object object : collection) {
-            // Check if the object should be ignored
-            if (object != null && ignoredObjects.contains(object)) {
-                continue;
-            }
+    /**
+     * Writes a collection
+     *
+     * @param nodeName   the name of the node
+     * @param collection the collection object
+     * @param context    the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final String nodeName, final Collection<?> collection, final WriteContext context) throws IOException {
+        return write(createTags(nodeName), collection, context);
+    }
 
-            // Add the element
-            increaseIndentation();
-            writeNode(object, writer);
-            decreaseIndentation();
-        }
+    /**
+     * Writes a collection
+     *
+     * @param nodeTags   the tag tokens of the node
+     * @param collection the collection object
+     * @param context    the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final EncodedText[] nodeTags, final Collection<?> collection, final WriteContext context) throws IOException {
+        // Open the node
+        writeIndentation(context);
+        context.write(nodeTags[OPEN_TAG]);
+        writeLineFeed(context);
+
+        // Add the elements
+        context.increaseIndentation();
+        writeElements(collection, context);
+        context.decreaseIndentation();
 
         // Close the node
-        writeIndentation(writer);
-        writer.write("</" + nodeName + ">");
-        writeLineFeed(writer);
+        writeIndentation(context);
+        context.write(nodeTags[CLOSE_TAG]);
+        writeLineFeed(context);
+
+        return context;
+    }
 
+    /**
+     * Writes the elements of an iterator in a node, each element is written as it is produced
+     *
+     * @param nodeName the name of the node
+     * @param elements the elements
+     * @param writer   the writer
+     * @return Writer
+     * @throws IOException
+     */
+    public Writer write(final String nodeName, final Iterator<?> elements, final Writer writer) throws IOException {
+        write(createTags(nodeName), elements, createContext(writer));
+        return writer;
+    }
+
+    /**
+     * Writes the elements of an iterable in a node, each element is written as it is produced
+     *
+     * @param nodeName the name of the node
+     * @param elements the elements
+     * @param writer   the writer
+     * @return Writer
+     * @throws IOException
+     */
+    public Writer write(final String nodeName, final Iterable<?> elements, final Writer writer) throws IOException {
+        write(createTags(nodeName), elements.iterator(), createContext(writer));
         return writer;
     }
 
+    /**
+     * Writes the elements of an iterator in a node
+     *
+     * @param nodeTags the tag tokens of the node
+     * @param elements the elements
+     * @param context  the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final EncodedText[] nodeTags, final Iterator<?> elements, final WriteContext context) throws IOException {
+        // Open the node
+        writeIndentation(context);
+        context.write(nodeTags[OPEN_TAG]);
+        writeLineFeed(context);
+
+        // Add the elements
+        context.increaseIndentation();
+        writeElements(elements, context);
+        context.decreaseIndentation();
+
+        // Close the node
+        writeIndentation(context);
+        context.write(nodeTags[CLOSE_TAG]);
+        writeLineFeed(context);
+
+        return context;
+    }
+
     /**
      * Writes a map
      *
@@ -267,56 +790,108 @@ public class XmlSerializer extends KSerializer {
      * @throws IOException
      * @throws IllegalAccessException
      */
-    public Writer write(final String nodeName, final Map<?, ?> map, final Writer writer) throws IOException, IllegalAccessException {
+    public Writer write(final String nodeName, final Map<?, ?> map, final Writer writer) throws IOException {
+        write(nodeName, map, createContext(writer));
+        return writer;
+    }
+
+    /**
+     * Writes a map
+     *
+     * @param nodeName the name of the node
+     * @param map      the object to write
+     * @param context  the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final String nodeName, final Map<?, ?> map, final WriteContext context) throws IOException {
+        return write(createTags(nodeName), map, context);
+    }
+
+    /**
+     * Writes a map
+     *
+     * @param nodeTags the tag tokens of the node
+     * @param map      the object to write
+     * @param context  the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext write(final EncodedText[] nodeTags, final Map<?, ?> map, final WriteContext context) throws IOException {
         // Open the node
-        writeIndentation(writer);
-        writer.write("<" + nodeName + ">");
-        writeLineFeed(writer);
+        writeIndentation(context);
+        context.write(nodeTags[OPEN_TAG]);
+        writeLineFeed(context);
 
         for (final Object key : map.keySet()) {
             final Object element = map.get(key);
 
             // Check if the element should be ignored
-            if (element != null && ignoredObjects.contains(element)) {
+            if (element != null && context.isIgnored(element)) {
                 continue;
             }
 
             // Add the element
-            increaseIndentation();
-            writeNode(element, writer);
-            decreaseIndentation();
+            context.increaseIndentation();
+            writeNode(element, context);
+            context.decreaseIndentation();
         }
 
         // Close the node
-        writeIndentation(writer);
-        writer.write("</" + nodeName + ">");
-        writeLineFeed(writer);
+        writeIndentation(context);
+        context.write(nodeTags[CLOSE_TAG]);
+        writeLineFeed(context);
 
-        return writer;
+        return context;
     }
 
     /**
      * Writes an attribute
      *
-     * @param name   the name of the attribute
-     * @param value  the value of the attribute
-     * @param writer the writer
-     * @return Writer
+     * @param name    the name of the attribute
+     * @param value   the value of the attribute
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeAttribute(final String name, final Object value, final WriteContext context) throws IOException {
+        return writeAttribute(getTags(name)[ATTRIBUTE_PREFIX], value, context);
+    }
+
+    /**
+     * Writes an attribute
+     *
+     * @param prefix  the attribute name, equal sign and quote
+     * @param value   the value of the attribute
+     * @param context the write context
+     * @return WriteContext
      * @throws IOException
      */
-    protected Writer writeAttribute(final String name, final Object value, final Writer writer) throws IOException {
+    protected WriteContext writeAttribute(final EncodedText prefix, final Object value, final WriteContext context) throws IOException {
         // Add the attribute name and open the value
-        writer.write(" " + normalize(name) + "=\"");
+        context.write(prefix);
 
-        if (value != null) {
+        if (Number.class.isInstance(value) && FieldAccessor.getKind(value.getClass()) != FieldAccessor.Kind.OBJECT) {
+            // Numbers never need to be escaped
+            writeTypedValue(FieldAccessor.getKind(value.getClass()), value, context);
+
+        } else if (value instanceof Date) {
+            // Dates are written with the codec, like the element values
+            writeDate((Date) value, context);
+
+        } else if (value instanceof Enum) {
+            // The name is read back by Enum.valueOf, toString may be overridden
+            Escaper.xmlAttribute().escape(((Enum<?>) value).name(), context);
+
+        } else if (value != null) {
             // Escape the value
-            writer.append(escapeAttribute(String.valueOf(value)));
+            Escaper.xmlAttribute().escape(String.valueOf(value), context);
         }
 
         // Close the attribute value
-        writer.append("\"");
+        context.write('"');
 
-        return writer;
+        return context;
     }
 
     /**
@@ -328,18 +903,31 @@ public class XmlSerializer extends KSerializer {
      * @throws IOException
      */
     public Writer writeComment(final String comment, final Writer writer) throws IOException {
+        writeComment(comment, createContext(writer));
+        return writer;
+    }
+
+    /**
+     * Writes a comment
+     *
+     * @param comment the comment
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeComment(final String comment, final WriteContext context) throws IOException {
         // Open the comment
-        writeIndentation(writer);
-        writer.append("<!-- ");
+        writeIndentation(context);
+        context.write("<!-- ");
 
         // Add the value
-        writer.append(comment);
+        context.append(comment);
 
         // Close the comment
-        writer.append(" -->");
-        writeLineFeed(writer);
+        context.write(" -->");
+        writeLineFeed(context);
 
-        return writer;
+        return context;
     }
 
     /**
@@ -354,101 +942,229 @@ public class XmlSerializer extends KSerializer {
         return writer;
     }
 
+    /**
+     * Writes the header to the stream, in the encoding of the serializer
+     *
+     * @param stream the output stream, it is not closed
+     * @return OutputStream
+     * @throws IOException
+     */
+    public OutputStream writeHeader(final OutputStream stream) throws IOException {
+        final Output output = createOutput(stream);
+
+        try {
+            writeHeader(output);
+        } finally {
+            output.release();
+        }
+        return stream;
+    }
+
     @Override
-    protected Writer writeLineFeed(Writer writer) throws IOException {
-        return compressOutput ? writer : super.writeLineFeed(writer);
+    protected WriteContext writeLineFeed(final WriteContext context) throws IOException {
+        return context.getConfig().isCompressOutput() ? context : super.writeLineFeed(context);
+    }
+
+    @Override
+    protected WriteContext writeChar(final char value, final WriteContext context) throws IOException {
+        Escaper.xmlText().escape(value, context);
+        return context;
+    }
+
+    @Override
+    protected void writeElement(final Object element, final int index, final WriteContext context) throws IOException {
+        writeNode(element, context);
     }
 
     /**
      * Writes a node
      *
-     * @param object the object to write
-     * @param writer the writer
-     * @return Writer
+     * @param object  the object to write
+     * @param context the write context
+     * @return WriteContext
      * @throws IOException
-     * @throws IllegalAccessException
      */
-    protected Writer writeNode(final Object object, final Writer writer) throws IOException, IllegalAccessException {
-        final String name = object.getClass().getSimpleName();
-        return writeNode(name, object, writer);
+    protected WriteContext writeNode(final Object object, final WriteContext context) throws IOException {
+        return writeNode(getTags(object.getClass().getSimpleName()), object, context);
     }
 
     /**
      * Writes a node with the given name
      *
-     * @param name   the nae of the node
-     * @param object the object to write
-     * @param writer the writer
-     * @return Writer
+     * @param name    the nae of the node
+     * @param object  the object to write
+     * @param context the write context
+     * @return WriteContext
      * @throws IOException
-     * @throws IllegalAccessException
      */
-    protected Writer writeNode(final String name, final Object object, final Writer writer) throws IOException, IllegalAccessException {
+    protected WriteContext writeNode(final String name, final Object object, final WriteContext context) throws IOException {
+        return object != null ? writeNode(getTags(name), object, context) : context;
+    }
+
+    /**
+     * Writes a node with the given tags
+     *
+     * @param nodeTags the tag tokens of the node
+     * @param object   the object to write
+     * @param context  the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeNode(final EncodedText[] nodeTags, final Object object, final WriteContext context) throws IOException {
         if (object != null) {
             final Class<?> cls = object.getClass();
-            final String nodeName = normalize("") + normalize(name);
 
             if (List.class.isInstance(object) || Set.class.isInstance(object)) {
-                write(nodeName, (Collection<?>) object, writer);
+                write(nodeTags, (Collection<?>) object, context);
 
             } else if (Map.class.isInstance(object)) {
-                write(nodeName, (Map<?, ?>) object, writer);
+                write(nodeTags, (Map<?, ?>) object, context);
+
+            } else if (cls.isArray() && !cls.getComponentType().isPrimitive()) {
+                write(nodeTags, Arrays.asList((Object[]) object), context);
 
             } else if (cls.isArray()) {
-                write(nodeName, getCollectionFromObject(object), writer);
+                // Open the node
+                writeIndentation(context);
+                context.write(nodeTags[OPEN_TAG]);
+                writeLineFeed(context);
+
+                // Add the elements
+                context.increaseIndentation();
+                writePrimitiveArray(object, context);
+                context.decreaseIndentation();
+
+                // Close the node
+                writeIndentation(context);
+                context.write(nodeTags[CLOSE_TAG]);
+                writeLineFeed(context);
 
             } else {
                 // TODO get the namespace
 
+                final boolean value = isValue(object);
+
                 // Check if the object should be ignored
-                if (ignoredObjects.contains(object)) {
-                    return writer;
+                if (!value && context.isIgnored(object)) {
+                    return context;
                 }
 
-                // Ignore this class next time
-                ignoredObjects.add(object);
-
                 // Open the node
-                writeIndentation(writer);
-                writer.write("<" + nodeName);
+                writeIndentation(context);
+                context.write(nodeTags[OPEN_TAG_START]);
 
                 // Get the attributes
-                final Set<Field> attributes = getNodeAttributes(cls);
+                final ClassDescriptor descriptor = value ? null : context.getConfig().getDescriptor(cls);
 
-                for (Field field : attributes) {
-                    // Add the attribute
-                    writeAttribute(field.getName(), field.get(object), writer);
+                if (descriptor != null) {
+                    for (final FieldAccessor field : descriptor.attributes) {
+                        // Add the attribute
+                        writeAttribute(field.getTokens()[ATTRIBUTE_PREFIX], field.get(object), context);
+                    }
                 }
 
-                // Get the children
-                final Set<Field> children = getNodeChildren(cls);
-
                 // Close the node
-                writer.append(">");
+                context.write('>');
 
-                if (isValue(object)) {
+                if (value) {
                     if (Date.class.isAssignableFrom(cls)) {
-                        SimpleDateFormat df = new SimpleDateFormat("YYYY-MM-dd'T'HH:mm:ss.SXXX");
-                        writer.append(escapeValue(df.format(object)));
+                        writeDate((Date) object, context);
+                    } else if (cls.isEnum()) {
+                        writeEnum((Enum<?>) object, context);
+                    } else if (Number.class.isInstance(object) && FieldAccessor.getKind(cls) != FieldAccessor.Kind.OBJECT) {
+                        // Write the boxed primitives without creating a string
+                        writeTypedValue(FieldAccessor.getKind(cls), object, context);
                     } else {
-                        writer.append(escapeValue(String.valueOf(object)));
+                        writeString(String.valueOf(object), context);
                     }
                 } else {
-                    writeLineFeed(writer);
+                    // Ignore this object in its children
+                    context.enter(object);
+                    writeLineFeed(context);
+
+                    for (final FieldAccessor field : descriptor.children) {
+                        context.increaseIndentation();
 
-                    for (Field field : children) {
-                        increaseIndentation();
-                        writeNode(field.getName(), field.get(object), writer);
-                        decreaseIndentation();
+                        if (field.isPrimitive()) {
+                            writeFieldNode(field, object, null, context);
+                        } else {
+                            final Object fieldValue = field.get(object);
+
+                            if (fieldValue != null && field.isTyped()) {
+                                writeFieldNode(field, object, fieldValue, context);
+                            } else {
+                                writeNode(field.getTokens(), fieldValue, context);
+                            }
+                        }
+                        context.decreaseIndentation();
                     }
-                    writeIndentation(writer);
+                    context.exit(object);
+                    writeIndentation(context);
                 }
 
                 // Close the node
-                writer.write("</" + nodeName + ">");
-                writeLineFeed(writer);
+                context.write(nodeTags[CLOSE_TAG]);
+                writeLineFeed(context);
             }
         }
-        return writer;
+        return context;
+    }
+
+    /**
+     * Writes a node containing the value of a primitive or typed field
+     *
+     * @param field   the field
+     * @param object  the object containing the field
+     * @param value   the field value if the field is not a primitive
+     * @param context the write context
+     * @return WriteContext
+     * @throws IOException
+     */
+    protected WriteContext writeFieldNode(final FieldAccessor field, final Object object, final Object value, final WriteContext context) throws IOException {
+        final EncodedText[] nodeTags = field.getTokens();
+
+        // Open the node
+        writeIndentation(context);
+        context.write(nodeTags[OPEN_TAG]);
+
+        // Add the value
+        if (field.isPrimitive()) {
+            writePrimitive(field, object, context);
+        } else {
+            writeTypedValue(field.getKind(), value, context);
+        }
+
+        // Close the node
+        context.write(nodeTags[CLOSE_TAG]);
+        writeLineFeed(context);
+
+        return context;
+    }
+
+    @Override
+    protected WriteContext writeString(final String value, final WriteContext context) throws IOException {
+        Escaper.xmlText().escape(value, context);
+        return context;
+    }
+
+    /**
+     * This class holds the configuration of an XML write call
+     */
+    protected static class Config extends WriteConfig {
+
+        /**
+         * The attributes
+         */
+        private final Map<Class<?>, Set<String>> attributes;
+
+        /**
+         * Creates the configuration from the current options of the serializer
+         *
+         * @param serializer the serializer
+         */
+        protected Config(final XmlSerializer serializer) {
+            super(serializer);
+            this.attributes = serializer.attributes;
+        }
     }
 }
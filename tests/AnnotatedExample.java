@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 Karl STEIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.karlstein.tools.serializer.KSerializable;
+
+@KSerializable(exclude = "_password", attributes = "_id")
+public class AnnotatedExample {
+
+    long _id = 42;
+    String _name = "Generated";
+    String _password = "secret";
+    double _score = 0.25;
+    private int _hidden = 7;
+
+    public int getHidden() {
+        return _hidden;
+    }
+
+    public void setHidden(final int hidden) {
+        _hidden = hidden;
+    }
+}
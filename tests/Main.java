@@ -14,17 +14,1508 @@
  * limitations under the License.
  */
 
+import com.karlstein.tools.serializer.AsyncOutput;
+import com.karlstein.tools.serializer.Compression;
+import com.karlstein.tools.serializer.CsvRowIterator;
 import com.karlstein.tools.serializer.CsvSerializer;
+import com.karlstein.tools.serializer.CsvShardWriter;
+import com.karlstein.tools.serializer.CycleTracker;
+import com.karlstein.tools.serializer.DateCodec;
+import com.karlstein.tools.serializer.Escaper;
+import com.karlstein.tools.serializer.FileSink;
+import com.karlstein.tools.serializer.GeneratedAccessors;
+import com.karlstein.tools.serializer.JsonElementIterator;
+import com.karlstein.tools.serializer.JsonProjection;
 import com.karlstein.tools.serializer.JsonSerializer;
+import com.karlstein.tools.serializer.KSerializer;
+import com.karlstein.tools.serializer.NumberCodec;
+import com.karlstein.tools.serializer.ParallelCsvReader;
+import com.karlstein.tools.serializer.ParallelDeflaterOutputStream;
+import com.karlstein.tools.serializer.ReadAheadInputStream;
+import com.karlstein.tools.serializer.Utf8Output;
+import com.karlstein.tools.serializer.XmlElementIterator;
 import com.karlstein.tools.serializer.XmlSerializer;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class Main {
 
+    /**
+     * The number of failed checks
+     */
+    private static int failures = 0;
+
+    /**
+     * Prints the result of a check
+     *
+     * @param name   the name of the check
+     * @param passed the result of the check
+     */
+    private static void check(final String name, final boolean passed) {
+        System.out.println((passed ? "OK      " : "FAILED  ") + name);
+
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    /**
+     * Checks that the objects written to an {@link AsyncOutput} reach the channel when their future completes
+     *
+     * @throws Exception
+     */
+    private static void checkAsyncOutput() throws Exception {
+        final JsonSerializer json = new JsonSerializer();
+        final PrimitiveExample object = new PrimitiveExample();
+        final String expected = write(json, object);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final AsyncOutput output = new AsyncOutput(Channels.newChannel(bytes));
+
+        json.write(object, output).get();
+        check("AsyncOutput commit reaches the channel", bytes.toString("UTF-8").equals(expected));
+
+        for (int i = 0; i < 100; i++) {
+            json.write(object, output);
+        }
+        output.close();
+
+        final String text = bytes.toString("UTF-8");
+        check("AsyncOutput close writes everything", text.length() == expected.length() * 101
+                && text.endsWith(expected));
+        check("AsyncOutput round trip", write(json, json.read(PrimitiveExample.class, text.substring(0, expected.length()))).equals(expected));
+    }
+
+    /**
+     * Checks that the parallel gzip and zlib streams are read by the streams of the JDK and by {@link Compression}
+     *
+     * @throws Exception
+     */
+    private static void checkCompression() throws Exception {
+        final String[] words = {"alpha", "beta", "gamma", "delta", "epsilon", "\n", "{\"id\":", "},"};
+        final Random random = new Random(42);
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+
+        while (text.size() < 1000000) {
+            text.write(words[random.nextInt(words.length)].getBytes("UTF-8"));
+            text.write(random.nextInt(256));
+        }
+        final byte[] data = text.toByteArray();
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            for (final ParallelDeflaterOutputStream.Format format : ParallelDeflaterOutputStream.Format.values()) {
+                final boolean gzip = format == ParallelDeflaterOutputStream.Format.GZIP;
+                final String name = "ParallelDeflaterOutputStream " + format;
+
+                // Small blocks written with single bytes, slices and flushes, so the stream holds many blocks
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                final OutputStream stream = new ParallelDeflaterOutputStream(compressed, format, Deflater.DEFAULT_COMPRESSION,
+                        40000, executor, 2);
+                int position = 0;
+
+                while (position < data.length) {
+                    stream.write(data[position++]);
+                    final int length = Math.min(random.nextInt(30000), data.length - position);
+                    stream.write(data, position, length);
+                    position += length;
+
+                    if (random.nextInt(8) == 0) {
+                        stream.flush();
+                    }
+                }
+                stream.close();
+                final byte[] bytes = compressed.toByteArray();
+
+                check(name + " read by the JDK", Arrays.equals(readAll(gzip
+                        ? new GZIPInputStream(new ByteArrayInputStream(bytes))
+                        : new InflaterInputStream(new ByteArrayInputStream(bytes))), data));
+                check(name + " read by Compression", Arrays.equals(readAll(gzip
+                        ? Compression.gunzip(new ByteArrayInputStream(bytes))
+                        : Compression.inflate(new ByteArrayInputStream(bytes))), data));
+                check(name + " read ahead in small chunks", Arrays.equals(readAll(new ReadAheadInputStream(gzip
+                        ? new GZIPInputStream(new ByteArrayInputStream(bytes))
+                        : new InflaterInputStream(new ByteArrayInputStream(bytes)), 1000, 2)), data));
+
+                // The ratio stays close to a single deflater
+                final ByteArrayOutputStream single = new ByteArrayOutputStream();
+                final OutputStream singleStream = gzip ? new GZIPOutputStream(single) : new DeflaterOutputStream(single);
+                singleStream.write(data);
+                singleStream.close();
+                check(name + " ratio", bytes.length < single.size() * 11 / 10);
+
+                final ByteArrayOutputStream empty = new ByteArrayOutputStream();
+                new ParallelDeflaterOutputStream(empty, format, Deflater.DEFAULT_COMPRESSION, 40000, executor, 2).close();
+                check(name + " empty", readAll(gzip ? Compression.gunzip(new ByteArrayInputStream(empty.toByteArray()))
+                        : Compression.inflate(new ByteArrayInputStream(empty.toByteArray()))).length == 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // A document written and read through the compressed streams
+        final JsonSerializer json = new JsonSerializer();
+        final List<ObjectExample> objects = new ArrayList<ObjectExample>();
+
+        for (int i = 0; i < 2000; i++) {
+            objects.add(new ObjectExample());
+        }
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(Compression.gzip(compressed), "UTF-8");
+        json.write(objects, writer);
+        writer.close();
+        final Reader reader = new InputStreamReader(Compression.gunzip(new ByteArrayInputStream(compressed.toByteArray())), "UTF-8");
+        check("Compression gzip round trip", json.read(ObjectExample[].class, reader).length == objects.size());
+        reader.close();
+    }
+
+    /**
+     * Reads a stream to its end and closes it
+     *
+     * @param stream the stream
+     * @return byte[]
+     * @throws IOException
+     */
+    private static byte[] readAll(final InputStream stream) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int length;
+
+        try {
+            while ((length = stream.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, length);
+            }
+        } finally {
+            stream.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Checks that {@link CsvSerializer} reads back what it writes, backslashes included
+     *
+     * @throws Exception
+     */
+    private static void checkCsvReader() throws Exception {
+        final CsvSerializer csv = new CsvSerializer();
+        final String[] strings = {"C:\\new", "end\\", "\\\\n", "My \r\n<\"String\"> to escape", "a,b", ""};
+        final List<ObjectExample> rows = new ArrayList<ObjectExample>();
+
+        for (final String string : strings) {
+            final ObjectExample row = new ObjectExample();
+            row._oString = string;
+            rows.add(row);
+        }
+        final StringWriter writer = new StringWriter();
+        csv.writeHeaders(ObjectExample.class, writer);
+        csv.write(rows, writer);
+
+        final CsvRowIterator<ObjectExample> iterator = csv.readRows(ObjectExample.class, new StringReader(writer.toString()));
+        boolean same = true;
+        int count = 0;
+
+        while (iterator.hasNext()) {
+            final ObjectExample row = iterator.next();
+            same &= row._oString.equals(strings[count]) && row._oDate.equals(rows.get(count)._oDate);
+            count++;
+        }
+        check("CsvSerializer strings round trip", same && count == strings.length);
+
+        final char[] chars = {'"', ',', '\\', '\n', 'c'};
+        final ObjectExample.Enumeration[] enums = ObjectExample.Enumeration.values();
+        final List<ObjectExample> objects = new ArrayList<ObjectExample>();
+        final List<PrimitiveExample> primitives = new ArrayList<PrimitiveExample>();
+
+        for (int i = 0; i < chars.length; i++) {
+            final ObjectExample row = new ObjectExample();
+            row._oChar = chars[i];
+            row._oEnum = enums[i % enums.length];
+            objects.add(row);
+
+            final PrimitiveExample primitive = new PrimitiveExample();
+            primitive._pChar = chars[i];
+            primitives.add(primitive);
+        }
+        final StringWriter objectWriter = new StringWriter();
+        csv.writeHeaders(ObjectExample.class, objectWriter);
+        csv.write(objects, objectWriter);
+
+        final StringWriter primitiveWriter = new StringWriter();
+        csv.writeHeaders(PrimitiveExample.class, primitiveWriter);
+        csv.write(primitives, primitiveWriter);
+
+        final CsvRowIterator<ObjectExample> objectRows = csv.readRows(ObjectExample.class, new StringReader(objectWriter.toString()));
+        final CsvRowIterator<PrimitiveExample> primitiveRows = csv.readRows(PrimitiveExample.class, new StringReader(primitiveWriter.toString()));
+        boolean charsSame = true;
+        count = 0;
+
+        while (objectRows.hasNext() && primitiveRows.hasNext()) {
+            final ObjectExample row = objectRows.next();
+            charsSame &= row._oChar == chars[count] && row._oEnum == enums[count % enums.length]
+                    && row._oInteger == 1024 && primitiveRows.next()._pChar == chars[count];
+            count++;
+        }
+        check("CsvSerializer chars and enums round trip", charsSame && count == chars.length
+                && !objectRows.hasNext() && !primitiveRows.hasNext());
+        check("CsvSerializer byte out of range", readFails(csv, PrimitiveExample.class, "\"_pByte\"\n300\n"));
+        check("CsvSerializer short out of range", readFails(csv, PrimitiveExample.class, "\"_pShort\"\n40000\n"));
+    }
+
+    /**
+     * Checks that {@link CsvShardWriter} writes every row once inside the directory with few files open
+     *
+     * @throws Exception
+     */
+    private static void checkCsvShardWriter() throws Exception {
+        final CsvSerializer csv = new CsvSerializer();
+        final File directory = Files.createTempDirectory("kserializer").toFile();
+        final String[] keys = {"../up", "a/b", "a_002fb", "..", "plain"};
+        final List<PrimitiveExample> rows = new ArrayList<PrimitiveExample>();
+
+        for (int i = 0; i < 1000; i++) {
+            final PrimitiveExample row = new PrimitiveExample();
+            row._pInt = i;
+            rows.add(row);
+        }
+        final CsvShardWriter<PrimitiveExample> writer = new CsvShardWriter<PrimitiveExample>(csv, PrimitiveExample.class,
+                CsvShardWriter.files(directory, "rows"), new CsvShardWriter.KeyExtractor<PrimitiveExample>() {
+            @Override
+            public Object getKey(final PrimitiveExample row) {
+                return keys[row._pInt / 50 % keys.length];
+            }
+        }, 30, CsvShardWriter.UNLIMITED, 2);
+        writer.writeAll(rows);
+        writer.close();
+
+        final File[] files = directory.listFiles();
+        final boolean[] found = new boolean[rows.size()];
+        boolean sharded = true;
+        int count = 0;
+
+        try {
+            for (final File file : files) {
+                final Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+                final CsvRowIterator<PrimitiveExample> iterator = csv.readRows(PrimitiveExample.class, reader);
+                final Set<String> fileKeys = new HashSet<String>();
+
+                while (iterator.hasNext()) {
+                    final int index = iterator.next()._pInt;
+                    fileKeys.add(keys[index / 50 % keys.length]);
+                    count += found[index] ? rows.size() : 1;
+                    found[index] = true;
+                }
+                reader.close();
+                sharded &= fileKeys.size() == 1;
+            }
+        } finally {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        check("CsvShardWriter one key per file", sharded && writer.getShardCount() == keys.length);
+        check("CsvShardWriter files inside the directory", files.length == writer.getFileCount() && directory.delete());
+        check("CsvShardWriter rows round trip", count == rows.size());
+    }
+
+    /**
+     * Checks that the objects on the write path are skipped without leaving a dangling comma,
+     * on short paths and on the long paths tracked by an identity set
+     *
+     * @throws Exception
+     */
+    private static void checkCycles() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            for (final int depth : new int[]{1, CycleTracker.DEFAULT_THRESHOLD + 4}) {
+                final ObjectExample root = new ObjectExample();
+                ObjectExample leaf = root;
+
+                for (int i = 1; i < depth; i++) {
+                    leaf._oRecursive = new ObjectExample();
+                    leaf = leaf._oRecursive;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    leaf._oRecursiveList.add(i % 300 == 0 ? root : new ObjectExample());
+                }
+                leaf._oRecursiveList.add(root);
+                leaf._oMap = new LinkedHashMap<Object, Object>();
+                leaf._oMap.put("name", "value");
+                leaf._oMap.put("root", root);
+
+                for (final boolean compressed : new boolean[]{false, true}) {
+                    final JsonSerializer json = new JsonSerializer();
+                    json.setCompressOutput(compressed);
+                    final String text = write(json, root);
+                    ObjectExample copy = json.read(ObjectExample.class, text);
+                    final String name = "JsonSerializer cycles at depth " + depth + (compressed ? " compressed" : "");
+
+                    for (int i = 1; i < depth; i++) {
+                        copy = copy._oRecursive;
+                    }
+                    // The root is skipped at indexes 0, 300, 600, 900 and at the end
+                    check(name + " round trip", copy._oRecursiveList.size() == 996
+                            && copy._oMap.keySet().equals(Collections.singleton("name")));
+
+                    json.setParallelPool(pool);
+                    json.setParallelThreshold(10);
+                    check(name + " in parallel", text.equals(write(json, root)));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Checks that {@link DateCodec} writes the dates like {@link SimpleDateFormat} and reads them back
+     *
+     * @throws Exception
+     */
+    private static void checkDateCodec() throws Exception {
+        final String[] zones = {"UTC", "Europe/Paris", "America/New_York", "Asia/Kolkata", "America/St_Johns", "Pacific/Chatham"};
+        final Random random = new Random(42);
+
+        for (final DateCodec.Mode mode : DateCodec.Mode.values()) {
+            for (final String zone : zones) {
+                final TimeZone timeZone = TimeZone.getTimeZone(zone);
+                final DateCodec codec = new DateCodec(mode, timeZone);
+                final SimpleDateFormat format = createDateFormat(mode, timeZone);
+                boolean formatted = true;
+                boolean parsed = true;
+
+                // Dates from 1900 to 2100
+                for (int i = 0; i < 20000; i++) {
+                    final long millis = -2208988800000L + (long) (random.nextDouble() * 6311433600000L);
+                    final String text = codec.format(millis);
+                    formatted &= text.equals(format != null ? format.format(new Date(millis)) : Long.toString(millis));
+                    // Overlapping local dates read as one of the two instants, and the historical offsets
+                    // with seconds (like +00:09:21 in Paris before 1911) are written without them
+                    if (mode == DateCodec.Mode.LOCAL_DATE_TIME) {
+                        parsed &= codec.format(codec.parse(text)).equals(text);
+                    } else if (mode != DateCodec.Mode.OFFSET_DATE_TIME || timeZone.getOffset(millis) % 60000 == 0) {
+                        parsed &= codec.parse(text) == millis;
+                    }
+                }
+                check("DateCodec " + mode + " " + zone + " format", formatted);
+                check("DateCodec " + mode + " " + zone + " parse", parsed);
+            }
+        }
+
+        // Each minute around the transitions of daylight saving time, the local dates read like SimpleDateFormat
+        final TimeZone paris = TimeZone.getTimeZone("Europe/Paris");
+        final DateCodec offsetCodec = new DateCodec(DateCodec.Mode.OFFSET_DATE_TIME, paris);
+        final DateCodec localCodec = new DateCodec(DateCodec.Mode.LOCAL_DATE_TIME, paris);
+        final SimpleDateFormat offsetFormat = createDateFormat(DateCodec.Mode.OFFSET_DATE_TIME, paris);
+        final SimpleDateFormat localFormat = createDateFormat(DateCodec.Mode.LOCAL_DATE_TIME, paris);
+        boolean transitions = true;
+
+        for (final long transition : new long[]{1396141200000L, 1414285200000L}) {
+            for (long millis = transition - 7200000; millis <= transition + 7200000; millis += 60007) {
+                final String offsetText = offsetCodec.format(millis);
+                final String localText = localCodec.format(millis);
+                transitions &= offsetText.equals(offsetFormat.format(new Date(millis)))
+                        && localText.equals(localFormat.format(new Date(millis)))
+                        && offsetCodec.parse(offsetText) == millis
+                        && localCodec.parse(localText) == localFormat.parse(localText).getTime();
+            }
+        }
+        check("DateCodec daylight saving transitions", transitions && offsetCodec.format(1396141199999L).endsWith("+01:00")
+                && offsetCodec.format(1396141200000L).endsWith("+02:00"));
+        check("DateCodec skipped local time", localCodec.parse("2014-03-30T02:30:00.000")
+                == localFormat.parse("2014-03-30T02:30:00.000").getTime());
+
+        // Years before 1, zero and negative, in the proleptic Gregorian calendar
+        final DateCodec instant = new DateCodec(DateCodec.Mode.INSTANT);
+        final GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+        boolean years = true;
+
+        for (int i = 0; i < 20000; i++) {
+            final long millis = -377705116800000L + (long) (random.nextDouble() * 631139040000000L);
+            calendar.setTimeInMillis(millis);
+            final int year = calendar.get(Calendar.ERA) == GregorianCalendar.BC ? 1 - calendar.get(Calendar.YEAR) : calendar.get(Calendar.YEAR);
+            final String text = instant.format(millis);
+            years &= text.equals(String.format("%s%04d-%02d-%02dT%02d:%02d:%02d.%03dZ", year < 0 ? "-" : "", Math.abs(year),
+                    calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.HOUR_OF_DAY),
+                    calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND), calendar.get(Calendar.MILLISECOND)))
+                    && instant.parse(text) == millis;
+        }
+        check("DateCodec negative years", years);
+        check("DateCodec year zero", instant.format(-62167219200000L).equals("0000-01-01T00:00:00.000Z")
+                && instant.format(-62198755200000L).equals("-0001-01-01T00:00:00.000Z")
+                && instant.parse("0000-01-01T00:00:00Z") == -62167219200000L
+                && instant.parse("-0001-01-01T00:00:00Z") == -62198755200000L);
+        check("DateCodec before epoch", instant.format(-1).equals("1969-12-31T23:59:59.999Z")
+                && instant.parse("1969-12-31T23:59:59.999Z") == -1);
+
+        // Offsets with and without colon, and fractions of any length
+        final long base = 1398946530000L;
+        check("DateCodec offsets", instant.parse("2014-05-01T14:15:30+02:00") == base
+                && instant.parse("2014-05-01T14:15:30+0200") == base
+                && instant.parse("2014-05-01T14:15:30+02") == base
+                && instant.parse("2014-05-01T08:45:30-03:30") == base
+                && instant.parse("2014-05-01T18:00:30+05:45") == base
+                && instant.parse("2014-05-01 12:15:30Z") == base);
+        check("DateCodec fractions", instant.parse("2014-05-01T12:15:30.5Z") == base + 500
+                && instant.parse("2014-05-01T12:15:30.123456789Z") == base + 123
+                && instant.parse("2014-05-01T12:15:30.07+00:00") == base + 70);
+        check("DateCodec invalid dates", parseFails(instant, "2014-05-01T12:15:30+19:00")
+                && parseFails(instant, "2014-05-01T12:15:30+02:60") && parseFails(instant, "2014-13-01T12:15:30Z")
+                && parseFails(instant, "2014-05-01T24:00:00Z") && parseFails(instant, "2014-05-01T12:15:30.Z")
+                && parseFails(instant, "2014-05-01") && parseFails(instant, "14-05-01T12:15:30Z"));
+        check("DateCodec epoch millis", new DateCodec(DateCodec.Mode.EPOCH_MILLIS).format(Long.MIN_VALUE).equals("-9223372036854775808")
+                && instant.parse("-9223372036854775808") == Long.MIN_VALUE);
+
+        // Seconds sharing a slot of the cache, and milliseconds of a cached second
+        final DateCodec cached = new DateCodec(DateCodec.Mode.OFFSET_DATE_TIME, paris);
+        boolean cache = true;
+
+        for (int i = 0; i < 1000; i++) {
+            final long millis = base + (random.nextInt(4) * 16000L) + random.nextInt(1000) - (i % 2) * 86400000L * 180;
+            cache &= cached.format(millis).equals(offsetFormat.format(new Date(millis)));
+        }
+        check("DateCodec second cache", cache);
+
+        // A codec shared between threads
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+        for (int t = 0; t < 4; t++) {
+            final long seed = t;
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final SimpleDateFormat format = createDateFormat(DateCodec.Mode.OFFSET_DATE_TIME, paris);
+                    final Random threadRandom = new Random(seed);
+                    boolean shared = true;
+
+                    for (int i = 0; i < 20000; i++) {
+                        final long millis = base + threadRandom.nextInt(64000);
+                        shared &= cached.format(millis).equals(format.format(new Date(millis)));
+                    }
+                    return shared;
+                }
+            }));
+        }
+        boolean shared = true;
+
+        for (final Future<Boolean> result : results) {
+            shared &= result.get();
+        }
+        executor.shutdown();
+        check("DateCodec shared between threads", shared);
+    }
+
+    /**
+     * Returns the {@link SimpleDateFormat} writing the dates of a mode, in the proleptic Gregorian calendar
+     *
+     * @param mode     the mode
+     * @param timeZone the time zone
+     * @return SimpleDateFormat or null for {@link DateCodec.Mode#EPOCH_MILLIS}
+     */
+    private static SimpleDateFormat createDateFormat(final DateCodec.Mode mode, final TimeZone timeZone) {
+        final String pattern;
+
+        switch (mode) {
+            case INSTANT:
+                pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+                break;
+            case LOCAL_DATE_TIME:
+                pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS";
+                break;
+            case OFFSET_DATE_TIME:
+                pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+                break;
+            default:
+                return null;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat(pattern);
+        final TimeZone zone = mode == DateCodec.Mode.INSTANT ? TimeZone.getTimeZone("UTC") : timeZone;
+        final GregorianCalendar calendar = new GregorianCalendar(zone);
+        calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+        format.setCalendar(calendar);
+        format.setTimeZone(zone);
+        return format;
+    }
+
+    /**
+     * Checks that a date cannot be parsed
+     *
+     * @param codec the codec
+     * @param text  the date
+     * @return boolean
+     */
+    private static boolean parseFails(final DateCodec codec, final String text) {
+        try {
+            codec.parse(text);
+            return false;
+        } catch (final IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Checks that the fields of a class change on the next write when the rules change after a first write
+     *
+     * @throws Exception
+     */
+    private static void checkDescriptors() throws Exception {
+        final PrimitiveExample object = new PrimitiveExample();
+
+        for (final KSerializer serializer : new KSerializer[]{new JsonSerializer(), new XmlSerializer(), new CsvSerializer()}) {
+            final String name = serializer.getClass().getSimpleName();
+            // The names as written in JSON, in XML and in the CSV headers
+            final String format = serializer instanceof XmlSerializer ? "<%s>" : "\"_%s\"";
+            final String pInt = String.format(format, "pInt");
+            final String pLong = String.format(format, "pLong");
+            final String pShort = String.format(format, "pShort");
+            final String pDouble = String.format(format, "pDouble");
+            final String pBoolean = String.format(format, "pBoolean");
+
+            final String before = writeWithHeaders(serializer, object);
+            serializer.excludeField("_pInt", PrimitiveExample.class);
+            final String excluded = writeWithHeaders(serializer, object);
+            serializer.excludeType(Double.TYPE, PrimitiveExample.class);
+            final String excludedType = writeWithHeaders(serializer, object);
+            serializer.includeField("_pLong", PrimitiveExample.class);
+            serializer.includeField("_pShort", PrimitiveExample.class);
+            final String included = writeWithHeaders(serializer, object);
+
+            check(name + " descriptor before rules", before.contains(pInt) && before.contains(pDouble));
+            check(name + " descriptor after excludeField", !excluded.contains(pInt) && excluded.contains(pLong));
+            check(name + " descriptor after excludeType", !excludedType.contains(pDouble) && excludedType.contains(pLong));
+            check(name + " descriptor after includeField", included.contains(pLong) && included.contains(pShort)
+                    && !included.contains(pBoolean));
+        }
+
+        final XmlSerializer xml = new XmlSerializer();
+        final String children = write(xml, object);
+        xml.asAttribute(PrimitiveExample.class, "_pInt");
+        final String attribute = write(xml, object);
+        check("XmlSerializer descriptor after asAttribute", children.contains("<pInt>1024</pInt>")
+                && attribute.contains("<PrimitiveExample pInt=\"1024\">") && !attribute.contains("<pInt>"));
+    }
+
+    /**
+     * Checks the exact escaping of JSON strings and keys, XML text and attributes and CSV values
+     *
+     * @throws Exception
+     */
+    private static void checkEscaper() throws Exception {
+        // Control characters, quotes, backslashes and the line separators of JavaScript, other characters are kept
+        final JsonSerializer json = new JsonSerializer();
+        json.setCompressOutput(true);
+        final Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+        map.put("a\"b\\c", "\u0001\u001f\b\f\n\r\t\u2028\u2029\u007f\u00e9/");
+        final String expectedJson = "{\"a\\\"b\\\\c\":\"\\u0001\\u001f\\b\\f\\n\\r\\t\\u2028\\u2029\u007f\u00e9/\"}";
+        final ByteArrayOutputStream jsonBytes = new ByteArrayOutputStream();
+        json.write(map, jsonBytes);
+        final String plain = "plain \u00e9 text";
+
+        check("Escaper JSON string and key", json.write(map, new StringWriter()).toString().equals(expectedJson)
+                && Arrays.equals(jsonBytes.toByteArray(), expectedJson.getBytes("UTF-8")));
+        check("Escaper JSON unchanged", Escaper.json().escape(plain) == plain);
+        check("Escaper JSON round trip", json.read(Map.class, expectedJson).equals(map));
+
+        // Only the string and the char of the object are written
+        final ObjectExample object = new ObjectExample();
+        object._oString = "<&>\"'\r\n";
+        object._oChar = '"';
+        final XmlSerializer xml = new XmlSerializer();
+        xml.setCompressOutput(true);
+        xml.includeField("_oChar", ObjectExample.class);
+        xml.includeField("_oString", ObjectExample.class);
+        xml.asAttribute(ObjectExample.class, "_oChar");
+        check("Escaper XML text and attribute", write(xml, object)
+                .equals("<ObjectExample oChar=\"&quot;\"><oString>&lt;&amp;&gt;\"'&#13;\n</oString></ObjectExample>"));
+        check("Escaper XML attribute line separators", Escaper.xmlAttribute().escape("a\r\nb<\"").equals("ab&lt;&quot;"));
+
+        // A delimiter and a separator other than the defaults
+        final CsvSerializer csv = new CsvSerializer();
+        csv.setValueDelimiter('\'');
+        csv.setValueSeparator(';');
+        csv.includeField("_oChar", ObjectExample.class);
+        csv.includeField("_oString", ObjectExample.class);
+        object._oString = "it's;a \"test\"\\\r\n";
+        object._oChar = '\'';
+        final String row = write(csv, object);
+        check("Escaper CSV delimiter", row.equals("'''';'it''s;a \"test\"\\\\\\r\\n'\n"));
+        check("Escaper CSV round trip", csv.read(ObjectExample.class, writeWithHeaders(csv, object))._oString.equals(object._oString));
+    }
+
+    /**
+     * Checks that {@link FileSink} replaces the content of a larger file in both modes,
+     * with every force policy and across several chunks or windows
+     *
+     * @throws Exception
+     */
+    private static void checkFileSink() throws Exception {
+        final JsonSerializer json = new JsonSerializer();
+        final PrimitiveExample object = new PrimitiveExample();
+        final String single = write(json, object);
+        final StringBuilder builder = new StringBuilder();
+
+        while (builder.length() < 3 * 4096) {
+            builder.append(single);
+        }
+        final String expected = builder.toString();
+        final Path path = Files.createTempFile("kserializer", ".json");
+
+        try {
+            for (final FileSink.Mode mode : FileSink.Mode.values()) {
+                for (final FileSink.ForcePolicy policy : FileSink.ForcePolicy.values()) {
+                    Files.write(path, new byte[expected.length() * 3 + 10000]);
+
+                    final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    final Utf8Output output = new Utf8Output(new FileSink(channel, mode, 4096, policy));
+
+                    for (int i = 0; i < expected.length() / single.length(); i++) {
+                        json.write(object, output);
+                        output.flush();
+                    }
+                    output.close();
+
+                    final String text = new String(Files.readAllBytes(path), "UTF-8");
+                    check("FileSink " + mode + " " + policy + " overwrites a larger file", text.equals(expected));
+                }
+                final String text = new String(Files.readAllBytes(path), "UTF-8").substring(0, single.length());
+                check("FileSink " + mode + " round trip", text.equals(write(json, json.read(PrimitiveExample.class, text))));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Checks that the accessors generated for {@link AnnotatedExample} read and write the fields
+     *
+     * @throws Exception
+     */
+    private static void checkGeneratedAccessors() throws Exception {
+        final AnnotatedExample object = new AnnotatedExample();
+        object._id = 7;
+        object._name = "Changed";
+        object._score = -1.5;
+        object.setHidden(3);
+
+        for (final KSerializer serializer : new KSerializer[]{new JsonSerializer(), new XmlSerializer()}) {
+            final String name = serializer.getClass().getSimpleName();
+            final String text = write(serializer, object);
+            final AnnotatedExample copy = serializer.read(AnnotatedExample.class, text);
+
+            check(name + " generated accessors round trip", copy._id == 7 && copy._name.equals("Changed")
+                    && copy._score == -1.5 && copy.getHidden() == 3);
+            check(name + " generated accessors exclude", !text.contains("secret") && copy._password.equals("secret"));
+        }
+        check("XmlSerializer generated attribute", write(new XmlSerializer(), object).contains("<AnnotatedExample id=\"7\">"));
+        check("generated accessors compiled", Class.forName("AnnotatedExample_KAccessors") != null);
+
+        // The private field is left to reflection, so its raw value is written whether the processor ran or not
+        final GeneratedAccessors accessors = (GeneratedAccessors) Class.forName("AnnotatedExample_KAccessors")
+                .getDeclaredConstructor().newInstance();
+        check("generated accessors private field", accessors.indexOf("_hidden") < 0 && accessors.indexOf("_id") >= 0);
+    }
+
+    /**
+     * Checks that the elements of an iterator or an iterable are written like the same collection
+     *
+     * @throws Exception
+     */
+    private static void checkIterables() throws Exception {
+        final List<Object> objects = new ArrayList<Object>();
+
+        for (int i = 0; i < 20; i++) {
+            final ObjectExample object = new ObjectExample();
+            object._oInteger = i;
+            objects.add(object);
+        }
+        final Iterable<Object> iterable = new Iterable<Object>() {
+            @Override
+            public Iterator<Object> iterator() {
+                return objects.iterator();
+            }
+        };
+
+        for (final boolean compress : new boolean[]{true, false}) {
+            final String mode = compress ? " compressed" : " pretty";
+            final JsonSerializer json = new JsonSerializer();
+            final XmlSerializer xml = new XmlSerializer();
+            final CsvSerializer csv = new CsvSerializer();
+            json.setCompressOutput(compress);
+            xml.setCompressOutput(compress);
+            csv.setCompressOutput(compress);
+
+            final String jsonCollection = json.write(objects, new StringWriter()).toString();
+            check("JsonSerializer iterator" + mode, json.write(objects.iterator(), new StringWriter()).toString().equals(jsonCollection));
+            check("JsonSerializer iterable" + mode, json.write(iterable, new StringWriter()).toString().equals(jsonCollection));
+            check("JsonSerializer empty iterator" + mode, json.write(Collections.emptyList().iterator(), new StringWriter()).toString()
+                    .equals(json.write(Collections.emptyList(), new StringWriter()).toString()));
+
+            final String xmlCollection = xml.write("objects", objects, new StringWriter()).toString();
+            check("XmlSerializer iterator" + mode, xml.write("objects", objects.iterator(), new StringWriter()).toString().equals(xmlCollection));
+            check("XmlSerializer iterable" + mode, xml.write("objects", iterable, new StringWriter()).toString().equals(xmlCollection));
+
+            final String csvCollection = csv.write(objects, new StringWriter()).toString();
+            final ByteArrayOutputStream csvStream = new ByteArrayOutputStream();
+            csv.write(objects.iterator(), csvStream);
+            check("CsvSerializer iterator" + mode, csv.write(objects.iterator(), new StringWriter()).toString().equals(csvCollection)
+                    && csvStream.toString("UTF-8").equals(csvCollection));
+            check("CsvSerializer iterable" + mode, csv.write(iterable, new StringWriter()).toString().equals(csvCollection));
+        }
+    }
+
+    /**
+     * Checks that {@link JsonElementIterator} reads the same elements as a full read of the array
+     *
+     * @throws Exception
+     */
+    private static void checkJsonElementIterator() throws Exception {
+        final JsonSerializer json = new JsonSerializer();
+        final List<ObjectExample> objects = new ArrayList<ObjectExample>();
+
+        for (int i = 0; i < 50; i++) {
+            final ObjectExample object = new ObjectExample();
+            object._oInteger = i;
+            object._oString = "Element " + i;
+            objects.add(object);
+        }
+
+        for (final boolean compress : new boolean[]{true, false}) {
+            json.setCompressOutput(compress);
+            final String text = write(json, objects);
+            final String name = "JsonElementIterator" + (compress ? " compressed" : " pretty");
+            final StringBuilder expected = new StringBuilder();
+            final StringBuilder actual = new StringBuilder();
+
+            for (final ObjectExample element : json.read(ObjectExample[].class, text)) {
+                expected.append(write(json, element));
+            }
+            final JsonElementIterator<ObjectExample> elements = json.readElements(ObjectExample.class, new StringReader(text));
+
+            while (elements.hasNext()) {
+                actual.append(write(json, elements.next()));
+            }
+            check(name + " equals full read", actual.toString().equals(expected.toString()) && !elements.hasNext());
+
+            // Only the projected fields are read
+            final JsonElementIterator<ObjectExample> projected = json.readElements(ObjectExample.class, new StringReader(text),
+                    JsonProjection.of("_oInteger"));
+            boolean fields = true;
+
+            for (int i = 0; projected.hasNext(); i++) {
+                final ObjectExample element = projected.next();
+                fields &= element._oInteger == i && element._oString.equals(new ObjectExample()._oString);
+            }
+            check(name + " projection", fields);
+        }
+
+        final JsonElementIterator<Integer> empty = json.readElements(Integer.class, new StringReader(" [ ] "));
+        check("JsonElementIterator empty array", !empty.hasNext());
+
+        final JsonElementIterator<Integer> closed = json.readElements(Integer.class, new StringReader("[1,2,3]"));
+        closed.next();
+        closed.close();
+        check("JsonElementIterator close", !closed.hasNext());
+
+        boolean trailing = false;
+
+        try {
+            final JsonElementIterator<Integer> numbers = json.readElements(Integer.class, new StringReader("[1,2] 3"));
+
+            while (numbers.hasNext()) {
+                numbers.next();
+            }
+        } catch (final IllegalArgumentException e) {
+            trailing = true;
+        }
+        check("JsonElementIterator trailing input", trailing);
+    }
+
+    /**
+     * Checks that a {@link JsonProjection} reads only its fields, through nested objects and collections
+     *
+     * @throws Exception
+     */
+    private static void checkJsonProjection() throws Exception {
+        final JsonSerializer json = new JsonSerializer();
+        final ObjectExample object = new ObjectExample();
+        object._oInteger = -7;
+        object._oString = "Projected";
+        object._oLong = 5L;
+        object._oObject._pInt = 42;
+        object._oObject._pLong = 43;
+        object._oRecursive = new ObjectExample();
+        object._oRecursive._oString = "Skipped";
+        object._oList.add("L3");
+
+        for (int i = 0; i < 3; i++) {
+            final ObjectExample element = new ObjectExample();
+            element._oString = "E" + i;
+            element._oInteger = i;
+            object._oRecursiveList.add(element);
+        }
+        final String text = write(json, object);
+        final JsonProjection projection = JsonProjection.of("_oInteger", "_oString", "_oObject._pInt",
+                "_oRecursiveList._oString", "_oMap.2nd._pInt");
+        final ObjectExample copy = json.read(ObjectExample.class, new StringReader(text), projection);
+        final ObjectExample defaults = new ObjectExample();
+
+        check("JsonProjection fields", copy._oInteger == -7 && copy._oString.equals("Projected"));
+        check("JsonProjection nested object", copy._oObject._pInt == 42 && copy._oObject._pLong == defaults._oObject._pLong);
+        check("JsonProjection nested collection", copy._oRecursiveList.size() == 3
+                && copy._oRecursiveList.get(2)._oString.equals("E2")
+                && copy._oRecursiveList.get(2)._oInteger.equals(defaults._oInteger));
+        check("JsonProjection nested map", copy._oMap.keySet().equals(Collections.singleton("2nd"))
+                && ((Map<?, ?>) copy._oMap.get("2nd")).keySet().equals(Collections.singleton("_pInt")));
+        check("JsonProjection skipped subtrees", copy._oRecursive == null && copy._oLong.equals(defaults._oLong)
+                && copy._oList.equals(defaults._oList));
+
+        // The fields of a projection are bound again when the descriptors are replaced
+        json.excludeField("_oString", ObjectExample.class);
+        final ObjectExample excluded = json.read(ObjectExample.class, new StringReader(text), projection);
+        check("JsonProjection rebinding", excluded._oString.equals(defaults._oString) && excluded._oInteger == -7
+                && excluded._oRecursiveList.get(2)._oString.equals(defaults._oString));
+
+        // A projection shared by serializers with different rules
+        final JsonSerializer other = new JsonSerializer();
+        final ObjectExample first = other.read(ObjectExample.class, new StringReader(text), projection);
+        final ObjectExample second = json.read(ObjectExample.class, new StringReader(text), projection);
+        check("JsonProjection shared", first._oString.equals("Projected") && second._oString.equals(defaults._oString));
+        check("JsonProjection invalid path", projectionFails("a..b") && projectionFails(".a") && projectionFails("a."));
+    }
+
+    /**
+     * Checks that a projection path is refused
+     *
+     * @param path the path
+     * @return boolean
+     */
+    private static boolean projectionFails(final String path) {
+        try {
+            JsonProjection.of(path);
+            return false;
+        } catch (final IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Checks that {@link JsonSerializer} reads back what it writes and rejects the numbers out of range
+     *
+     * @throws Exception
+     */
+    private static void checkJsonReader() throws Exception {
+        final JsonSerializer json = new JsonSerializer();
+        final PrimitiveExample object = new PrimitiveExample();
+        object._pByte = Byte.MIN_VALUE;
+        object._pChar = '"';
+        object._pDouble = -1.5e300;
+        object._pLong = Long.MIN_VALUE;
+        object._pStringArray = new String[]{"line\nbreak", "\u00e9\"\\"};
+
+        final String text = write(json, object);
+        check("JsonSerializer primitives round trip", text.equals(write(json, json.read(PrimitiveExample.class, text))));
+        check("JsonSerializer unknown fields skipped",
+                json.read(PrimitiveExample.class, "{\"unknown\":{\"a\":[1,{}]},\"_pInt\":5}")._pInt == 5);
+        check("JsonSerializer byte out of range", readFails(json, PrimitiveExample.class, "{\"_pByte\":300}"));
+        check("JsonSerializer short out of range", readFails(json, PrimitiveExample.class, "{\"_pShort\":-40000}"));
+        check("JsonSerializer int out of range", readFails(json, PrimitiveExample.class, "{\"_pInt\":3000000000}"));
+        check("JsonSerializer long out of range", readFails(json, PrimitiveExample.class, "{\"_pLong\":9223372036854775808}")
+                && readFails(json, PrimitiveExample.class, "{\"_pLong\":9223372036854775809}")
+                && readFails(json, PrimitiveExample.class, "{\"_pLong\":-9223372036854775809}")
+                && readFails(json, PrimitiveExample.class, "{\"_pLong\":1e19}")
+                && json.read(PrimitiveExample.class, "{\"_pLong\":-9223372036854775808}")._pLong == Long.MIN_VALUE
+                && json.read(PrimitiveExample.class, "{\"_pLong\":9.2e18}")._pLong == 9200000000000000000L);
+        check("JsonSerializer trailing input", readFails(json, Integer.class, "1 2") && readFails(json, PrimitiveExample.class, "{} {}")
+                && readFails(json, int[].class, "[1]]") && json.read(Integer.class, " 1\n") == 1);
+        check("JsonSerializer invalid escapes", readFails(json, String.class, "\"a\\xb\"")
+                && readFails(json, String.class, "\"\\'\"") && readFails(json, PrimitiveExample.class, "{\"unknown\":\"\\q\"}")
+                && json.read(String.class, "\"\\/\\\"\\\\\\u00e9\"").equals("/\"\\\u00e9"));
+        check("JsonSerializer control characters", readFails(json, String.class, "\"a\tb\"")
+                && readFails(json, String.class, "\"a\nb\"") && readFails(json, String.class, "\"\u0000\"")
+                && readFails(json, Map.class, "{\"a\tb\":1}") && readFails(json, PrimitiveExample.class, "{\"unknown\":\"\u001f\"}")
+                && json.read(String.class, "\"a\\tb\"").equals("a\tb"));
+        check("JsonSerializer invalid numbers", readFails(json, Integer.class, "01") && readFails(json, Integer.class, "-01")
+                && readFails(json, Integer.class, "1-2") && readFails(json, Integer.class, "--1")
+                && readFails(json, Integer.class, "-") && readFails(json, Integer.class, "+1")
+                && readFails(json, Double.class, "1.") && readFails(json, Double.class, ".5")
+                && readFails(json, Double.class, "1e") && readFails(json, Double.class, "1e+")
+                && readFails(json, Double.class, "1.5e3.2") && readFails(json, Double.class, "1E2e3")
+                && readFails(json, PrimitiveExample.class, "{\"unknown\":00}"));
+        check("JsonSerializer valid numbers", json.read(Integer.class, "0") == 0 && json.read(Integer.class, "-0") == 0
+                && json.read(Double.class, "-0.5e-3") == -0.5e-3 && json.read(Double.class, "1E+10") == 1e10
+                && json.read(Double.class, "10.25") == 10.25 && json.read(Long.class, "2e3") == 2000L);
+    }
+
+    /**
+     * Checks that {@link NumberCodec} writes the shortest digits reading back as the same value
+     *
+     * @throws Exception
+     */
+    private static void checkNumberCodec() throws Exception {
+        final NumberCodec codec = NumberCodec.DEFAULT;
+        final char[] buffer = new char[codec.getMaxLength()];
+        final Random random = new Random(42);
+        boolean doubles = true;
+        boolean floats = true;
+
+        for (int i = 0; i < 100000; i++) {
+            final double d = Double.longBitsToDouble(random.nextLong());
+            final float f = Float.intBitsToFloat(random.nextInt());
+
+            if (!Double.isNaN(d) && !Double.isInfinite(d)) {
+                final int length = codec.format(d, buffer, 0);
+                doubles &= Double.parseDouble(new String(buffer, 0, length)) == d
+                        && length <= Double.toString(d).length();
+            }
+            if (!Float.isNaN(f) && !Float.isInfinite(f)) {
+                final int length = codec.format(f, buffer, 0);
+                floats &= Float.parseFloat(new String(buffer, 0, length)) == f
+                        && length <= Float.toString(f).length();
+            }
+        }
+        check("NumberCodec random doubles", doubles);
+        check("NumberCodec random floats", floats);
+
+        boolean edges = true;
+
+        for (final double d : new double[]{Double.MIN_VALUE, Double.MAX_VALUE, Double.MIN_NORMAL, 1e23, 9007199254740993.0, 0.1, 100, 1e-7}) {
+            edges &= Double.parseDouble(codec.format(d)) == d && Double.parseDouble(codec.format(-d)) == -d;
+        }
+        check("NumberCodec edge doubles", edges && codec.format(-0.0).equals("-0.0"));
+        check("NumberCodec precision", new NumberCodec(2, NumberCodec.NonFinite.NULL).format(2.5).equals("2.50")
+                && new NumberCodec(2, NumberCodec.NonFinite.NULL).format(-0.125).equals("-0.13"));
+
+        final JsonSerializer json = new JsonSerializer();
+        final PrimitiveExample object = new PrimitiveExample();
+        object._pDoubleArray = new double[1000];
+        object._pFloatArray = new float[1000];
+
+        for (int i = 0; i < object._pDoubleArray.length; i++) {
+            object._pDoubleArray[i] = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+            object._pFloatArray[i] = (float) object._pDoubleArray[i];
+        }
+        final PrimitiveExample copy = json.read(PrimitiveExample.class, write(json, object));
+        check("JsonSerializer numbers round trip", Arrays.equals(copy._pDoubleArray, object._pDoubleArray)
+                && Arrays.equals(copy._pFloatArray, object._pFloatArray));
+    }
+
+    /**
+     * Checks that {@link ParallelCsvReader} reads every row of a file split in small ranges, in order or not
+     *
+     * @throws Exception
+     */
+    private static void checkParallelCsvReader() throws Exception {
+        final CsvSerializer csv = new CsvSerializer();
+        final String[] strings = {"plain", "a,b", "\"quoted\"", "line\nbreak", "C:\\new", "\u00e9\u20ac", ""};
+        final List<ObjectExample> rows = new ArrayList<ObjectExample>();
+
+        for (int i = 0; i < 5000; i++) {
+            final ObjectExample row = new ObjectExample();
+            row._oInteger = i;
+            row._oString = strings[i % strings.length];
+            rows.add(row);
+        }
+        final Path path = Files.createTempFile("kserializer", ".csv");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(path.toFile()), "UTF-8");
+            csv.writeHeaders(ObjectExample.class, writer);
+            csv.write(rows, writer);
+            writer.close();
+
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            final ParallelCsvReader<ObjectExample> reader = new ParallelCsvReader<ObjectExample>(csv, ObjectExample.class,
+                    channel, executor, 1024);
+            final ParallelCsvReader<ObjectExample>.OrderedRows ordered = reader.readOrdered();
+            boolean same = true;
+            int count = 0;
+
+            while (ordered.hasNext()) {
+                final ObjectExample row = ordered.next();
+                same &= row._oInteger == count && row._oString.equals(strings[count % strings.length]);
+                count++;
+            }
+            ordered.close();
+            check("ParallelCsvReader ordered round trip", same && count == rows.size());
+
+            final AtomicIntegerArray found = new AtomicIntegerArray(rows.size());
+            final long total = reader.readUnordered(new ParallelCsvReader.RowHandler<ObjectExample>() {
+                @Override
+                public void handle(final ObjectExample row) {
+                    if (row._oString.equals(strings[row._oInteger % strings.length])) {
+                        found.incrementAndGet(row._oInteger);
+                    }
+                }
+            });
+            channel.close();
+            boolean once = total == rows.size();
+
+            for (int i = 0; i < found.length(); i++) {
+                once &= found.get(i) == 1;
+            }
+            check("ParallelCsvReader unordered round trip", once);
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Checks that reading a text fails with an IllegalArgumentException
+     *
+     * @param serializer the serializer
+     * @param cls        the type to read
+     * @param text       the text
+     * @return boolean
+     */
+    private static boolean readFails(final KSerializer serializer, final Class<?> cls, final String text) {
+        try {
+            serializer.read(cls, text);
+            return false;
+        } catch (final IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Checks that the collections written in parallel are written byte for byte like the sequential writes
+     *
+     * @throws Exception
+     */
+    private static void checkParallelWrites() throws Exception {
+        final List<ObjectExample> objects = new ArrayList<ObjectExample>();
+        final Random random = new Random(42);
+
+        for (int i = 0; i < 3000; i++) {
+            final ObjectExample object = new ObjectExample();
+            object._oInteger = random.nextInt();
+            object._oDouble = random.nextGaussian();
+            object._oString = i % 7 == 0 ? null : "Object " + i + " <&>\"";
+
+            for (int j = random.nextInt(20); j > 0; j--) {
+                object._oList.add("L" + j);
+            }
+            objects.add(object);
+        }
+        // A large collection nested in an object
+        final ObjectExample root = new ObjectExample();
+        root._oRecursiveList.addAll(objects.subList(0, 1500));
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            for (final boolean compress : new boolean[]{true, false}) {
+                for (final int threshold : new int[]{7, 1000}) {
+                    final String mode = (compress ? " compressed" : " pretty") + " threshold " + threshold;
+                    final KSerializer[] sequential = {new JsonSerializer(), new XmlSerializer(), new CsvSerializer()};
+                    final KSerializer[] parallel = {new JsonSerializer(), new XmlSerializer(), new CsvSerializer()};
+
+                    for (int i = 0; i < sequential.length; i++) {
+                        sequential[i].setCompressOutput(compress);
+                        parallel[i].setCompressOutput(compress);
+                        parallel[i].setParallelPool(pool);
+                        parallel[i].setParallelThreshold(threshold);
+                    }
+                    final JsonSerializer json = (JsonSerializer) parallel[0];
+                    final XmlSerializer xml = (XmlSerializer) parallel[1];
+                    final CsvSerializer csv = (CsvSerializer) parallel[2];
+
+                    check("JsonSerializer parallel" + mode, json.write(objects, new StringWriter()).toString()
+                            .equals(((JsonSerializer) sequential[0]).write(objects, new StringWriter()).toString())
+                            && write(json, root).equals(write(sequential[0], root)));
+                    check("XmlSerializer parallel" + mode, xml.write("objects", objects, new StringWriter()).toString()
+                            .equals(((XmlSerializer) sequential[1]).write("objects", objects, new StringWriter()).toString())
+                            && write(xml, root).equals(write(sequential[1], root)));
+
+                    final ByteArrayOutputStream parallelBytes = new ByteArrayOutputStream();
+                    final ByteArrayOutputStream sequentialBytes = new ByteArrayOutputStream();
+                    csv.write(objects, parallelBytes);
+                    ((CsvSerializer) sequential[2]).write(objects, sequentialBytes);
+                    check("CsvSerializer parallel" + mode, csv.write(objects, new StringWriter()).toString()
+                            .equals(((CsvSerializer) sequential[2]).write(objects, new StringWriter()).toString())
+                            && Arrays.equals(parallelBytes.toByteArray(), sequentialBytes.toByteArray()));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Checks that the fields of known types, written without inspecting their values,
+     * are written like the same values inspected at runtime
+     *
+     * @throws Exception
+     */
+    private static void checkTypedFields() throws Exception {
+        final JsonSerializer json = new JsonSerializer();
+        json.setCompressOutput(true);
+        final ObjectExample object = new ObjectExample();
+        final String text = write(json, object);
+        boolean same = true;
+
+        for (final String name : new String[]{"_oBoolean", "_oByte", "_oChar", "_oDate", "_oDouble", "_oEnum",
+                "_oFloat", "_oInteger", "_oLong", "_oShort", "_oString"}) {
+            final Object value = ObjectExample.class.getField(name).get(object);
+            same &= text.contains("\"" + name + "\":" + write(json, value));
+        }
+        check("JsonSerializer typed fields equal inspected values", same);
+    }
+
+    /**
+     * Checks that {@link Utf8Output} writes the same bytes as {@link String#getBytes(String)},
+     * with surrogate pairs around the end of the buffer, unpaired surrogates and a channel
+     *
+     * @throws Exception
+     */
+    private static void checkUtf8Output() throws Exception {
+        final String pair = "\ud83d\ude00";
+        boolean pairs = true;
+
+        // Moves the pair across the end of the 8192 bytes buffer, the pair is also split between two writes
+        for (int length = 8180; length < 8200; length++) {
+            final StringBuilder builder = new StringBuilder();
+
+            for (int i = 0; i < length; i++) {
+                builder.append((char) ('a' + i % 26));
+            }
+            final String prefix = builder.toString();
+            final String text = prefix + pair + "\u20ac" + pair;
+            final byte[] expected = text.getBytes("UTF-8");
+
+            pairs &= Arrays.equals(encode(text, 0), expected)
+                    && Arrays.equals(encode(text, 1), expected)
+                    && Arrays.equals(encode(text, 2), expected)
+                    && Arrays.equals(encode(text, prefix.length() + 1), expected);
+        }
+        check("Utf8Output surrogate pairs", pairs);
+
+        final String[] unpaired = {"a\ud800b", "a\udc00b", "\udc00\ud800", "a\ud800", "\ud800\ud800\ude00"};
+        boolean lone = true;
+
+        for (final String text : unpaired) {
+            lone &= Arrays.equals(encode(text, 0), text.getBytes("UTF-8"))
+                    && Arrays.equals(encode(text, 2), text.getBytes("UTF-8"));
+        }
+        check("Utf8Output unpaired surrogates", lone);
+
+        final StringBuilder builder = new StringBuilder();
+
+        while (builder.length() < 5 * 8192) {
+            builder.append("abc \u00e9\u00e8 \u20ac ").append(pair).append(' ').append(builder.length());
+        }
+        final String text = builder.toString();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Utf8Output output = new Utf8Output(Channels.newChannel(bytes));
+        output.write(text);
+        output.close();
+        check("Utf8Output channel", Arrays.equals(bytes.toByteArray(), text.getBytes("UTF-8")));
+    }
+
+    /**
+     * Encodes the text with {@link Utf8Output}, the text is written as a string,
+     * as characters, one character at a time or in two strings split at the given index
+     *
+     * @param text  the text
+     * @param split 0 for a string, 1 for characters, 2 for each character or the index of the split
+     * @return byte[]
+     * @throws Exception
+     */
+    private static byte[] encode(final String text, final int split) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Utf8Output output = new Utf8Output(bytes);
+
+        if (split == 0) {
+            output.write(text);
+        } else if (split == 1) {
+            output.write(text.toCharArray(), 0, text.length());
+        } else if (split == 2) {
+            for (int i = 0; i < text.length(); i++) {
+                output.write(text.charAt(i));
+            }
+        } else {
+            output.write(text.substring(0, split));
+            output.write(text, split, text.length() - split);
+        }
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Checks that the objects written on an executor are written like the sequential writes
+     *
+     * @throws Exception
+     */
+    private static void checkWriteAll() throws Exception {
+        final List<Object> objects = new ArrayList<Object>();
+
+        for (int i = 0; i < 200; i++) {
+            final ObjectExample object = new ObjectExample();
+            object._oInteger = i;
+            object._oString = "Object \u00e9\u4e2d " + i;
+            objects.add(i % 3 == 0 ? new PrimitiveExample() : object);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (final KSerializer serializer : new KSerializer[]{new JsonSerializer(), new XmlSerializer(), new CsvSerializer()}) {
+                final String name = serializer.getClass().getSimpleName();
+                final List<String> strings = serializer.writeAll(objects, executor);
+                final List<byte[]> bytes = serializer.writeAllBytes(objects, executor);
+                final List<ByteArrayOutputStream> streams = new ArrayList<ByteArrayOutputStream>();
+
+                for (int i = 0; i < objects.size(); i++) {
+                    streams.add(new ByteArrayOutputStream());
+                }
+                serializer.writeAll(objects, streams, executor);
+                boolean same = strings.size() == objects.size() && bytes.size() == objects.size();
+
+                for (int i = 0; i < objects.size(); i++) {
+                    final ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+                    serializer.write(objects.get(i), sequential);
+                    same &= strings.get(i).equals(write(serializer, objects.get(i)))
+                            && Arrays.equals(bytes.get(i), sequential.toByteArray())
+                            && Arrays.equals(streams.get(i).toByteArray(), sequential.toByteArray());
+                }
+                check(name + " writeAll equals sequential writes", same);
+            }
+
+            // The first error is thrown once all the objects are written
+            final JsonSerializer json = new JsonSerializer();
+            final List<OutputStream> streams = new ArrayList<OutputStream>();
+
+            for (int i = 0; i < 10; i++) {
+                streams.add(i == 3 ? new OutputStream() {
+                    @Override
+                    public void write(final int b) throws IOException {
+                        throw new IOException("Failing stream");
+                    }
+
+                    @Override
+                    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+                        throw new IOException("Failing stream");
+                    }
+                } : new ByteArrayOutputStream());
+            }
+            boolean failed = false;
+
+            try {
+                json.writeAll(objects.subList(0, 10), streams, executor);
+            } catch (final IOException e) {
+                failed = e.getMessage().equals("Failing stream");
+            }
+            check("JsonSerializer writeAll error", failed && ((ByteArrayOutputStream) streams.get(9)).size() > 0);
+
+            boolean mismatch = false;
+
+            try {
+                json.writeAll(objects.subList(0, 2), streams, executor);
+            } catch (final IllegalArgumentException e) {
+                mismatch = true;
+            }
+            check("JsonSerializer writeAll stream count", mismatch);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Checks that a write call uses the configuration it started with and the next calls use the changes
+     *
+     * @throws Exception
+     */
+    private static void checkWriteConfig() throws Exception {
+        final List<ObjectExample> objects = Arrays.asList(new ObjectExample(), new ObjectExample(), new ObjectExample());
+        final JsonSerializer json = new JsonSerializer();
+        final String expected = write(json, objects);
+        final StringWriter writer = new StringWriter();
+
+        json.write(changingIterator(objects, new Runnable() {
+            @Override
+            public void run() {
+                json.setCompressOutput(true);
+                json.setDateCodec(new DateCodec(DateCodec.Mode.EPOCH_MILLIS));
+                json.excludeField("_oString", ObjectExample.class);
+            }
+        }), writer);
+        final String changed = write(json, objects);
+
+        check("JsonSerializer call keeps its configuration", writer.toString().equals(expected));
+        check("JsonSerializer next call uses the changes", !changed.contains(" : ") && !changed.contains("_oString")
+                && changed.contains("\"_oDate\":" + objects.get(0)._oDate.getTime()));
+
+        final CsvSerializer csv = new CsvSerializer();
+        final String expectedCsv = csv.write(objects, new StringWriter()).toString();
+        final StringWriter csvWriter = new StringWriter();
+
+        csv.write(changingIterator(objects, new Runnable() {
+            @Override
+            public void run() {
+                csv.setValueDelimiter('\'');
+                csv.setValueSeparator(';');
+            }
+        }), csvWriter);
+        check("CsvSerializer call keeps its configuration", csvWriter.toString().equals(expectedCsv));
+        check("CsvSerializer next call uses the changes", csv.write(objects, new StringWriter()).toString().startsWith("true;1;'C';"));
+    }
+
+    /**
+     * Returns an iterator over the elements running an action once the first element is returned
+     *
+     * @param elements the elements
+     * @param action   the action
+     * @param <T>      the element type
+     * @return Iterator
+     */
+    private static <T> Iterator<T> changingIterator(final List<T> elements, final Runnable action) {
+        return new Iterator<T>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < elements.size();
+            }
+
+            @Override
+            public T next() {
+                if (index == 1) {
+                    action.run();
+                }
+                return elements.get(index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Checks that {@link XmlSerializer} reads back what it writes, attributes, normalized names and collections included
+     *
+     * @throws Exception
+     */
+    private static void checkXmlReader() throws Exception {
+        final XmlSerializer xml = new XmlSerializer();
+        xml.asAttribute(ObjectExample.class, "_oInteger");
+        xml.asAttribute(ObjectExample.class, "_oString");
+        xml.asAttribute(ObjectExample.class, "_oEnum");
+        // Maps are not read since their keys are not written
+        xml.excludeField("_oMap", ObjectExample.class);
+
+        final ObjectExample object = new ObjectExample();
+        object._oInteger = -7;
+        object._oString = "An <\"attribute\"> & more";
+        object._oEnum = ObjectExample.Enumeration.THREE;
+        object._oList.add("L3");
+        object._oRecursive = new ObjectExample();
+        object._oRecursive._oChar = '\t';
+        object._oRecursiveList.add(new ObjectExample());
+        object._oRecursiveList.get(0)._oList.clear();
+        object._oObject._pIntArray = new int[]{3, -2, 1};
+
+        final String text = write(xml, object);
+        final ObjectExample copy = xml.read(ObjectExample.class, text);
+
+        check("XmlSerializer normalized names", text.contains(" oInteger=\"-7\"") && text.contains("<oList>")
+                && !text.contains("_o"));
+        check("XmlSerializer attributes round trip", copy._oInteger == -7 && copy._oString.equals(object._oString)
+                && copy._oEnum == ObjectExample.Enumeration.THREE);
+        check("XmlSerializer collections round trip", copy._oList.equals(object._oList) && copy._oSet.equals(object._oSet)
+                && copy._oRecursiveList.size() == 1 && copy._oRecursiveList.get(0)._oList.isEmpty()
+                && Arrays.equals(copy._oObject._pIntArray, object._oObject._pIntArray));
+        check("XmlSerializer round trip", write(xml, copy).equals(text));
+        check("XmlSerializer map not read", readFails(xml, HashMap.class, "<HashMap><entry>1</entry></HashMap>"));
+
+        // The children of a root read one at a time
+        final List<ObjectExample> objects = Arrays.asList(object, copy, new ObjectExample());
+        final StringWriter writer = new StringWriter();
+        xml.write("objects", objects, writer);
+        final XmlElementIterator<ObjectExample> elements = xml.readElements(ObjectExample.class, new StringReader(writer.toString()));
+        final StringBuilder expected = new StringBuilder();
+        final StringBuilder actual = new StringBuilder();
+
+        for (final ObjectExample element : objects) {
+            expected.append(write(xml, element));
+        }
+        while (elements.hasNext()) {
+            actual.append(write(xml, elements.next()));
+        }
+        check("XmlElementIterator reads each element", actual.toString().equals(expected.toString()) && !elements.hasNext());
+
+        final XmlElementIterator<ObjectExample> closed = xml.readElements(ObjectExample.class, new StringReader(writer.toString()));
+        closed.next();
+        closed.close();
+        check("XmlElementIterator close", !closed.hasNext());
+    }
+
+    /**
+     * Writes an object to a string
+     *
+     * @param serializer the serializer
+     * @param object     the object
+     * @return String
+     * @throws Exception
+     */
+    private static String write(final KSerializer serializer, final Object object) throws Exception {
+        final StringWriter writer = new StringWriter();
+        serializer.write(object, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Writes an object to a string, preceded by the headers of its class for CSV
+     *
+     * @param serializer the serializer
+     * @param object     the object
+     * @return String
+     * @throws Exception
+     */
+    private static String writeWithHeaders(final KSerializer serializer, final Object object) throws Exception {
+        final StringWriter writer = new StringWriter();
+
+        if (serializer instanceof CsvSerializer) {
+            ((CsvSerializer) serializer).writeHeaders(object.getClass(), writer);
+        }
+        serializer.write(object, writer);
+        return writer.toString();
+    }
+
     /**
      * Starts the tests
      *
@@ -98,9 +1589,42 @@ public class Main {
                 fileWriter.close();
             }
 
+            writer.append("\n\n");
+            writer.flush();
+
+            // Check the round trips
+            checkAsyncOutput();
+            checkCompression();
+            checkCsvReader();
+            checkCsvShardWriter();
+            checkCycles();
+            checkDateCodec();
+            checkDescriptors();
+            checkEscaper();
+            checkFileSink();
+            checkGeneratedAccessors();
+            checkIterables();
+            checkJsonElementIterator();
+            checkJsonProjection();
+            checkJsonReader();
+            checkNumberCodec();
+            checkParallelCsvReader();
+            checkParallelWrites();
+            checkTypedFields();
+            checkUtf8Output();
+            checkWriteAll();
+            checkWriteConfig();
+            checkXmlReader();
+
+            System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+
             // Close the output stream
             writer.close();
 
+            if (failures > 0) {
+                System.exit(1);
+            }
+
         } catch (final Exception e) {
             e.printStackTrace();
         }
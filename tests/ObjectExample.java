@@ -46,9 +46,14 @@ public class ObjectExample {
         _oMap.put("2nd", new PrimitiveExample());
     }
 
-    private enum Enumeration {
+    enum Enumeration {
         ONE,
         TWO,
-        THREE
+        THREE;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
     }
 }